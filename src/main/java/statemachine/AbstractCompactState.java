@@ -0,0 +1,76 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * This implements the Vector methods of State in terms of the sets of
+ * CompactState, so that a CompactState also works wherever a State is
+ * expected.
+ * <p>
+ * Extending classes typically build their sets in init using eventSet
+ * and stateSet.
+ * <p>
+ * @see CompactState
+ * @see AbstractState
+ */
+public abstract class AbstractCompactState extends AbstractState implements CompactState {
+
+    private static final long serialVersionUID = 2816318447040766291L;
+
+    protected AbstractCompactState(String name) {
+        super(name);
+    }
+
+    /**
+     * Gets all States this State may transition to other than itself as a
+     * new Vector built from getTransitionStateSet.
+     * <p>
+     * 
+     * @return block of States
+     */
+    @Override
+    public Vector<State> getTransitionStates() {
+
+        return new Vector<State>(Arrays.asList(getTransitionStateSet().toArray()));
+    }
+
+    /**
+     * Gets all Events accepted by this State as a new Vector built from
+     * getInputEventSet.
+     * <p>
+     * 
+     * @return block of events
+     */
+    @Override
+    public Vector<Event> getInputEvents() {
+
+        return new Vector<Event>(Arrays.asList(getInputEventSet().toArray()));
+    }
+
+}
@@ -37,6 +37,9 @@ public abstract class AbstractEvent implements Event, Serializable {
 
     private final String name;
 
+    // id + 1 so that zero, the value after deserialization, means not yet assigned
+    private transient int cachedId;
+
     protected AbstractEvent(String name) {
         this.name = name;
     }
@@ -67,6 +70,44 @@ public abstract class AbstractEvent implements Event, Serializable {
     @Override
     public abstract <E extends Event> E getThis();
 
+    /**
+     * Gets the id of this Event. The id is looked up in the
+     * IdentityRegistry once and then cached.
+     * <p>
+     * 
+     * @return id
+     * @see IdentityRegistry
+     */
+    @Override
+    public int id() {
+
+        int id = cachedId - 1;
+        if (id == IdentityRegistry.NO_ID) {
+            id = IdentityRegistry.idOf(this);
+            cachedId = id + 1;
+        }
+        return id;
+    }
+
+    /**
+     * Gets the id of this Event if it has been registered, caching it
+     * as id does.
+     * <p>
+     * 
+     * @return id or IdentityRegistry.NO_ID
+     * @see IdentityRegistry#peekId(Event)
+     */
+    @Override
+    public int peekId() {
+
+        int id = cachedId - 1;
+        if (id == IdentityRegistry.NO_ID) {
+            id = IdentityRegistry.peekId(this);
+            cachedId = id + 1;
+        }
+        return id;
+    }
+
     /**
      * Returns a hash code value for the Event.
      * <p>
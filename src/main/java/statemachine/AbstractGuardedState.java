@@ -0,0 +1,110 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * This implements GuardedState on top of AbstractCompactState. The input
+ * Events and transition States are derived from the GuardedTransitions,
+ * which an extending class sets in init with setTransitions.
+ * <p>
+ * onTransition evaluates the Guards too, for StateMachines that do not
+ * compile them. There, an Event for which no Guard passes leaves this
+ * State as a transition back into itself.
+ * <p>
+ * @see GuardedState
+ * @see GuardedTransition
+ */
+public abstract class AbstractGuardedState extends AbstractCompactState implements GuardedState {
+
+    private static final long serialVersionUID = -1930584617216451207L;
+
+    private GuardedTransition[] transitions = new GuardedTransition[0];
+    private EventSet inputEvents = EventSet.EMPTY;
+    private StateSet transitionStates = StateSet.EMPTY;
+
+    protected AbstractGuardedState(String name) {
+        super(name);
+    }
+
+    /**
+     * Sets the transitions of this State, replacing any set before, along
+     * with its input Events and transition States.
+     * <p>
+     * @param transitions
+     */
+    protected void setTransitions(GuardedTransition... transitions) {
+
+        Set<Event> events = new LinkedHashSet<Event>();
+        Set<State> states = new LinkedHashSet<State>();
+        for (GuardedTransition transition : transitions) {
+            events.add(transition.getEvent());
+            if (!transition.getTarget().equals(this)) {
+                states.add(transition.getTarget());
+            }
+        }
+        this.transitions = transitions.clone();
+        this.inputEvents = EventSet.copyOf(events);
+        this.transitionStates = StateSet.copyOf(states);
+    }
+
+    @Override
+    public GuardedTransition[] getGuardedTransitions() {
+
+        return transitions.clone();
+    }
+
+    /**
+     * Takes the first transition on the Event whose Guard passes.
+     * <p>
+     * @param event
+     * @return target of the transition, or this State if none passes
+     */
+    @Override
+    public State onTransition(Event event) throws StateMachineException {
+
+        for (GuardedTransition transition : transitions) {
+            if (transition.getEvent().equals(event) && transition.isTaken(event)) {
+                return transition.getTarget();
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public EventSet getInputEventSet() {
+
+        return inputEvents;
+    }
+
+    @Override
+    public StateSet getTransitionStateSet() {
+
+        return transitionStates;
+    }
+}
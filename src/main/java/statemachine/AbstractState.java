@@ -38,6 +38,9 @@ public abstract class AbstractState implements State, Serializable {
 
     private final String name;
 
+    // id + 1 so that zero, the value after deserialization, means not yet assigned
+    private transient int cachedId;
+
     protected AbstractState(String name) {
         this.name = name;
     }
@@ -68,6 +71,44 @@ public abstract class AbstractState implements State, Serializable {
     @Override
     public abstract <S extends State> S getThis();
 
+    /**
+     * Gets the id of this State. The id is looked up in the
+     * IdentityRegistry once and then cached.
+     * <p>
+     * 
+     * @return id
+     * @see IdentityRegistry
+     */
+    @Override
+    public int id() {
+
+        int id = cachedId - 1;
+        if (id == IdentityRegistry.NO_ID) {
+            id = IdentityRegistry.idOf(this);
+            cachedId = id + 1;
+        }
+        return id;
+    }
+
+    /**
+     * Gets the id of this State if it has been registered, caching it
+     * as id does.
+     * <p>
+     * 
+     * @return id or IdentityRegistry.NO_ID
+     * @see IdentityRegistry#peekId(State)
+     */
+    @Override
+    public int peekId() {
+
+        int id = cachedId - 1;
+        if (id == IdentityRegistry.NO_ID) {
+            id = IdentityRegistry.peekId(this);
+            cachedId = id + 1;
+        }
+        return id;
+    }
+
     /**
      * Performs initialization of the State implementation, if needed. In
      * particular, if the State implementation builds a table of States it
@@ -227,4 +268,34 @@ public abstract class AbstractState implements State, Serializable {
         }
         return inputEvents;
     }
+
+    /**
+     * Returns its arguments as an immutable EventSet.
+     * <p>
+     * This is useful for implementing the getInputEventSet method of
+     * CompactState.
+     * <p>
+     * @param events
+     * @return EventSet
+     * @see CompactState
+     */
+    protected EventSet eventSet(Event... events) {
+
+        return EventSet.of(events);
+    }
+
+    /**
+     * Returns its arguments as an immutable StateSet.
+     * <p>
+     * This is useful for implementing the getTransitionStateSet method of
+     * CompactState.
+     * <p>
+     * @param states
+     * @return StateSet
+     * @see CompactState
+     */
+    protected StateSet stateSet(State... states) {
+
+        return StateSet.of(states);
+    }
 }
@@ -26,12 +26,20 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package statemachine;
 
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import statemachine.trigger.Trigger;
 import statemachine.trigger.TriggerHandle;
@@ -51,6 +59,14 @@ import statemachine.trigger.TriggerHandle;
  * <p>
  * This also manages junctures allowing them to be added, changed, and removed.
  * <p>
+ * EventTaps added to it see each Event once it has been delivered.
+ * <p>
+ * TransitionListeners added to it are added to each of its StateMachines.
+ * <p>
+ * Given a MachinePool, it removes a FiniteStateMachine that has reached a
+ * terminal State once its Events are delivered, and releases it to the
+ * pool.
+ * <p>
  * @see StateMachineContainer
  * @see Event
  * @see GeneralStateMachineContainer
@@ -58,12 +74,19 @@ import statemachine.trigger.TriggerHandle;
 public abstract class AbstractStateMachineContainer<I> implements StateMachineContainer, Serializable
 {
     private static final long serialVersionUID = 8365509840101645075L;
+    // Runs are usually short, so their array starts small and grows toward maxEvents
+    private static final int INITIAL_RUN_LENGTH = 8;
 
     private final Map<I, StateMachine> keyInputToStateMachine; 
     protected final Map<TriggerHandle, Trigger> triggerHandleToTrigger;
     private final Queue<Event> priorityEventQueue;
     private final Queue<Event> normalEventQueue;
     private final String name;
+    // EventTaps and TransitionListeners are not Serializable, so a deserialized container has none
+    private transient List<EventTap> eventTaps;
+    private final EventSender tapEventSender;
+    private transient List<TransitionListener> transitionListeners;
+    private transient volatile MachinePool machinePool = null;
     
     public AbstractStateMachineContainer(String name, Queue<Event> normalEventQueue)
     {
@@ -72,6 +95,12 @@ public abstract class AbstractStateMachineContainer<I> implements StateMachineCo
         this.priorityEventQueue = new ConcurrentLinkedQueue<Event>();
         this.normalEventQueue = normalEventQueue;
         this.name = name;
+        this.eventTaps = new CopyOnWriteArrayList<EventTap>();
+        this.transitionListeners = new CopyOnWriteArrayList<TransitionListener>();
+        this.tapEventSender = new AbstractEventSender(normalEventQueue, priorityEventQueue)
+        {
+            private static final long serialVersionUID = 2986075305957311042L;
+        };
     }
     
     /**
@@ -118,9 +147,21 @@ public abstract class AbstractStateMachineContainer<I> implements StateMachineCo
     @Override
     public void addStateMachine(StateMachine stateMachine)
     {
-        for ( Event event : stateMachine.getInputEvents() )
+        // Get the input Events first, so a StateMachine that fails here
+        // is left without the container's TransitionListeners
+        EventSet inputEvents = stateMachine.getInputEventSet();
+        
+        if ( ! transitionListeners.isEmpty() && ! keyInputToStateMachine.containsValue(stateMachine) )
+        {
+            for ( TransitionListener transitionListener : transitionListeners )
+            {
+                stateMachine.addTransitionListener(transitionListener);
+            }
+        }
+        
+        for ( int index = 0; index < inputEvents.size(); index++ )
         {
-            keyInputToStateMachine.put(keyInput(event), stateMachine);
+            keyInputToStateMachine.put(keyInput(inputEvents.get(index)), stateMachine);
         }
     }
     
@@ -156,12 +197,20 @@ public abstract class AbstractStateMachineContainer<I> implements StateMachineCo
     @Override
     public void removeStateMachine(StateMachine stateMachine)
     {
+        boolean removed = false;
         for ( Entry<I, StateMachine> entry : keyInputToStateMachine.entrySet() )
         {
             // Remove every entry with a matching StateMachine as a value
             if ( entry.getValue().equals(stateMachine) )
             {
-                keyInputToStateMachine.remove(entry.getKey());
+                removed |= keyInputToStateMachine.remove(entry.getKey()) != null;
+            }
+        }
+        if ( removed )
+        {
+            for ( TransitionListener transitionListener : transitionListeners )
+            {
+                stateMachine.removeTransitionListener(transitionListener);
             }
         }
     }
@@ -175,6 +224,10 @@ public abstract class AbstractStateMachineContainer<I> implements StateMachineCo
      * <p>
      * The StateMachineContainer holds the priority queue.
      * <p>
+     * Every Event delivered is input to the StateMachine, so an Event it
+     * rejects still reaches its TransitionListeners. The Triggers are checked
+     * after every Event delivered, accepted or not.
+     * <p>
      * @return true/false
      * @throws StateMachineException 
      * @see StateMachine
@@ -204,6 +257,177 @@ public abstract class AbstractStateMachineContainer<I> implements StateMachineCo
         return false;
     }
     
+    /**
+     * Delivers a run of Events to a StateMachine in one call to its
+     * batch input method. 
+     * If the priority queue is non empty, its first Event is delivered
+     * alone, exactly as by deliverNextEvent.
+     * Otherwise the run is the next Event of the normal queue and up to
+     * maxEvents - 1 following Events that go to the same StateMachine.
+     * <p>
+     * Triggers are checked once after the run rather than after each Event,
+     * so a Juncture that is met and then unmet within the run is missed.
+     * <p>
+     * Returns false if both the normal queue and priority queue are empty.
+     * <p>
+     * @param maxEvents
+     * @return true/false
+     * @throws StateMachineException 
+     * @see StateMachine#input(Event[], int, int)
+     * @see BulkState
+     */
+    @Override
+    public boolean deliverNextEvents(int maxEvents) throws StateMachineException
+    {
+        if ( ! priorityEventQueue.isEmpty() || maxEvents <= 1 )
+        {
+            return deliverNextEvent();
+        }
+        
+        // dequeue event
+        Event event = normalEventQueue.poll();
+        if ( event == null )
+        {
+            return false;
+        }
+        
+        I keyInput = keyInput(event);
+        if ( ! isEntry(keyInput) )
+        {
+            return true;
+        }
+        
+        StateMachine stateMachine = keyInputToStateMachine.get(keyInput);
+        Event[] events = new Event[Math.min(maxEvents, INITIAL_RUN_LENGTH)];
+        int count = 0;
+        events[count++] = event;
+        
+        // dequeue the following events for the same StateMachine
+        Event nextEvent = normalEventQueue.peek();
+        while ( count < maxEvents && nextEvent != null
+                && keyInputToStateMachine.get(keyInput(nextEvent)) == stateMachine )
+        {
+            if ( count == events.length )
+            {
+                events = Arrays.copyOf(events, Math.min(maxEvents, count * 2));
+            }
+            events[count++] = normalEventQueue.poll();
+            nextEvent = normalEventQueue.peek();
+        }
+        
+        for ( int index = 0; index < count; index++ )
+        {
+            setEventSender(events[index]);
+        }
+        
+        try {
+            stateMachine.input(events, 0, count);
+            
+        } catch (StateMachineException e) {
+            
+            removeStateMachine(stateMachine);
+            throw e;
+        } 
+            
+        pullActiveTriggers(stateMachine);
+        for ( int index = 0; index < count; index++ )
+        {
+            tap(events[index], stateMachine);
+        }
+        releaseIfTerminal(stateMachine);
+        return true;
+    }
+    
+    /**
+     * Sets the MachinePool that FiniteStateMachines reaching a terminal
+     * State are released to, or stops releasing them if the pool is null.
+     * A FiniteStateMachine is checked after each Event or run of Events
+     * delivered to it, once the Triggers and EventTaps have seen it.
+     * <p>
+     * @param machinePool or null
+     * @see FiniteStateMachine#isInTerminalState()
+     */
+    public void setMachinePool(MachinePool machinePool)
+    {
+        this.machinePool = machinePool;
+    }
+    
+    public MachinePool getMachinePool()
+    {
+        return machinePool;
+    }
+    
+    /**
+     * Adds an EventTap that sees every Event delivered from then on.
+     * EventTaps are not serialized with the container.
+     * <p>
+     * @param eventTap
+     * @see EventTap
+     */
+    public void addEventTap(EventTap eventTap)
+    {
+        eventTaps.add(eventTap);
+    }
+    
+    /**
+     * Removes an EventTap.
+     * <p>
+     * @param eventTap
+     */
+    public void removeEventTap(EventTap eventTap)
+    {
+        eventTaps.remove(eventTap);
+    }
+    
+    /**
+     * Adds a TransitionListener to every StateMachine in the container
+     * and to each StateMachine added from then on.
+     * TransitionListeners are not serialized with the container, as
+     * they are not with a StateMachine.
+     * <p>
+     * @param transitionListener
+     * @throws NullPointerException if transitionListener is null
+     * @see TransitionListener
+     */
+    @Override
+    public void addTransitionListener(TransitionListener transitionListener)
+    {
+        // Check before adding, so a null never reaches some StateMachines and not others
+        if ( transitionListener == null )
+        {
+            throw new NullPointerException("TransitionListener is null");
+        }
+        transitionListeners.add(transitionListener);
+        for ( StateMachine stateMachine : distinctStateMachines() )
+        {
+            stateMachine.addTransitionListener(transitionListener);
+        }
+    }
+    
+    /**
+     * Removes a TransitionListener from the container and its StateMachines.
+     * <p>
+     * @param transitionListener
+     */
+    @Override
+    public void removeTransitionListener(TransitionListener transitionListener)
+    {
+        if ( transitionListeners.remove(transitionListener) )
+        {
+            for ( StateMachine stateMachine : distinctStateMachines() )
+            {
+                stateMachine.removeTransitionListener(transitionListener);
+            }
+        }
+    }
+    
+    private Set<StateMachine> distinctStateMachines()
+    {
+        Set<StateMachine> stateMachines = Collections.newSetFromMap(new IdentityHashMap<StateMachine, Boolean>());
+        stateMachines.addAll(keyInputToStateMachine.values());
+        return stateMachines;
+    }
+    
     /**
      * Adds a new Trigger or replaces an existing one with the same TriggerHandle.
      * <p>
@@ -266,6 +490,36 @@ public abstract class AbstractStateMachineContainer<I> implements StateMachineCo
         } 
             
         pullActiveTriggers(stateMachine);
+        tap(event, stateMachine);
+        releaseIfTerminal(stateMachine);
+    }
+    
+    /**
+     * Removes a FiniteStateMachine in a terminal State and releases it to
+     * the MachinePool, if there is one.
+     * <p>
+     * @param stateMachine
+     */
+    private void releaseIfTerminal(StateMachine stateMachine)
+    {
+        MachinePool pool = machinePool;
+        if ( pool != null && stateMachine instanceof FiniteStateMachine )
+        {
+            FiniteStateMachine finiteStateMachine = (FiniteStateMachine) stateMachine;
+            if ( finiteStateMachine.isInTerminalState() )
+            {
+                removeStateMachine(finiteStateMachine);
+                pool.release(finiteStateMachine);
+            }
+        }
+    }
+    
+    private void tap(Event event, StateMachine stateMachine)
+    {
+        for ( EventTap eventTap : eventTaps )
+        {
+            eventTap.onDelivered(event, stateMachine, tapEventSender);
+        }
     }
     
     /**
@@ -308,6 +562,13 @@ public abstract class AbstractStateMachineContainer<I> implements StateMachineCo
         }
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        eventTaps = new CopyOnWriteArrayList<EventTap>();
+        transitionListeners = new CopyOnWriteArrayList<TransitionListener>();
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#hashCode()
      */
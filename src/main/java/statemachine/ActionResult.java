@@ -30,6 +30,9 @@ package statemachine;
  * to provide guidance to the calling State.transitionOn method
  * as to what State to transition into.
  * <p>
+ * The actions of an ActionState return one of these to the
+ * FiniteStateMachine; see ActionState for what each one does there.
+ * <p>
  * STAY --> Stay in same state
  * <p>
  * PROCEED --> Go to next expected state
@@ -39,6 +42,8 @@ package statemachine;
  * BRANCH --> Go to alternate state 
  * <p>
  * RESTART --> Go to the start state
+ * <p>
+ * @see ActionState
  */
 public enum ActionResult
 {
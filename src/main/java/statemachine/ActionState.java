@@ -0,0 +1,101 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+/**
+ * An ActionState is a TableDrivenState whose actions tell the
+ * FiniteStateMachine what to do next by returning an ActionResult,
+ * instead of throwing a StateMachineException.
+ * <p>
+ * When the current State is an ActionState, an Event it accepts first
+ * runs its onTransitionAction, whose ActionResult means:
+ * <p>
+ * STAY --> the Event is applied but the State does not change and no
+ * entry action is run
+ * <p>
+ * PROCEED --> transition into the State given by getTransitionState
+ * <p>
+ * ABORT --> the Event is not applied and the State does not change
+ * <p>
+ * BRANCH --> transition into the State given by getBranchState, which
+ * was compiled into the TransitionTable during setup
+ * <p>
+ * RESTART --> the FiniteStateMachine is put back in its start State
+ * without running any entry action, as after setup
+ * <p>
+ * When the next State is an ActionState, its onEntryAction is run in
+ * place of onEntry. ABORT rolls the FiniteStateMachine back to the State
+ * it was in before the Event, RESTART puts it in its start State, and
+ * any other ActionResult completes the transition.
+ * <p>
+ * Branch States must be among the transition States so setup finds
+ * them. Other StateMachines run an ActionState as a TableDrivenState.
+ * <p>
+ * @see ActionResult
+ * @see FiniteStateMachine
+ */
+public interface ActionState extends TableDrivenState
+{
+    /**
+     * Runs the exit and transition action of this State for an Event it
+     * accepts. The default is PROCEED.
+     * <p>
+     * @param event
+     * @return actionResult
+     */
+    default ActionResult onTransitionAction(Event event)
+    {
+        return ActionResult.PROCEED;
+    }
+
+    /**
+     * Runs the entry action of this State. It replaces onEntry.
+     * The default is PROCEED.
+     * <p>
+     * @param event
+     * @return actionResult
+     */
+    default ActionResult onEntryAction(Event event)
+    {
+        return ActionResult.PROCEED;
+    }
+
+    /**
+     * Gets the State this State transitions into for the given Event
+     * when onTransitionAction returns BRANCH. It is called once for each
+     * of the input Events during setup. A BRANCH on an Event with no
+     * branch State is treated as ABORT.
+     * <p>
+     * The default is no branch State.
+     * <p>
+     * @param event
+     * @return branch State or null
+     */
+    default State getBranchState(Event event)
+    {
+        return null;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+/**
+ * A BulkState handles a run of Events that leave it unchanged in one
+ * call instead of one onTransition and one onEntry call per Event.
+ * For example, a State collecting coins can add up a run of coins.
+ * <p>
+ * When a run of Events is input to a FiniteStateMachine and the current
+ * State is a BulkState, the FiniteStateMachine passes it the longest run
+ * of consecutive Events it accepts. The BulkState consumes Events from the
+ * start of the run for as long as each one would leave it in the same
+ * State, and returns where it stopped. If it consumed any Events, its
+ * onEntry method is then called once with the last Event consumed.
+ * Any Event it did not consume is input normally, through onTransition.
+ * <p>
+ * @see State
+ * @see FiniteStateMachine#input(Event[], int, int)
+ * @see AbstractStateMachineContainer#deliverNextEvents(int)
+ */
+public interface BulkState extends State
+{
+    /**
+     * Consumes the leading Events of events[from] to events[to - 1] that
+     * are self-transitions of this State.
+     * <p>
+     * @param events
+     * @param from index of the first Event of the run
+     * @param to index after the last Event of the run
+     * @return index of the first Event not consumed, between from and to
+     * @throws StateMachineException
+     */
+    int onSelfTransitions(Event[] events, int from, int to) throws StateMachineException;
+}
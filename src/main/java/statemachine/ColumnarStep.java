@@ -0,0 +1,186 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps a range of machine instances by one Event each, reading and
+ * writing their State indices in place. Ranges longer than THRESHOLD are
+ * split in two and stepped on the ForkJoinPool; a shorter range is one
+ * loop over the two arrays.
+ * <p>
+ * An instance whose entry is a next State index is stepped with two
+ * array reads and a write. Only GUARDED and DELEGATE entries need the
+ * States, so a definition of TableDrivenStates runs at memory speed.
+ * <p>
+ * A StateMachineException thrown by onTransition is kept for the
+ * joining thread; the other ranges are still stepped.
+ * <p>
+ * @see MachineDefinition#step(int[], int[])
+ */
+final class ColumnarStep extends RecursiveAction
+{
+    private static final long serialVersionUID = 1L;
+    static final int THRESHOLD = 1 << 14;
+
+    private final TransitionTable transitionTable;
+    private final int[] stateIndices;
+    private final int[] eventIndices;
+    private final int from;
+    private final int to;
+    private long appliedCount = 0;
+    private StateMachineException failure = null;
+
+    ColumnarStep(TransitionTable transitionTable, int[] stateIndices, int[] eventIndices, int from, int to)
+    {
+        this.transitionTable = transitionTable;
+        this.stateIndices = stateIndices;
+        this.eventIndices = eventIndices;
+        this.from = from;
+        this.to = to;
+    }
+
+    long getAppliedCount()
+    {
+        return appliedCount;
+    }
+
+    StateMachineException getFailure()
+    {
+        return failure;
+    }
+
+    @Override
+    protected void compute()
+    {
+        if ( to - from <= THRESHOLD )
+        {
+            try
+            {
+                appliedCount = step(transitionTable, stateIndices, eventIndices, from, to);
+            }
+            catch (StateMachineException e)
+            {
+                failure = e;
+            }
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        ColumnarStep left = new ColumnarStep(transitionTable, stateIndices, eventIndices, from, middle);
+        ColumnarStep right = new ColumnarStep(transitionTable, stateIndices, eventIndices, middle, to);
+        invokeAll(left, right);
+        appliedCount = left.appliedCount + right.appliedCount;
+        failure = left.failure;
+        if ( failure == null )
+        {
+            failure = right.failure;
+        }
+        else if ( right.failure != null )
+        {
+            failure.addSuppressed(right.failure);
+        }
+    }
+
+    /**
+     * Steps the instances from from to to on the calling thread.
+     * An instance whose State or Event index is REJECT, or whose State
+     * rejects the Event, is left as it is.
+     * <p>
+     * @param transitionTable
+     * @param stateIndices
+     * @param eventIndices
+     * @param from
+     * @param to
+     * @return number of instances that made a transition
+     * @throws StateMachineException from onTransition; the instances
+     * before it have been stepped
+     */
+    static long step(TransitionTable transitionTable, int[] stateIndices, int[] eventIndices, int from, int to)
+        throws StateMachineException
+    {
+        long appliedCount = 0;
+        for ( int instance = from; instance < to; instance++ )
+        {
+            int stateIndex = stateIndices[instance];
+            int eventIndex = eventIndices[instance];
+            if ( stateIndex == TransitionTable.REJECT || eventIndex == TransitionTable.REJECT )
+            {
+                continue;
+            }
+            
+            int nextStateIndex = transitionTable.next(stateIndex, eventIndex);
+            if ( nextStateIndex < 0 )
+            {
+                nextStateIndex = resolve(transitionTable, stateIndex, eventIndex, nextStateIndex);
+                if ( nextStateIndex == TransitionTable.REJECT )
+                {
+                    continue;
+                }
+            }
+            stateIndices[instance] = nextStateIndex;
+            appliedCount++;
+        }
+        return appliedCount;
+    }
+
+    // Resolves a GUARDED or DELEGATE entry, using the memo of a PureState
+    private static int resolve(TransitionTable transitionTable, int stateIndex, int eventIndex, int entry)
+        throws StateMachineException
+    {
+        if ( entry == TransitionTable.REJECT )
+        {
+            return entry;
+        }
+        
+        Event event = transitionTable.getEvent(eventIndex);
+        if ( entry == TransitionTable.GUARDED )
+        {
+            entry = transitionTable.next(stateIndex, eventIndex, event);
+            if ( entry != TransitionTable.DELEGATE )
+            {
+                return entry;
+            }
+        }
+        
+        int memoizedIndex = transitionTable.memoized(stateIndex, eventIndex);
+        if ( memoizedIndex != TransitionTable.REJECT )
+        {
+            return memoizedIndex;
+        }
+        State state = transitionTable.getState(stateIndex);
+        State nextState = state.onTransition(event);
+        int nextStateIndex = transitionTable.indexOf(nextState);
+        if ( nextStateIndex == TransitionTable.REJECT )
+        {
+            throw new StateMachineException("State " + state + " transitions on " + event
+                                            + " into " + nextState + " outside the definition");
+        }
+        transitionTable.memoize(stateIndex, eventIndex, nextStateIndex);
+        return nextStateIndex;
+    }
+}
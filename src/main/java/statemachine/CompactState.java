@@ -0,0 +1,62 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+/**
+ * A CompactState exposes its input Events and transition States as
+ * immutable sets instead of Vectors. Getting the sets allocates nothing
+ * and testing whether an Event is accepted is a bit test.
+ * <p>
+ * A FiniteStateMachine uses these sets in preference to the Vectors of
+ * State. Any other State is adapted by copying its Vectors once during
+ * setup.
+ * <p>
+ * @see State
+ * @see EventSet
+ * @see StateSet
+ * @see AbstractCompactState
+ */
+public interface CompactState extends State {
+
+    /**
+     * Gets all Events accepted by this State. If there are none, returns
+     * EventSet.EMPTY (not null)
+     * <p>
+     * 
+     * @return set of events
+     */
+    EventSet getInputEventSet();
+
+    /**
+     * Gets all States this State may transition to other than itself. If
+     * there are none, returns StateSet.EMPTY (not null)
+     * <p>
+     * 
+     * @return set of States
+     */
+    StateSet getTransitionStateSet();
+
+}
@@ -0,0 +1,71 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+/**
+ * A ContextState is a State that keeps its data in the MachineContext of
+ * the FiniteStateMachine running it rather than in its own fields, so
+ * one ContextState can serve every FiniteStateMachine of a definition.
+ * <p>
+ * A FiniteStateMachine calls the two methods taking a MachineContext in
+ * place of onTransition(Event) and onEntry(Event). The defaults call
+ * those, so a ContextState overrides only the ones it needs.
+ * <p>
+ * The next State of a ContextState may depend on its slots, so it is
+ * never memoized as that of a PureState would be.
+ * <p>
+ * @see MachineContext
+ * @see MachineDefinition#withSlots(int, int, int)
+ */
+public interface ContextState extends State
+{
+    /**
+     * Determines the next State, reading and writing the slots of the
+     * FiniteStateMachine as needed.
+     * <p>
+     * @param event
+     * @param context of the FiniteStateMachine
+     * @return next State
+     * @throws StateMachineException
+     */
+    default State onTransition(Event event, MachineContext context) throws StateMachineException
+    {
+        return onTransition(event);
+    }
+
+    /**
+     * Runs the entry action, reading and writing the slots of the
+     * FiniteStateMachine as needed.
+     * <p>
+     * @param event
+     * @param context of the FiniteStateMachine
+     * @throws StateMachineException
+     */
+    default void onEntry(Event event, MachineContext context) throws StateMachineException
+    {
+        onEntry(event);
+    }
+}
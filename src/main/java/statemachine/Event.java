@@ -42,4 +42,27 @@ public interface Event
     String getName();
     
     <E extends Event> E getThis();
+    
+    /**
+     * Gets the small int id the IdentityRegistry assigns to this Event.
+     * Equal Events have the same id.
+     * <p>
+     * @return id
+     * @see IdentityRegistry
+     */
+    default int id()
+    {
+        return IdentityRegistry.idOf(this);
+    }
+    
+    /**
+     * Gets the id of this Event if it has one, without registering it.
+     * <p>
+     * @return id or IdentityRegistry.NO_ID
+     * @see IdentityRegistry#peekId(Event)
+     */
+    default int peekId()
+    {
+        return IdentityRegistry.peekId(this);
+    }
 }
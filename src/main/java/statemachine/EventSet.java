@@ -0,0 +1,205 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * An EventSet is an immutable set of Events.
+ * <p>
+ * Membership is held as a bitset keyed by the IdentityRegistry id of each
+ * Event, so contains is a bit test. The Events are also held in an array in
+ * the order they were given, so size and get allow iteration without
+ * allocating.
+ * <p>
+ * @see CompactState
+ * @see IdentityRegistry
+ */
+public final class EventSet implements Iterable<Event>, Serializable
+{
+    private static final long serialVersionUID = 6127604937195546303L;
+
+    public static final EventSet EMPTY = new EventSet(new Event[0]);
+
+    private final Event[] events;
+
+    // Keyed by IdentityRegistry id; rebuilt after deserialization since ids are per process
+    private transient long[] bits;
+
+    private EventSet(Event[] events)
+    {
+        this.events = events;
+        indexIds();
+    }
+
+    /**
+     * Makes an EventSet of the given Events. Duplicates are dropped.
+     * <p>
+     * @param events
+     * @return EventSet
+     */
+    public static EventSet of(Event... events)
+    {
+        if ( events.length == 0 )
+        {
+            return EMPTY;
+        }
+
+        long[] seen = IdBits.EMPTY;
+        Event[] distinct = new Event[events.length];
+        int size = 0;
+        for ( Event event : events )
+        {
+            int id = event.id();
+            if ( ! IdBits.contains(seen, id) )
+            {
+                seen = IdBits.add(seen, id);
+                distinct[size++] = event;
+            }
+        }
+        return new EventSet(Arrays.copyOf(distinct, size));
+    }
+
+    /**
+     * Makes an EventSet of the given Events. A null Collection gives EMPTY.
+     * <p>
+     * @param events
+     * @return EventSet
+     */
+    public static EventSet copyOf(Collection<? extends Event> events)
+    {
+        if ( events == null )
+        {
+            return EMPTY;
+        }
+        return of(events.toArray(new Event[events.size()]));
+    }
+
+    /**
+     * Gets the input Events of a State.
+     * <p>
+     * A CompactState returns its own EventSet. For any other State the
+     * Vector it returns is copied into a new EventSet.
+     * <p>
+     * @param state
+     * @return EventSet
+     */
+    public static EventSet inputEventsOf(State state)
+    {
+        if ( state instanceof CompactState )
+        {
+            CompactState compactState = state.getThis();
+            return compactState.getInputEventSet();
+        }
+        return copyOf(state.getInputEvents());
+    }
+
+    /**
+     * Tests for an Event by IdentityRegistry id.
+     * <p>
+     * @param id
+     * @return true/false
+     */
+    public boolean contains(int id)
+    {
+        return IdBits.contains(bits, id);
+    }
+
+    /**
+     * Tests for an Event.
+     * <p>
+     * @param event
+     * @return true/false
+     */
+    public boolean contains(Event event)
+    {
+        return event != null && contains(event.peekId());
+    }
+
+    /**
+     * Gets the number of Events.
+     * <p>
+     * @return size
+     */
+    public int size()
+    {
+        return events.length;
+    }
+
+    /**
+     * Gets the Event at the given position.
+     * <p>
+     * @param index
+     * @return Event
+     */
+    public Event get(int index)
+    {
+        return events[index];
+    }
+
+    /**
+     * Copies the Events into a new array.
+     * <p>
+     * @return Events
+     */
+    public Event[] toArray()
+    {
+        return events.clone();
+    }
+
+    @Override
+    public Iterator<Event> iterator()
+    {
+        return Arrays.asList(events).iterator();
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(events);
+    }
+
+    private void indexIds()
+    {
+        long[] words = IdBits.EMPTY;
+        for ( Event event : events )
+        {
+            words = IdBits.add(words, event.id());
+        }
+        bits = words;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        indexIds();
+    }
+}
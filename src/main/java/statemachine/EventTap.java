@@ -0,0 +1,49 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+/**
+ * An EventTap sees every Event an AbstractStateMachineContainer delivers,
+ * after the StateMachine it is routed to has been given it, whether or
+ * not the StateMachine accepted it.
+ * <p>
+ * The EventSender posts to the queues of the container, so an EventTap
+ * can react to what it sees with Events of its own.
+ * <p>
+ * @see AbstractStateMachineContainer#addEventTap(EventTap)
+ * @see statemachine.cep.PatternMatcher
+ */
+public interface EventTap
+{
+    /**
+     * Called on the delivering thread once an Event has been delivered.
+     * <p>
+     * @param event
+     * @param stateMachine the Event was routed to
+     * @param eventSender posting to the queues of the container
+     */
+    void onDelivered(Event event, StateMachine stateMachine, EventSender eventSender);
+}
@@ -26,9 +26,11 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package statemachine;
 
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.Serializable;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.Vector;
 
 import statemachine.Event;
@@ -39,22 +41,68 @@ import statemachine.StateMachineException;
 /**
  * This implements the methods of StateMachine.
  * <p>
+ * The States and Events found during setup are compiled into a
+ * TransitionTable, so accepting or rejecting an Event is an array lookup.
+ * <p>
+ * The States, Events and TransitionTable are held by a MachineDefinition
+ * that may be shared with other FiniteStateMachines. A FiniteStateMachine
+ * itself holds only its current State and its latest Event.
+ * <p>
+ * A FiniteStateMachine set up lazily initializes each State only when a
+ * transition first lands on it; see setupLazily.
+ * <p>
+ * An ActionState steers its transitions by returning ActionResults
+ * rather than by throwing; see ActionState.
+ * <p>
+ * Besides Java serialization, which writes the whole definition, a
+ * FiniteStateMachine can write a compact snapshot of its own state that
+ * is restored against a MachineDefinition the reader already holds;
+ * see writeSnapshot.
+ * <p>
  * @see StateMachine
+ * @see MachineDefinition
+ * @see TransitionTable
  */
 public class FiniteStateMachine implements StateMachine, Serializable
 {
     private static final long serialVersionUID = 8234049801391231988L;
+    private static final int SNAPSHOT_VERSION = 1;
     private final String name;
-    private State arrayOfStates[] = new State[0];
-    private Event arrayOfInputEvents[] = new Event[0];
+    private MachineDefinition definition = MachineDefinition.EMPTY;
     private State currentState = null;
+    private int currentStateIndex = TransitionTable.REJECT;
     private Event lastestEvent = null;
+    private MachineContext context = MachineContext.EMPTY;
+    private LazyStateGraph lazyStateGraph = null;
+    // null while there are no TransitionListeners
+    private transient volatile TransitionListener[] transitionListeners = null;
+    // null unless profiling
+    private transient TransitionProfile transitionProfile = null;
+    // true from release to a MachinePool until it is acquired again
+    private transient boolean released = false;
     
     public FiniteStateMachine(String name)
     {
         this.name = name;
     }
     
+    /**
+     * Makes a FiniteStateMachine that shares a MachineDefinition and
+     * starts in its start State. No setup is needed.
+     * <p>
+     * @param name
+     * @param definition
+     * @see MachineDefinition
+     */
+    public FiniteStateMachine(String name, MachineDefinition definition)
+    {
+        this.name = name;
+        this.definition = definition;
+        this.currentState = definition.getStartState();
+        this.currentStateIndex = definition.getStartStateIndex();
+        this.context = contextOf(definition);
+    }
+    
     /**
      * Gets the name associated with a FiniteStateMachine.
      * <p>
@@ -73,6 +121,10 @@ public class FiniteStateMachine implements StateMachine, Serializable
      * State transitions and the associated Events from each State.
      * The process is repeated until no new States or Events are found.
      * The current State is set to the startState.
+     * <p>
+     * The States and Events are then compiled into a TransitionTable.
+     * The table reflects what each State returns from getInputEvents
+     * at the time of setup.
      * <p> 
      * - stateState is the initial State of the FiniteStateMachine.
      * The first Event input to the FiniteStateMachine is passed to the
@@ -83,24 +135,190 @@ public class FiniteStateMachine implements StateMachine, Serializable
      * @see Event
      */
    @Override
-    public synchronized void setup(State startState)
+    public void setup(State startState)
     {
-        Set<Event> setOfInputEvents = new HashSet<Event>();
-        Set<State> setOfStates = new HashSet<State>();
-        
-        addState(startState, setOfInputEvents, setOfStates);
-        addSuccessorStates(startState, setOfInputEvents, setOfStates);
+        setup(MachineDefinition.build(startState));
+    }
+    
+    /**
+     * Initializes the FiniteStateMachine with an already built
+     * MachineDefinition. The current State is set to its start State
+     * and the latest Event is cleared.
+     * <p>
+     * @param definition
+     * @see MachineDefinition
+     */
+    public synchronized void setup(MachineDefinition definition)
+    {
+        this.definition = definition;
+        lazyStateGraph = null;
+        transitionProfile = null;
+        context = contextOf(definition);
+        currentState = definition.getStartState();
+        currentStateIndex = definition.getStartStateIndex();
+        lastestEvent = null;
+    }
+    
+    /**
+     * Puts the FiniteStateMachine back in the start State of its
+     * definition, clears the latest Event and sets every slot to zero,
+     * without walking the States or calling init or onEntry. The
+     * MachineDefinition, TransitionListeners and TransitionProfile are
+     * kept; releasing it to a MachinePool drops the latter two.
+     * A subclass clears its own data in resetExtendedState.
+     * <p>
+     * @see MachinePool
+     * @see #resetExtendedState()
+     */
+    public synchronized void reset()
+    {
+        completeLazySetup();
+        restart();
+        context.clear();
+        resetExtendedState();
+    }
+    
+    /**
+     * Resets the FiniteStateMachine for a MachinePool and drops what its
+     * owner added: the TransitionListeners and the TransitionProfile.
+     * <p>
+     * @return false if it has been released and not acquired since
+     * @see MachinePool#release(FiniteStateMachine)
+     */
+    synchronized boolean release()
+    {
+        if ( released )
+        {
+            return false;
+        }
+        released = true;
+        reset();
+        transitionListeners = null;
+        transitionProfile = null;
+        return true;
+    }
+    
+    /**
+     * Hands a released FiniteStateMachine to a new owner. It keeps the
+     * name it was made with.
+     * <p>
+     * @see MachinePool#acquire(MachineDefinition)
+     */
+    synchronized void acquire()
+    {
+        released = false;
+    }
+    
+    /**
+     * Tests whether the current State is terminal, accepting no Event.
+     * <p>
+     * @return true/false
+     * @see TransitionTable#isTerminal(int)
+     */
+    public synchronized boolean isInTerminalState()
+    {
+        if ( currentState == null )
+        {
+            return false;
+        }
+        if ( currentStateIndex == TransitionTable.REJECT )
+        {
+            return lazyStateGraph != null ? lazyStateGraph.resolve(currentState).size() == 0
+                                          : EventSet.inputEventsOf(currentState).size() == 0;
+        }
+        return definition.getTransitionTable().isTerminal(currentStateIndex);
+    }
+    
+    /**
+     * Gets the MachineContext holding the slots of this
+     * FiniteStateMachine. It has no slots unless its MachineDefinition
+     * declares them, and is replaced by setup.
+     * <p>
+     * @return context
+     * @see MachineDefinition#withSlots(int, int, int)
+     */
+    public synchronized MachineContext getContext()
+    {
+        return context;
+    }
+    
+    /**
+     * Gets the MachineDefinition this FiniteStateMachine runs.
+     * <p>
+     * @return definition
+     */
+    public synchronized MachineDefinition getDefinition()
+    {
+        completeLazySetup();
+        return definition;
+    }
+    
+    /**
+     * Initializes the FiniteStateMachine with startState as its current
+     * State without walking the State graph. Only startState is
+     * initialized. Each other State is initialized the first time a
+     * transition lands on it, and its input Events are then kept for
+     * later visits.
+     * <p>
+     * Until the rest of the graph is needed, transitions are not compiled
+     * into a TransitionTable; each one is a bit test of the current
+     * State's input Events followed by onTransition (or, for a
+     * TableDrivenState, getTransitionState).
+     * <p>
+     * A GuardedState, an ActionState or a PureState relies on the
+     * TransitionTable, so the setup is completed as soon as one is the
+     * current State, and transitions from it run exactly as after setup.
+     * <p>
+     * Any call that needs the whole graph, such as getStates,
+     * getInputEvents or getDefinition, completes the setup: the
+     * remaining States are initialized and compiled as by setup, and the
+     * FiniteStateMachine then runs from the TransitionTable. Adding the
+     * FiniteStateMachine to a StateMachineContainer does this too.
+     * <p>
+     * @param startState
+     * @see #setup(State)
+     */
+    public synchronized void setupLazily(State startState)
+    {
+        lazyStateGraph = new LazyStateGraph(startState);
+        definition = MachineDefinition.EMPTY;
+        transitionProfile = null;
+        context = MachineContext.EMPTY;
         currentState = startState;
-        
-        // put arrayOfStates and arrayOfInputEvents in arrays for efficient access
-        arrayOfStates = setOfStates.toArray(arrayOfStates);
-        arrayOfInputEvents = setOfInputEvents.toArray(arrayOfInputEvents);
+        currentStateIndex = TransitionTable.REJECT;
+        lastestEvent = null;
+    }
+    
+    /**
+     * Tests whether the FiniteStateMachine was set up lazily and has not
+     * yet needed the whole State graph.
+     * <p>
+     * @return true/false
+     */
+    public synchronized boolean isLazy()
+    {
+        return lazyStateGraph != null;
+    }
+    
+    /**
+     * Gets the number of States initialized so far. For a
+     * FiniteStateMachine that is not lazy this is the number of States
+     * of its definition.
+     * <p>
+     * @return number of States
+     */
+    public synchronized int getInitializedStateCount()
+    {
+        return lazyStateGraph != null ? lazyStateGraph.getResolvedCount()
+                                      : definition.getTransitionTable().getStateCount();
     }
     
    /**
     * Executes a state transition.
-    * First, it calls the OnTransition method of the current State.
-    * Then, it sets the State returned by OnTransition as the new
+    * First, it calls the OnTransition method of the current State,
+    * unless the current State is a TableDrivenState in which case
+    * the next State is taken from the TransitionTable.
+    * Then, it sets the next State as the new
     * current State and calls its onEntry method.
     * The event and eventSender arguments are passed as 
     * the arguments of the two method calls.
@@ -114,11 +332,493 @@ public class FiniteStateMachine implements StateMachine, Serializable
    @Override
     public synchronized void input(Event event) throws StateMachineException
     {
-        if ( currentState.getInputEvents().contains(event))
+        transition(event, definition.getTransitionTable());
+    }
+    
+   /**
+    * Executes the state transitions for a run of Events while holding
+    * the monitor of the FiniteStateMachine once.
+    * Each Event is handled as by input(Event), except that runs of
+    * self-transitions of a BulkState are passed to it in one call.
+    * <p>
+    * If a State throws a StateMachineException the Events before it
+    * have been applied and the remaining Events are not input.
+    * <p>
+    * @param events
+    * @param from index of the first Event
+    * @param to index after the last Event
+    * @return number of Events applied and the final State
+    * @throws StateMachineException
+    * @see InputResult
+    */
+    @Override
+    public synchronized InputResult input(Event[] events, int from, int to) throws StateMachineException
+    {
+        TransitionTable transitionTable = definition.getTransitionTable();
+        int appliedCount = 0;
+        int index = from;
+        while ( index < to )
+        {
+            if ( currentState instanceof BulkState && currentStateIndex != TransitionTable.REJECT )
+            {
+                int consumed = selfTransitions(events, index, to, transitionTable);
+                appliedCount += consumed - index;
+                index = consumed;
+                if ( index == to )
+                {
+                    break;
+                }
+            }
+            
+            if ( transition(events[index], transitionTable) )
+            {
+                appliedCount++;
+            }
+            index++;
+        }
+        return new InputResult(appliedCount, currentState);
+    }
+    
+   /**
+    * Tests whether input of an Event would cause a transition now,
+    * using the TransitionTable and the Guards of a GuardedState.
+    * <p>
+    * @param event
+    * @return true/false
+    * @see GuardedState
+    */
+    @Override
+    public synchronized boolean accepts(Event event)
+    {
+        if ( currentState == null )
+        {
+            return false;
+        }
+        if ( currentStateIndex == TransitionTable.REJECT )
+        {
+            return lazyStateGraph != null ? lazyStateGraph.resolve(currentState).contains(event)
+                                          : EventSet.inputEventsOf(currentState).contains(event);
+        }
+        
+        TransitionTable transitionTable = definition.getTransitionTable();
+        int eventIndex = transitionTable.indexOf(currentStateIndex, event);
+        return eventIndex != TransitionTable.REJECT
+            && transitionTable.next(currentStateIndex, eventIndex, event) != TransitionTable.REJECT;
+    }
+    
+   /**
+    * Passes the longest run of Events starting at from that the current
+    * BulkState accepts to its onSelfTransitions method.
+    * The caller holds the monitor.
+    * <p>
+    * @param events
+    * @param from
+    * @param to
+    * @param transitionTable of the current definition
+    * @return index of the first Event not consumed
+    * @throws StateMachineException
+    */
+    private int selfTransitions(Event[] events, int from, int to, TransitionTable transitionTable)
+        throws StateMachineException
+    {
+        int runEnd = from;
+        while ( runEnd < to )
+        {
+            int eventIndex = transitionTable.indexOf(currentStateIndex, events[runEnd]);
+            if ( eventIndex == TransitionTable.REJECT
+                 || transitionTable.next(currentStateIndex, eventIndex, events[runEnd]) == TransitionTable.REJECT )
+            {
+                break;
+            }
+            runEnd++;
+        }
+        if ( runEnd == from )
+        {
+            return from;
+        }
+        
+        BulkState bulkState = currentState.getThis();
+        int consumed = bulkState.onSelfTransitions(events, from, runEnd);
+        if ( consumed < from || consumed > runEnd )
+        {
+            throw new StateMachineException("State " + currentState + " consumed up to " + consumed
+                                            + " of a run from " + from + " to " + runEnd);
+        }
+        if ( consumed > from )
+        {
+            enter(events[consumed - 1]);
+            lastestEvent = events[consumed - 1];
+        }
+        return consumed;
+    }
+    
+   /**
+    * Executes one state transition. The caller holds the monitor.
+    * <p>
+    * Returns true if the current State accepted the Event.
+    * <p>
+    * @param event
+    * @param transitionTable of the current definition
+    * @return true/false
+    * @throws StateMachineException
+    */
+    private boolean transition(Event event, TransitionTable transitionTable) throws StateMachineException
+    {
+        if ( currentStateIndex == TransitionTable.REJECT )
+        {
+            return transitionOffTable(event, transitionTable);
+        }
+        
+        int eventIndex = transitionTable.indexOf(currentStateIndex, event);
+        if ( eventIndex == TransitionTable.REJECT )
+        {
+            return rejected(event);
+        }
+        
+        int nextStateIndex = transitionTable.next(currentStateIndex, eventIndex, event);
+        if ( nextStateIndex == TransitionTable.REJECT )
+        {
+            return rejected(event);
+        }
+        if ( transitionProfile != null )
+        {
+            transitionProfile.count(currentStateIndex, eventIndex);
+        }
+        if ( transitionTable.hasActionStates() )
+        {
+            return actionTransition(event, eventIndex, nextStateIndex, transitionTable);
+        }
+        
+        State priorState = currentState;
+        exiting(event);
+        if ( nextStateIndex == TransitionTable.DELEGATE )
+        {
+            delegate(event, eventIndex, transitionTable);
+        }
+        else
+        {
+            currentState = transitionTable.getState(nextStateIndex);
+            currentStateIndex = nextStateIndex;
+        }
+        transitioned(priorState, event);
+        enter(event);
+        lastestEvent = event;
+        entered(event);
+        return true;
+    }
+    
+   /**
+    * Makes the State the current State returns from onTransition the
+    * current State. For a PureState the next State is taken from the
+    * TransitionTable once it has been remembered there.
+    * The caller holds the monitor.
+    * <p>
+    * @param event
+    * @param eventIndex
+    * @param transitionTable of the current definition
+    * @throws StateMachineException
+    * @see PureState
+    */
+    private void delegate(Event event, int eventIndex, TransitionTable transitionTable) throws StateMachineException
+    {
+        currentState = StateDispatch.delegate(transitionTable, currentStateIndex, eventIndex, currentState, event, context);
+        currentStateIndex = transitionTable.indexOf(currentState);
+    }
+    
+   /**
+    * Executes a state transition accepted by the TransitionTable of a
+    * definition with ActionStates, acting on the ActionResults of the
+    * current and next States. The caller holds the monitor.
+    * <p>
+    * @param event
+    * @param eventIndex
+    * @param nextStateIndex from the TransitionTable
+    * @param transitionTable of the current definition
+    * @return true if the Event was applied
+    * @throws StateMachineException from onTransition or onEntry of a
+    * State that is not an ActionState
+    * @see ActionState
+    */
+    private boolean actionTransition(Event event, int eventIndex, int nextStateIndex, TransitionTable transitionTable)
+        throws StateMachineException
+    {
+        State priorState = currentState;
+        int priorStateIndex = currentStateIndex;
+        if ( currentState instanceof ActionState )
+        {
+            ActionState actionState = currentState.getThis();
+            switch ( actionState.onTransitionAction(event) )
+            {
+            case STAY:
+                lastestEvent = event;
+                return true;
+            case ABORT:
+                return rejected(event);
+            case BRANCH:
+                nextStateIndex = transitionTable.branch(currentStateIndex, eventIndex);
+                if ( nextStateIndex == TransitionTable.REJECT )
+                {
+                    return rejected(event);
+                }
+                break;
+            case RESTART:
+                exiting(event);
+                restart();
+                transitioned(priorState, event);
+                return true;
+            default:
+                break;
+            }
+        }
+        
+        exiting(event);
+        if ( nextStateIndex == TransitionTable.DELEGATE )
+        {
+            delegate(event, eventIndex, transitionTable);
+        }
+        else
+        {
+            currentState = transitionTable.getState(nextStateIndex);
+            currentStateIndex = nextStateIndex;
+        }
+        return enterAction(priorState, priorStateIndex, event);
+    }
+    
+   /**
+    * Completes a transition into the current State, running the entry
+    * action of an ActionState in place of onEntry and acting on its
+    * ActionResult. The caller holds the monitor.
+    * <p>
+    * @param priorState
+    * @param priorStateIndex
+    * @param event
+    * @return true if the Event was applied
+    * @throws StateMachineException from onEntry of a State that is not
+    * an ActionState
+    */
+    private boolean enterAction(State priorState, int priorStateIndex, Event event) throws StateMachineException
+    {
+        if ( currentState instanceof ActionState )
         {
-            currentState = currentState.onTransition(event);
-            currentState.onEntry(event);
-            lastestEvent = event;
+            ActionState actionState = currentState.getThis();
+            switch ( actionState.onEntryAction(event) )
+            {
+            case ABORT:
+                currentState = priorState;
+                currentStateIndex = priorStateIndex;
+                return rejected(event);
+            case RESTART:
+                restart();
+                transitioned(priorState, event);
+                return true;
+            default:
+                break;
+            }
+            transitioned(priorState, event);
+        }
+        else
+        {
+            transitioned(priorState, event);
+            enter(event);
+        }
+        lastestEvent = event;
+        entered(event);
+        return true;
+    }
+    
+   /**
+    * Puts the FiniteStateMachine back in the start State of its
+    * definition and clears the latest Event, without running any
+    * entry action. The caller holds the monitor.
+    */
+    private void restart()
+    {
+        currentState = definition.getStartState();
+        currentStateIndex = definition.getStartStateIndex();
+        lastestEvent = null;
+    }
+    
+   /**
+    * Executes a state transition for a current State that is not
+    * in the TransitionTable. This happens when the FiniteStateMachine
+    * is lazy, or when a State returns a next State from onTransition
+    * that it does not list in getTransitionStates.
+    * <p>
+    * @param event
+    * @param transitionTable of the current definition
+    * @return true/false
+    * @throws StateMachineException
+    */
+    private boolean transitionOffTable(Event event, TransitionTable transitionTable) throws StateMachineException
+    {
+        if ( lazyStateGraph != null )
+        {
+            return transitionLazily(event);
+        }
+        
+        Vector<Event> inputEvents = currentState.getInputEvents();
+        if ( inputEvents == null || ! inputEvents.contains(event) )
+        {
+            return rejected(event);
+        }
+        
+        State priorState = currentState;
+        exiting(event);
+        currentState = transitionOf(currentState, event);
+        currentStateIndex = transitionTable.indexOf(currentState);
+        transitioned(priorState, event);
+        enter(event);
+        lastestEvent = event;
+        entered(event);
+        return true;
+    }
+    
+   /**
+    * Executes a state transition of a lazy FiniteStateMachine,
+    * initializing the next State if it has not been seen before.
+    * From a State that relies on the TransitionTable, the setup is
+    * completed first; into one, it is completed before its entry action.
+    * <p>
+    * @param event
+    * @return true/false
+    * @throws StateMachineException
+    */
+    private boolean transitionLazily(Event event) throws StateMachineException
+    {
+        if ( needsTable(currentState) )
+        {
+            completeLazySetup();
+            return transition(event, definition.getTransitionTable());
+        }
+        if ( ! lazyStateGraph.resolve(currentState).contains(event) )
+        {
+            return rejected(event);
+        }
+        
+        State priorState = currentState;
+        exiting(event);
+        if ( currentState instanceof TableDrivenState )
+        {
+            TableDrivenState tableDrivenState = currentState.getThis();
+            currentState = tableDrivenState.getTransitionState(event);
+        }
+        else
+        {
+            currentState = transitionOf(currentState, event);
+        }
+        lazyStateGraph.resolve(currentState);
+        if ( needsTable(currentState) )
+        {
+            completeLazySetup();
+            return enterAction(priorState, definition.getTransitionTable().indexOf(priorState), event);
+        }
+        transitioned(priorState, event);
+        enter(event);
+        lastestEvent = event;
+        entered(event);
+        return true;
+    }
+    
+   /**
+    * Tests whether a State relies on the TransitionTable: the Guards of
+    * a GuardedState and the branches of an ActionState are compiled into
+    * it, and the next States of a PureState are memoized in it.
+    * <p>
+    * @param state
+    * @return true/false
+    */
+    private static boolean needsTable(State state)
+    {
+        return state instanceof GuardedState || state instanceof ActionState || state instanceof PureState;
+    }
+    
+   /**
+    * Calls onEntry of the current State, passing the MachineContext to a
+    * ContextState. The caller holds the monitor.
+    * <p>
+    * @param event
+    * @throws StateMachineException
+    */
+    private void enter(Event event) throws StateMachineException
+    {
+        StateDispatch.enter(currentState, event, context);
+    }
+    
+   /**
+    * Calls onTransition of a State, passing the MachineContext to a
+    * ContextState. The caller holds the monitor.
+    * <p>
+    * @param state
+    * @param event
+    * @return next State
+    * @throws StateMachineException
+    */
+    private State transitionOf(State state, Event event) throws StateMachineException
+    {
+        return StateDispatch.transitionOf(state, event, context);
+    }
+    
+    private static MachineContext contextOf(MachineDefinition definition)
+    {
+        return definition.hasSlots() ? new MachineContext(definition) : MachineContext.EMPTY;
+    }
+    
+   /**
+    * Tells the TransitionListeners, if any, that the current State is
+    * being left. The caller holds the monitor, as for the three methods
+    * that follow.
+    * <p>
+    * @param event
+    */
+    private void exiting(Event event)
+    {
+        TransitionListener[] listeners = transitionListeners;
+        if ( listeners != null )
+        {
+            TransitionListeners.fireExit(listeners, this, currentState, event);
+        }
+    }
+    
+    private void transitioned(State priorState, Event event)
+    {
+        TransitionListener[] listeners = transitionListeners;
+        if ( listeners != null )
+        {
+            TransitionListeners.fireTransition(listeners, this, priorState, currentState, event);
+        }
+    }
+    
+    private void entered(Event event)
+    {
+        TransitionListener[] listeners = transitionListeners;
+        if ( listeners != null )
+        {
+            TransitionListeners.fireEnter(listeners, this, currentState, event);
+        }
+    }
+    
+    private boolean rejected(Event event)
+    {
+        TransitionListener[] listeners = transitionListeners;
+        if ( listeners != null )
+        {
+            TransitionListeners.fireRejected(listeners, this, currentState, event);
+        }
+        return false;
+    }
+    
+   /**
+    * Builds the MachineDefinition of a lazy FiniteStateMachine from the
+    * whole State graph, after which it runs from the TransitionTable.
+    * The caller holds the monitor.
+    */
+    private void completeLazySetup()
+    {
+        if ( lazyStateGraph != null )
+        {
+            definition = lazyStateGraph.complete();
+            currentStateIndex = definition.getTransitionTable().indexOf(currentState);
+            lazyStateGraph = null;
         }
     }
     
@@ -157,10 +857,7 @@ public class FiniteStateMachine implements StateMachine, Serializable
     @Override
     public State[] getStates()
     {
-        int length = arrayOfStates.length;
-        State[] array = new State[length];
-        System.arraycopy(arrayOfStates, 0, array, 0, length);
-        return array;
+        return getStateSet().toArray();
     }
     
     /**
@@ -173,90 +870,238 @@ public class FiniteStateMachine implements StateMachine, Serializable
    @Override
     public Event[] getInputEvents()
     {
-        int length = arrayOfInputEvents.length;
-        Event[] array = new Event[length];
-        System.arraycopy(arrayOfInputEvents, 0, array, 0, length);
-        return array;
+        return getInputEventSet().toArray();
     }
     
     /**
-     * Allows a subclass to produce customized code for Event initialization.
-     * The default is to do nothing.
+     * Gets all States as a read-only set without copying.
      * <p>
-     * @param event
+     * @return set of States
      */
-    protected void init(Event event) 
+    @Override
+    public StateSet getStateSet()
     {
+        return getDefinition().getStateSet();
     }
-    
+
     /**
-     * Allows a subclass to produce customized code for State initialization.
-     * The default is to call State.init
+     * Gets all Events accepted as a read-only set without copying.
      * <p>
-     * @param state
+     * @return set of Events
      */
-    protected void init(State state) 
+    @Override
+    public EventSet getInputEventSet()
     {
-        state.init();
+        return getDefinition().getInputEventSet();
     }
 
     /**
-     * Adds a new State to the Set of transition States
-     * and calls the State's init method.
+     * Adds a TransitionListener. While none are added, telling them
+     * costs each transition a single null check.
      * <p>
-     * It also adds all of the State's transition Events
-     * to the Set of transition Events.
+     * Runs of self-transitions consumed by a BulkState in one call to
+     * onSelfTransitions are not reported.
      * <p>
-     * Returns true if the State was added, false if the State was already present.
-     * @param state
-     * @param setOfInputEvents 
-     * @param setOfStates 
-     * @return true/false
+     * @param transitionListener
+     * @see TransitionListener
+     */
+    @Override
+    public synchronized void addTransitionListener(TransitionListener transitionListener)
+    {
+        transitionListeners = TransitionListeners.add(transitionListeners, transitionListener);
+    }
+    
+    /**
+     * Removes a TransitionListener.
+     * <p>
+     * @param transitionListener
      */
-    private boolean addState(State state, Set<Event> setOfInputEvents, Set<State> setOfStates)
+    @Override
+    public synchronized void removeTransitionListener(TransitionListener transitionListener)
     {
-        if ( setOfStates.contains(state) )
+        transitionListeners = TransitionListeners.remove(transitionListeners, transitionListener);
+    }
+    
+    /**
+     * Starts counting the transitions of the FiniteStateMachine in a
+     * TransitionProfile of its definition, or stops counting if the
+     * profile is null. A TransitionProfile may be shared by all the
+     * FiniteStateMachines of a definition. Counting stops when the
+     * FiniteStateMachine is set up or restored with another definition.
+     * <p>
+     * While not profiling, a transition costs one null check more.
+     * <p>
+     * @param transitionProfile or null
+     * @throws IllegalArgumentException if the profile is of another
+     * MachineDefinition
+     * @see TransitionProfile
+     */
+    public synchronized void setTransitionProfile(TransitionProfile transitionProfile)
+    {
+        completeLazySetup();
+        if ( transitionProfile != null && transitionProfile.getDefinition() != definition )
         {
-            return false;
+            throw new IllegalArgumentException("TransitionProfile of " + transitionProfile.getDefinition()
+                                               + " given to " + name + " running " + definition);
+        }
+        this.transitionProfile = transitionProfile;
+    }
+    
+    /**
+     * Gets the TransitionProfile counting transitions, if any.
+     * <p>
+     * @return transitionProfile or null
+     */
+    public synchronized TransitionProfile getTransitionProfile()
+    {
+        return transitionProfile;
+    }
+    
+    /**
+     * Writes a compact snapshot of the FiniteStateMachine: the
+     * fingerprint of its MachineDefinition, the index of the current
+     * State and the index of the latest Event, its slots, and then
+     * whatever writeExtendedState writes. Indices are written as
+     * varints, so a FiniteStateMachine of a definition with fewer than
+     * 127 States and Events and no slots takes 11 bytes. No State, Event
+     * or class descriptor is written.
+     * <p>
+     * A lazy FiniteStateMachine completes its setup first. A latest
+     * Event that is not in the definition is not kept.
+     * <p>
+     * @param out
+     * @throws IOException
+     * @throws IllegalStateException if the current State is not in the
+     * MachineDefinition
+     * @see #restoreSnapshot(DataInput, MachineDefinition)
+     * @see Varint
+     */
+    public synchronized void writeSnapshot(DataOutput out) throws IOException
+    {
+        completeLazySetup();
+        if ( currentState != null && currentStateIndex == TransitionTable.REJECT )
+        {
+            throw new IllegalStateException("Current State " + currentState + " of " + name
+                                            + " is not in its MachineDefinition");
         }
         
-        state.init();
-        setOfStates.add(state);
+        TransitionTable transitionTable = definition.getTransitionTable();
+        int latestEventIndex = lastestEvent != null ? transitionTable.indexOf(lastestEvent) : TransitionTable.REJECT;
+        Varint.writeInt(out, SNAPSHOT_VERSION);
+        out.writeLong(definition.getFingerprint());
+        Varint.writeInt(out, currentStateIndex + 1);
+        Varint.writeInt(out, latestEventIndex + 1);
+        context.write(out);
+        writeExtendedState(out);
+    }
+    
+    /**
+     * Restores a snapshot written by writeSnapshot, rebinding the
+     * FiniteStateMachine to a MachineDefinition that is usually shared
+     * by many FiniteStateMachines. The States are not walked or
+     * initialized again and onEntry is not called; the current State and
+     * latest Event are looked up by index.
+     * <p>
+     * A State merged by minimization is restored as the State it was
+     * merged into.
+     * <p>
+     * @param in
+     * @param definition with the same fingerprint as the one written
+     * @throws IOException
+     * @throws InvalidObjectException if the snapshot was written for a
+     * different MachineDefinition or holds an index outside it
+     * @see MachineDefinition#getFingerprint()
+     */
+    public synchronized void restoreSnapshot(DataInput in, MachineDefinition definition) throws IOException
+    {
+        int version = Varint.readInt(in);
+        if ( version != SNAPSHOT_VERSION )
+        {
+            throw new InvalidObjectException("Unknown snapshot version " + version);
+        }
+        long fingerprint = in.readLong();
+        if ( fingerprint != definition.getFingerprint() )
+        {
+            throw new InvalidObjectException("Snapshot of " + name + " is not of " + definition);
+        }
         
-        Vector<Event> inputEvents = state.getInputEvents();
-        if ( inputEvents != null )
+        TransitionTable transitionTable = definition.getTransitionTable();
+        int stateIndex = Varint.readInt(in) - 1;
+        int eventIndex = Varint.readInt(in) - 1;
+        if ( stateIndex < TransitionTable.REJECT || stateIndex >= transitionTable.getStateCount()
+             || eventIndex < TransitionTable.REJECT || eventIndex >= transitionTable.getEventCount() )
         {
-            setOfInputEvents.addAll(inputEvents);
+            throw new InvalidObjectException("Snapshot of " + name + " has State " + stateIndex
+                                             + " and Event " + eventIndex + " outside " + definition);
         }
         
-        return true;
+        this.definition = definition;
+        lazyStateGraph = null;
+        transitionProfile = null;
+        currentStateIndex = stateIndex;
+        currentState = stateIndex != TransitionTable.REJECT ? transitionTable.getState(stateIndex) : null;
+        lastestEvent = eventIndex != TransitionTable.REJECT ? transitionTable.getEvent(eventIndex) : null;
+        context = contextOf(definition);
+        context.read(in);
+        readExtendedState(in);
+    }
+    
+    /**
+     * Allows a subclass to add its own data to a snapshot, after the
+     * current State and latest Event. The default is to write nothing.
+     * <p>
+     * @param out
+     * @throws IOException
+     * @see #writeSnapshot(DataOutput)
+     */
+    protected void writeExtendedState(DataOutput out) throws IOException
+    {
+    }
+    
+    /**
+     * Allows a subclass to read back what writeExtendedState wrote.
+     * The default is to read nothing.
+     * <p>
+     * @param in
+     * @throws IOException
+     * @see #restoreSnapshot(DataInput, MachineDefinition)
+     */
+    protected void readExtendedState(DataInput in) throws IOException
+    {
+    }
+    
+    /**
+     * Allows a subclass to clear its own data when the FiniteStateMachine
+     * is reset, as for reuse from a MachinePool. The default is to do
+     * nothing.
+     * <p>
+     * @see #reset()
+     */
+    protected void resetExtendedState()
+    {
     }
 
     /**
-     * Adds the successor States of a State.
+     * Allows a subclass to produce customized code for Event initialization.
+     * The default is to do nothing.
      * <p>
-     * Only newly encountered States are added;
-     * this is enforced by the addState method.
+     * @param event
+     */
+    protected void init(Event event) 
+    {
+    }
+    
+    /**
+     * Allows a subclass to produce customized code for State initialization.
+     * The default is to call State.init
      * <p>
      * @param state
-     * @param setOfInputEvents 
-     * @param setOfStates 
      */
-    private void addSuccessorStates(State state, Set<Event> setOfInputEvents, Set<State> setOfStates)
+    protected void init(State state) 
     {
-        Vector<State> successorStates = state.getTransitionStates();
-        if ( successorStates != null )
-        {
-            for ( State successorState : successorStates )
-            {
-                if ( addState(successorState, setOfInputEvents, setOfStates) )
-                {
-                    addSuccessorStates(successorState, setOfInputEvents, setOfStates);
-                }
-            }
-        }
+        state.init();
     }
-    
+
     @Override
     public int hashCode()
     {
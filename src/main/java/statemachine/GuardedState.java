@@ -0,0 +1,61 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+/**
+ * A GuardedState declares its transitions as GuardedTransitions instead
+ * of choosing the next State in onTransition.
+ * <p>
+ * The transitions on each Event are tried in the order given and the
+ * first one whose Guard passes is taken. If none passes the Event is
+ * rejected, as if the State did not accept it.
+ * <p>
+ * A FiniteStateMachine compiles the transitions into its TransitionTable
+ * during setup, so it evaluates the Guards itself and never calls
+ * onTransition for an Event that has GuardedTransitions. Since the
+ * Guards are known in advance, a StateMachineContainer can also ask
+ * whether a StateMachine will accept an Event before inputting it.
+ * <p>
+ * Every Event of a GuardedTransition must be one of the input Events and
+ * every target must be one of the transition States or this State. An
+ * input Event without GuardedTransitions is passed to onTransition as
+ * usual.
+ * <p>
+ * @see GuardedTransition
+ * @see AbstractGuardedState
+ * @see TransitionTable#next(int, int, Event)
+ * @see StateMachine#accepts(Event)
+ */
+public interface GuardedState extends State
+{
+    /**
+     * Gets the transitions of this State. It is called during setup,
+     * after init.
+     * <p>
+     * @return transitions
+     */
+    GuardedTransition[] getGuardedTransitions();
+}
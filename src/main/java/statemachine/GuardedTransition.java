@@ -0,0 +1,106 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.Serializable;
+
+/**
+ * A GuardedTransition is one outgoing arrow of a GuardedState: on an
+ * Event, if a Guard passes, transition into a target State.
+ * <p>
+ * @see GuardedState
+ * @see Guard
+ */
+public final class GuardedTransition implements Serializable
+{
+    private static final long serialVersionUID = -4712904413265981305L;
+
+    private final Event event;
+    private final Guard guard;
+    private final State target;
+
+    /**
+     * Makes a transition on event into target, taken if guard passes.
+     * <p>
+     * @param event
+     * @param guard or null to always take the transition
+     * @param target
+     */
+    public GuardedTransition(Event event, Guard guard, State target)
+    {
+        this.event = event;
+        this.guard = guard;
+        this.target = target;
+    }
+
+    /**
+     * Makes a transition on event into target that is always taken.
+     * <p>
+     * @param event
+     * @param target
+     */
+    public GuardedTransition(Event event, State target)
+    {
+        this(event, null, target);
+    }
+
+    public Event getEvent()
+    {
+        return event;
+    }
+
+    /**
+     * Gets the Guard of the transition.
+     * <p>
+     * @return guard or null if the transition is always taken
+     */
+    public Guard getGuard()
+    {
+        return guard;
+    }
+
+    public State getTarget()
+    {
+        return target;
+    }
+
+    /**
+     * Tests the Guard of the transition.
+     * <p>
+     * @param event
+     * @return true if there is no Guard or it passes
+     */
+    public boolean isTaken(Event event)
+    {
+        return guard == null || guard.test(event);
+    }
+
+    @Override
+    public String toString()
+    {
+        return event + (guard != null ? " [guarded]" : "") + " -> " + target;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+/**
+ * A HierarchicalState is nested in a parent State. An Event that a
+ * HierarchicalState does not accept is offered to its parent, then to
+ * the parent's parent and so on, so Events handled the same way in
+ * several States can be accepted once by a common parent.
+ * <p>
+ * A State with substates may name an initial substate. A transition
+ * into it enters the initial substate as well, and its initial substate
+ * in turn, until a State without one is reached.
+ * <p>
+ * A transition from the current State to a next State exits every State
+ * from the current State up to, but not including, the lowest parent
+ * they share, and enters every State from there down to the next State.
+ * The exits and entries between any two States are computed once by
+ * StateHierarchy.
+ * <p>
+ * @see HierarchicalStateMachine
+ * @see StateHierarchy
+ */
+public interface HierarchicalState extends State
+{
+    /**
+     * Gets the State this State is nested in.
+     * <p>
+     * @return parent State, or null for a top level State
+     */
+    State getParentState();
+
+    /**
+     * Gets the substate entered when this State is entered.
+     * The default is null, meaning this State is entered alone.
+     * <p>
+     * @return initial substate, whose parent must be this State, or null
+     */
+    default State getInitialSubstate()
+    {
+        return null;
+    }
+
+    /**
+     * Called when a transition leaves this State.
+     * The default does nothing.
+     * <p>
+     * @param event
+     * @throws StateMachineException
+     */
+    default void onExit(Event event) throws StateMachineException
+    {
+    }
+}
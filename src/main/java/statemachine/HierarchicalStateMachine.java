@@ -0,0 +1,400 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.Serializable;
+
+/**
+ * A HierarchicalStateMachine runs HierarchicalStates. An Event the
+ * current State does not accept is handled by its nearest parent that
+ * does, and a transition calls onExit on each State left and onEntry on
+ * each State entered.
+ * <p>
+ * Which State handles an Event and which States a transition exits and
+ * enters are looked up in a StateHierarchy compiled at setup, so an
+ * Event costs the same few array lookups however deeply the current
+ * State is nested. Like a MachineDefinition, a StateHierarchy may be
+ * shared by any number of HierarchicalStateMachines.
+ * <p>
+ * States that are not HierarchicalStates are top level States and
+ * behave as they do in a FiniteStateMachine. There is no MachineContext
+ * and no ActionResults are acted on, so a StateHierarchy with a
+ * ContextState or an ActionState cannot be run.
+ * <p>
+ * @see HierarchicalState
+ * @see StateHierarchy
+ * @see FiniteStateMachine
+ */
+public class HierarchicalStateMachine implements StateMachine, Serializable
+{
+    private static final long serialVersionUID = -2519874103326914077L;
+    private final String name;
+    private StateHierarchy hierarchy = StateHierarchy.EMPTY;
+    private int currentStateIndex = TransitionTable.REJECT;
+    private Event latestEvent = null;
+    // null while there are no TransitionListeners
+    private transient volatile TransitionListener[] transitionListeners = null;
+
+    public HierarchicalStateMachine(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Makes a HierarchicalStateMachine that shares a StateHierarchy and
+     * starts in its start State. No setup is needed.
+     * <p>
+     * @param name
+     * @param hierarchy
+     * @throws IllegalArgumentException if the StateHierarchy has a
+     * ContextState or an ActionState
+     */
+    public HierarchicalStateMachine(String name, StateHierarchy hierarchy)
+    {
+        checkRunnable(hierarchy);
+        this.name = name;
+        this.hierarchy = hierarchy;
+        this.currentStateIndex = hierarchy.getStartStateIndex();
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Builds the StateHierarchy of all States reachable from startState,
+     * including parents and initial substates. The current State is set
+     * to startState or, if it has an initial substate, to the State
+     * finally entered from it. onEntry is not called.
+     * <p>
+     * @param startState
+     * @throws IllegalArgumentException if a State reached is a
+     * ContextState or an ActionState
+     * @see StateHierarchy#build(State)
+     */
+    @Override
+    public void setup(State startState)
+    {
+        setup(StateHierarchy.build(startState));
+    }
+
+    /**
+     * Initializes the HierarchicalStateMachine with an already compiled
+     * StateHierarchy. The current State is set to its start State and
+     * the latest Event is cleared.
+     * <p>
+     * @param hierarchy
+     * @throws IllegalArgumentException if the StateHierarchy has a
+     * ContextState or an ActionState
+     */
+    public synchronized void setup(StateHierarchy hierarchy)
+    {
+        checkRunnable(hierarchy);
+        this.hierarchy = hierarchy;
+        currentStateIndex = hierarchy.getStartStateIndex();
+        latestEvent = null;
+    }
+
+    private static void checkRunnable(StateHierarchy hierarchy)
+    {
+        State state = hierarchy.getDefinition().findContextualState();
+        if ( state != null )
+        {
+            throw new IllegalArgumentException("State " + state + " of " + hierarchy.getDefinition()
+                                               + " cannot run in a HierarchicalStateMachine");
+        }
+    }
+
+    /**
+     * Gets the StateHierarchy this HierarchicalStateMachine runs.
+     * <p>
+     * @return hierarchy
+     */
+    public synchronized StateHierarchy getHierarchy()
+    {
+        return hierarchy;
+    }
+
+    /**
+     * Executes a state transition.
+     * The Event is passed to the onTransition method of the State that
+     * handles it, unless that State is a TableDrivenState in which case
+     * the next State is taken from the TransitionTable. Then onExit is
+     * called on the States left, innermost first, and onEntry on the
+     * States entered, outermost first.
+     * <p>
+     * An Event that neither the current State nor any of its parents
+     * accepts is ignored. So is an Event handled by a GuardedState none
+     * of whose Guards pass; it is not offered to the parents.
+     * <p>
+     * @param event
+     * @throws StateMachineException if the handling State transitions
+     * into a State that is not in the StateHierarchy
+     */
+    @Override
+    public synchronized void input(Event event) throws StateMachineException
+    {
+        transition(event);
+    }
+
+    /**
+     * Executes the state transitions for a run of Events while holding
+     * the monitor once. An Event counts as applied if the current State
+     * or one of its parents accepted it.
+     * <p>
+     * @param events
+     * @param from index of the first Event
+     * @param to index after the last Event
+     * @return number of Events applied and the final State
+     * @throws StateMachineException
+     */
+    @Override
+    public synchronized InputResult input(Event[] events, int from, int to) throws StateMachineException
+    {
+        int appliedCount = 0;
+        for ( int index = from; index < to; index++ )
+        {
+            if ( transition(events[index]) )
+            {
+                appliedCount++;
+            }
+        }
+        return new InputResult(appliedCount, getCurrentState());
+    }
+
+    /**
+     * Executes one state transition. The caller holds the monitor.
+     * <p>
+     * @param event
+     * @return true if the Event was accepted
+     * @throws StateMachineException
+     */
+    private boolean transition(Event event) throws StateMachineException
+    {
+        if ( currentStateIndex == TransitionTable.REJECT )
+        {
+            return false;
+        }
+        
+        TransitionTable transitionTable = hierarchy.getDefinition().getTransitionTable();
+        int eventIndex = transitionTable.indexOf(event);
+        if ( eventIndex == TransitionTable.REJECT )
+        {
+            return rejected(event, transitionTable);
+        }
+        
+        int handlerIndex = hierarchy.handlerOf(currentStateIndex, eventIndex);
+        if ( handlerIndex == TransitionTable.REJECT )
+        {
+            return rejected(event, transitionTable);
+        }
+        
+        int nextStateIndex = transitionTable.next(handlerIndex, eventIndex, event);
+        if ( nextStateIndex == TransitionTable.REJECT )
+        {
+            // no Guard of the handling State passed
+            return rejected(event, transitionTable);
+        }
+        if ( nextStateIndex == TransitionTable.DELEGATE )
+        {
+            State handler = transitionTable.getState(handlerIndex);
+            State nextState = handler.onTransition(event);
+            nextStateIndex = transitionTable.indexOf(nextState);
+            if ( nextStateIndex == TransitionTable.REJECT )
+            {
+                throw new StateMachineException("State " + handler + " transitions on " + event
+                                                + " into " + nextState + " outside the hierarchy");
+            }
+        }
+        
+        TransitionListener[] listeners = transitionListeners;
+        int[] path = hierarchy.pathOf(currentStateIndex, nextStateIndex);
+        int exitCount = path[0];
+        for ( int position = 1; position <= exitCount; position++ )
+        {
+            State state = transitionTable.getState(path[position]);
+            if ( listeners != null )
+            {
+                TransitionListeners.fireExit(listeners, this, state, event);
+            }
+            if ( state instanceof HierarchicalState )
+            {
+                HierarchicalState hierarchicalState = state.getThis();
+                hierarchicalState.onExit(event);
+            }
+        }
+        int priorStateIndex = currentStateIndex;
+        currentStateIndex = path[path.length - 1];
+        if ( listeners != null )
+        {
+            TransitionListeners.fireTransition(listeners, this, transitionTable.getState(priorStateIndex),
+                                               transitionTable.getState(currentStateIndex), event);
+        }
+        for ( int position = exitCount + 1; position < path.length; position++ )
+        {
+            State state = transitionTable.getState(path[position]);
+            state.onEntry(event);
+            if ( listeners != null )
+            {
+                TransitionListeners.fireEnter(listeners, this, state, event);
+            }
+        }
+        latestEvent = event;
+        return true;
+    }
+
+    private boolean rejected(Event event, TransitionTable transitionTable)
+    {
+        TransitionListener[] listeners = transitionListeners;
+        if ( listeners != null )
+        {
+            TransitionListeners.fireRejected(listeners, this, transitionTable.getState(currentStateIndex), event);
+        }
+        return false;
+    }
+
+    /**
+     * Adds a TransitionListener. It is told of the exit and entry of
+     * each State on the path of a transition, and of one transition
+     * between the innermost States. While none are added, telling them
+     * costs each transition a single null check.
+     * <p>
+     * @param transitionListener
+     * @see TransitionListener
+     */
+    @Override
+    public synchronized void addTransitionListener(TransitionListener transitionListener)
+    {
+        transitionListeners = TransitionListeners.add(transitionListeners, transitionListener);
+    }
+
+    /**
+     * Removes a TransitionListener.
+     * <p>
+     * @param transitionListener
+     */
+    @Override
+    public synchronized void removeTransitionListener(TransitionListener transitionListener)
+    {
+        transitionListeners = TransitionListeners.remove(transitionListeners, transitionListener);
+    }
+
+    /**
+     * Tests whether input of an Event would cause a transition: whether
+     * the current State or one of its parents accepts it and, for a
+     * GuardedState, one of its Guards passes.
+     * <p>
+     * @param event
+     * @return true/false
+     */
+    @Override
+    public synchronized boolean accepts(Event event)
+    {
+        if ( currentStateIndex == TransitionTable.REJECT )
+        {
+            return false;
+        }
+        
+        TransitionTable transitionTable = hierarchy.getDefinition().getTransitionTable();
+        int eventIndex = transitionTable.indexOf(event);
+        if ( eventIndex == TransitionTable.REJECT )
+        {
+            return false;
+        }
+        int handlerIndex = hierarchy.handlerOf(currentStateIndex, eventIndex);
+        return handlerIndex != TransitionTable.REJECT
+            && transitionTable.next(handlerIndex, eventIndex, event) != TransitionTable.REJECT;
+    }
+
+    /**
+     * Gets the current State: the innermost State entered.
+     * <p>
+     * @return current State
+     */
+    @Override
+    public synchronized State getCurrentState()
+    {
+        return currentStateIndex != TransitionTable.REJECT
+             ? hierarchy.getDefinition().getTransitionTable().getState(currentStateIndex) : null;
+    }
+
+    /**
+     * Tests whether a State is the current State or one of its parents.
+     * <p>
+     * @param state
+     * @return true/false
+     */
+    public synchronized boolean isInState(State state)
+    {
+        int stateIndex = hierarchy.getDefinition().getTransitionTable().indexOf(state);
+        for ( int index = currentStateIndex; index != TransitionTable.REJECT; index = hierarchy.getParentIndex(index) )
+        {
+            if ( index == stateIndex )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized Event getLatestEvent()
+    {
+        return latestEvent;
+    }
+
+    @Override
+    public State[] getStates()
+    {
+        return getStateSet().toArray();
+    }
+
+    @Override
+    public Event[] getInputEvents()
+    {
+        return getInputEventSet().toArray();
+    }
+
+    @Override
+    public StateSet getStateSet()
+    {
+        return getHierarchy().getDefinition().getStateSet();
+    }
+
+    @Override
+    public EventSet getInputEventSet()
+    {
+        return getHierarchy().getDefinition().getInputEventSet();
+    }
+
+    @Override
+    public String toString()
+    {
+        return getName();
+    }
+}
@@ -0,0 +1,317 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Partitions the States of a TransitionTable into blocks of equivalent
+ * States by Hopcroft's partition refinement.
+ * <p>
+ * Only MergeableStates whose rows hold nothing but next State indices
+ * and REJECT take part; every other State, and every ActionState, is a
+ * block of its own. A REJECT entry is treated as a transition into a
+ * sink State that is a block of its own, so a State that rejects an
+ * Event is never merged with one that accepts it.
+ * <p>
+ * The initial blocks group the MergeableStates by merge key. A block is
+ * then split whenever some of its States transition on an Event into a
+ * splitter block and others do not, each time queueing the smaller half
+ * as a new splitter, until no block splits. This takes time proportional
+ * to the number of Events times n log n for n States.
+ * <p>
+ * @see Minimization
+ */
+final class Hopcroft
+{
+    private final int stateCount;
+    private final int eventCount;
+    
+    // The States of each block are elements[first[block]] to elements[end[block] - 1]
+    private final int[] elements;
+    private final int[] location;
+    private final int[] blockOf;
+    private final int[] first;
+    private final int[] end;
+    private final int[] marked;
+    private final boolean[] queued;
+    private int blockCount = 0;
+    
+    // Predecessors of each State on each Event, as consecutive runs
+    private final int[] predecessors;
+    private final int[] predecessorStart;
+
+    private Hopcroft(TransitionTable transitionTable)
+    {
+        this.stateCount = transitionTable.getStateCount() + 1;
+        this.eventCount = transitionTable.getEventCount();
+        this.elements = new int[stateCount];
+        this.location = new int[stateCount];
+        this.blockOf = new int[stateCount];
+        this.first = new int[stateCount];
+        this.end = new int[stateCount];
+        this.marked = new int[stateCount];
+        this.queued = new boolean[stateCount];
+        
+        int sink = stateCount - 1;
+        boolean[] mergeable = new boolean[sink];
+        int[] next = new int[stateCount * eventCount];
+        for ( int stateIndex = 0; stateIndex < sink; stateIndex++ )
+        {
+            mergeable[stateIndex] = isMergeable(transitionTable, stateIndex);
+            for ( int eventIndex = 0; eventIndex < eventCount; eventIndex++ )
+            {
+                int entry = transitionTable.next(stateIndex, eventIndex);
+                next[stateIndex * eventCount + eventIndex] = ! mergeable[stateIndex] ? TransitionTable.REJECT
+                                                           : entry >= 0 ? entry : sink;
+            }
+        }
+        for ( int eventIndex = 0; eventIndex < eventCount; eventIndex++ )
+        {
+            next[sink * eventCount + eventIndex] = sink;
+        }
+        
+        // Only transitions of MergeableStates, into any State, are followed backwards
+        this.predecessorStart = new int[stateCount * eventCount + 1];
+        for ( int cell = 0; cell < next.length; cell++ )
+        {
+            if ( next[cell] != TransitionTable.REJECT )
+            {
+                predecessorStart[next[cell] * eventCount + cell % eventCount + 1]++;
+            }
+        }
+        for ( int index = 1; index < predecessorStart.length; index++ )
+        {
+            predecessorStart[index] += predecessorStart[index - 1];
+        }
+        this.predecessors = new int[predecessorStart[predecessorStart.length - 1]];
+        int[] fill = Arrays.copyOf(predecessorStart, predecessorStart.length - 1);
+        for ( int cell = 0; cell < next.length; cell++ )
+        {
+            if ( next[cell] != TransitionTable.REJECT )
+            {
+                predecessors[fill[next[cell] * eventCount + cell % eventCount]++] = cell / eventCount;
+            }
+        }
+        
+        initialPartition(transitionTable, mergeable);
+    }
+
+    /**
+     * Partitions the States of a TransitionTable into blocks of equivalent
+     * States.
+     * <p>
+     * @param transitionTable
+     * @return index of the block of each State; blocks are numbered in
+     * the order of their lowest State
+     */
+    static int[] partition(TransitionTable transitionTable)
+    {
+        Hopcroft hopcroft = new Hopcroft(transitionTable);
+        hopcroft.refine();
+        return hopcroft.renumber();
+    }
+
+    private static boolean isMergeable(TransitionTable transitionTable, int stateIndex)
+    {
+        State state = transitionTable.getState(stateIndex);
+        if ( ! (state instanceof MergeableState) || state instanceof GuardedState
+             || state instanceof ActionState )
+        {
+            return false;
+        }
+        for ( int eventIndex = 0; eventIndex < transitionTable.getEventCount(); eventIndex++ )
+        {
+            int entry = transitionTable.next(stateIndex, eventIndex);
+            if ( entry < 0 && entry != TransitionTable.REJECT )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void initialPartition(TransitionTable transitionTable, boolean[] mergeable)
+    {
+        Map<Object, Integer> blockOfKey = new HashMap<Object, Integer>();
+        int[] sizes = new int[stateCount];
+        for ( int stateIndex = 0; stateIndex < stateCount; stateIndex++ )
+        {
+            int block;
+            if ( stateIndex < mergeable.length && mergeable[stateIndex] )
+            {
+                MergeableState state = transitionTable.getState(stateIndex).getThis();
+                Integer keyBlock = blockOfKey.get(state.getMergeKey());
+                if ( keyBlock == null )
+                {
+                    keyBlock = blockCount++;
+                    blockOfKey.put(state.getMergeKey(), keyBlock);
+                }
+                block = keyBlock;
+            }
+            else
+            {
+                block = blockCount++;
+            }
+            blockOf[stateIndex] = block;
+            sizes[block]++;
+        }
+        
+        int position = 0;
+        for ( int block = 0; block < blockCount; block++ )
+        {
+            first[block] = position;
+            end[block] = position;
+            position += sizes[block];
+        }
+        for ( int stateIndex = 0; stateIndex < stateCount; stateIndex++ )
+        {
+            int block = blockOf[stateIndex];
+            elements[end[block]] = stateIndex;
+            location[stateIndex] = end[block]++;
+        }
+    }
+
+    private void refine()
+    {
+        Deque<Integer> splitters = new ArrayDeque<Integer>();
+        for ( int block = 0; block < blockCount; block++ )
+        {
+            splitters.add(block);
+            queued[block] = true;
+        }
+        
+        int[] touched = new int[stateCount];
+        while ( ! splitters.isEmpty() )
+        {
+            int splitter = splitters.poll();
+            queued[splitter] = false;
+            int[] splitterStates = Arrays.copyOfRange(elements, first[splitter], end[splitter]);
+            
+            for ( int eventIndex = 0; eventIndex < eventCount; eventIndex++ )
+            {
+                int touchedCount = 0;
+                for ( int target : splitterStates )
+                {
+                    int cell = target * eventCount + eventIndex;
+                    for ( int index = predecessorStart[cell]; index < predecessorStart[cell + 1]; index++ )
+                    {
+                        int block = blockOf[predecessors[index]];
+                        if ( marked[block] == 0 )
+                        {
+                            touched[touchedCount++] = block;
+                        }
+                        mark(predecessors[index]);
+                    }
+                }
+                for ( int index = 0; index < touchedCount; index++ )
+                {
+                    split(touched[index], splitters);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves a State into the marked front part of its block.
+     */
+    private void mark(int stateIndex)
+    {
+        int block = blockOf[stateIndex];
+        int position = location[stateIndex];
+        int markedPosition = first[block] + marked[block];
+        if ( position < markedPosition )
+        {
+            return;
+        }
+        int other = elements[markedPosition];
+        elements[markedPosition] = stateIndex;
+        location[stateIndex] = markedPosition;
+        elements[position] = other;
+        location[other] = position;
+        marked[block]++;
+    }
+
+    /**
+     * Splits the marked part off a block if it is not the whole block.
+     */
+    private void split(int block, Deque<Integer> splitters)
+    {
+        int markedCount = marked[block];
+        marked[block] = 0;
+        if ( markedCount == end[block] - first[block] )
+        {
+            return;
+        }
+        
+        int newBlock = blockCount++;
+        first[newBlock] = first[block];
+        end[newBlock] = first[block] + markedCount;
+        first[block] = end[newBlock];
+        for ( int position = first[newBlock]; position < end[newBlock]; position++ )
+        {
+            blockOf[elements[position]] = newBlock;
+        }
+        
+        if ( queued[block] )
+        {
+            splitters.add(newBlock);
+            queued[newBlock] = true;
+        }
+        else
+        {
+            int smaller = markedCount <= end[block] - first[block] ? newBlock : block;
+            splitters.add(smaller);
+            queued[smaller] = true;
+        }
+    }
+
+    /**
+     * Numbers the blocks of the real States in the order of their lowest
+     * State, leaving out the sink.
+     */
+    private int[] renumber()
+    {
+        int[] number = new int[blockCount];
+        Arrays.fill(number, -1);
+        int[] result = new int[stateCount - 1];
+        int count = 0;
+        for ( int stateIndex = 0; stateIndex < stateCount - 1; stateIndex++ )
+        {
+            int block = blockOf[stateIndex];
+            if ( number[block] < 0 )
+            {
+                number[block] = count++;
+            }
+            result[stateIndex] = number[block];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.util.Arrays;
+
+/**
+ * The bitset of IdentityRegistry ids behind EventSet and StateSet.
+ * Bit id of the long[] is set for each member, and the array grows to
+ * the word of the largest id.
+ * <p>
+ * @see EventSet
+ * @see StateSet
+ */
+final class IdBits
+{
+    static final long[] EMPTY = new long[0];
+
+    private IdBits()
+    {
+    }
+
+    /**
+     * Sets the bit of an id, growing the words if needed.
+     * <p>
+     * @param words
+     * @param id
+     * @return words, or a longer copy of them
+     */
+    static long[] add(long[] words, int id)
+    {
+        int word = id >>> 6;
+        if ( word >= words.length )
+        {
+            words = Arrays.copyOf(words, word + 1);
+        }
+        words[word] |= 1L << id;
+        return words;
+    }
+
+    /**
+     * Tests the bit of an id. NO_ID is never set.
+     * <p>
+     * @param words
+     * @param id
+     * @return true/false
+     */
+    static boolean contains(long[] words, int id)
+    {
+        int word = id >>> 6;
+        return id >= 0 && word < words.length && (words[word] & (1L << id)) != 0;
+    }
+}
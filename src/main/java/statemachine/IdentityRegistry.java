@@ -0,0 +1,202 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The IdentityRegistry assigns each distinct Event and each distinct State
+ * a small int id the first time it is seen. Ids start at zero and are
+ * dense, so they can be used to index arrays.
+ * <p>
+ * Events (and States) that are equal share one id, so the id of an Event
+ * stands in for its hashCode and equals. Event and State ids are
+ * assigned independently of each other.
+ * <p>
+ * Ids are stable for the life of the process but are not persistent;
+ * they must not be written out and read back by another process.
+ * Every Event and State registered is held for the life of the process,
+ * so they should come from a bounded vocabulary. Events and States are
+ * registered when a TransitionTable is built; looking them up while
+ * running only peeks, so input of a foreign Event registers nothing.
+ * <p>
+ * @see Event#id()
+ * @see State#id()
+ */
+public final class IdentityRegistry
+{
+    public static final int NO_ID = -1;
+
+    private static final Map<Event, Integer> eventToId = new ConcurrentHashMap<Event, Integer>();
+    private static final Map<State, Integer> stateToId = new ConcurrentHashMap<State, Integer>();
+    private static volatile Event[] eventsById = new Event[64];
+    private static volatile State[] statesById = new State[64];
+    private static int eventCount = 0;
+    private static int stateCount = 0;
+
+    private IdentityRegistry()
+    {
+    }
+
+    /**
+     * Gets the id of an Event, assigning the next free id if the Event
+     * has not been seen before.
+     * <p>
+     * @param event
+     * @return id
+     */
+    public static int idOf(Event event)
+    {
+        Integer id = eventToId.get(event);
+        return id != null ? id : register(event);
+    }
+
+    /**
+     * Gets the id of a State, assigning the next free id if the State
+     * has not been seen before.
+     * <p>
+     * @param state
+     * @return id
+     */
+    public static int idOf(State state)
+    {
+        Integer id = stateToId.get(state);
+        return id != null ? id : register(state);
+    }
+
+    /**
+     * Gets the id of an Event without registering it.
+     * Lookups of Events that come from outside, such as input, use this
+     * so an Event that has never been registered is not held forever.
+     * <p>
+     * @param event
+     * @return id or NO_ID if the Event has not been registered
+     */
+    public static int peekId(Event event)
+    {
+        Integer id = eventToId.get(event);
+        return id != null ? id : NO_ID;
+    }
+
+    /**
+     * Gets the id of a State without registering it.
+     * <p>
+     * @param state
+     * @return id or NO_ID if the State has not been registered
+     * @see #peekId(Event)
+     */
+    public static int peekId(State state)
+    {
+        Integer id = stateToId.get(state);
+        return id != null ? id : NO_ID;
+    }
+
+    /**
+     * Gets the Event registered with the given id, or null if none is.
+     * <p>
+     * @param id
+     * @return event
+     */
+    public static Event getEvent(int id)
+    {
+        Event[] events = eventsById;
+        return id >= 0 && id < events.length ? events[id] : null;
+    }
+
+    /**
+     * Gets the State registered with the given id, or null if none is.
+     * <p>
+     * @param id
+     * @return state
+     */
+    public static State getState(int id)
+    {
+        State[] states = statesById;
+        return id >= 0 && id < states.length ? states[id] : null;
+    }
+
+    /**
+     * Gets the number of Event ids assigned so far.
+     * <p>
+     * @return number of Event ids
+     */
+    public static synchronized int getEventCount()
+    {
+        return eventCount;
+    }
+
+    /**
+     * Gets the number of State ids assigned so far.
+     * <p>
+     * @return number of State ids
+     */
+    public static synchronized int getStateCount()
+    {
+        return stateCount;
+    }
+
+    private static synchronized int register(Event event)
+    {
+        Integer id = eventToId.get(event);
+        if ( id != null )
+        {
+            return id;
+        }
+
+        id = eventCount++;
+        if ( id == eventsById.length )
+        {
+            eventsById = Arrays.copyOf(eventsById, id * 2);
+        }
+        eventsById[id] = event;
+
+        // Publishing the id after the array slot makes the slot visible to readers of the id
+        eventToId.put(event, id);
+        return id;
+    }
+
+    private static synchronized int register(State state)
+    {
+        Integer id = stateToId.get(state);
+        if ( id != null )
+        {
+            return id;
+        }
+
+        id = stateCount++;
+        if ( id == statesById.length )
+        {
+            statesById = Arrays.copyOf(statesById, id * 2);
+        }
+        statesById[id] = state;
+
+        // Publishing the id after the array slot makes the slot visible to readers of the id
+        stateToId.put(state, id);
+        return id;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+/**
+ * An InputResult is returned when a run of Events is input to a
+ * StateMachine. It holds the number of Events the StateMachine applied,
+ * that is, Events accepted by the current State at the time, and the
+ * State the StateMachine was left in.
+ * <p>
+ * @see StateMachine#input(Event[], int, int)
+ */
+public final class InputResult
+{
+    private final int appliedCount;
+    private final State finalState;
+
+    public InputResult(int appliedCount, State finalState)
+    {
+        this.appliedCount = appliedCount;
+        this.finalState = finalState;
+    }
+
+    /**
+     * Gets the number of Events applied.
+     * <p>
+     * @return appliedCount
+     */
+    public int getAppliedCount()
+    {
+        return appliedCount;
+    }
+
+    /**
+     * Gets the State after the last Event of the run.
+     * <p>
+     * @return finalState
+     */
+    public State getFinalState()
+    {
+        return finalState;
+    }
+
+    @Override
+    public String toString()
+    {
+        return appliedCount + " applied, " + finalState;
+    }
+}
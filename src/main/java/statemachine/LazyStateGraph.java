@@ -0,0 +1,131 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * A LazyStateGraph initializes States one at a time, as a
+ * FiniteStateMachine set up lazily first enters them, rather than
+ * walking the whole graph from the start State.
+ * <p>
+ * Each State is initialized once and its input Events are then kept,
+ * keyed by State id, so that later visits only test a bit.
+ * complete builds the MachineDefinition of the whole graph without
+ * initializing the resolved States again.
+ * <p>
+ * @see FiniteStateMachine#setupLazily(State)
+ * @see StateGraph
+ */
+final class LazyStateGraph implements Serializable
+{
+    private static final long serialVersionUID = 4490917733914061519L;
+
+    private final State startState;
+    private final List<State> resolvedStates = new ArrayList<State>();
+
+    // Indexed by IdentityRegistry id; rebuilt after deserialization since ids are per process
+    private transient EventSet[] inputEventsById = new EventSet[0];
+
+    LazyStateGraph(State startState)
+    {
+        this.startState = startState;
+        resolve(startState);
+    }
+
+    State getStartState()
+    {
+        return startState;
+    }
+
+    /**
+     * Gets the number of States initialized so far.
+     * <p>
+     * @return number of States
+     */
+    int getResolvedCount()
+    {
+        return resolvedStates.size();
+    }
+
+    /**
+     * Gets the input Events of a State, initializing the State first if
+     * this is the first time it has been seen.
+     * <p>
+     * @param state
+     * @return input Events
+     */
+    EventSet resolve(State state)
+    {
+        int id = state.id();
+        if ( id < inputEventsById.length && inputEventsById[id] != null )
+        {
+            return inputEventsById[id];
+        }
+
+        state.init();
+        resolvedStates.add(state);
+        return index(state);
+    }
+
+    /**
+     * Discovers the rest of the graph and compiles all of it.
+     * <p>
+     * @return machineDefinition
+     */
+    MachineDefinition complete()
+    {
+        return MachineDefinition.build(startState, new HashSet<State>(resolvedStates));
+    }
+
+    private EventSet index(State state)
+    {
+        int id = state.id();
+        if ( id >= inputEventsById.length )
+        {
+            inputEventsById = Arrays.copyOf(inputEventsById, Math.max(id + 1, inputEventsById.length * 2));
+        }
+        EventSet inputEvents = EventSet.inputEventsOf(state);
+        inputEventsById[id] = inputEvents;
+        return inputEvents;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        inputEventsById = new EventSet[0];
+        for ( State state : resolvedStates )
+        {
+            index(state);
+        }
+    }
+}
@@ -0,0 +1,435 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A MachineArena runs a large number of lightweight machine instances
+ * that share one MachineDefinition.
+ * <p>
+ * Instead of a FiniteStateMachine object per instance, the arena keeps
+ * two ints per instance in one direct (off-heap) buffer: the index of
+ * the current State and the index of the latest Event in the
+ * definition's TransitionTable. An instance is identified by its
+ * position in the arena, from zero to capacity - 1, and every instance
+ * starts in the start State of the definition.
+ * <p>
+ * Input to one instance is serialized by one of a fixed number of
+ * striped locks, so the arena needs no monitor per instance.
+ * <p>
+ * Because the States are shared by every instance, they should not hold
+ * data that belongs to one instance. An instance has no MachineContext
+ * and no ActionResults are acted on, so a definition with slots, a
+ * ContextState or an ActionState cannot be put in an arena.
+ * <p>
+ * @see MachineDefinition
+ * @see StateMachine
+ */
+public class MachineArena
+{
+    private static final int INTS_PER_INSTANCE = 2;
+    private static final int STATE_SLOT = 0;
+    private static final int EVENT_SLOT = 1;
+    private static final int LOCK_STRIPES = 64;
+    private static final int FILL_INSTANCES = 1024;
+
+    private final String name;
+    private final MachineDefinition definition;
+    private final int capacity;
+    private final IntBuffer instances;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * Makes an arena of capacity instances, all in the start State.
+     * <p>
+     * @param name
+     * @param definition
+     * @param capacity
+     * @throws IllegalArgumentException if capacity does not fit in one
+     * buffer, or if the definition has slots, a ContextState or an ActionState
+     */
+    public MachineArena(String name, MachineDefinition definition, int capacity)
+    {
+        if ( capacity < 0 || capacity > Integer.MAX_VALUE / (INTS_PER_INSTANCE * 4) )
+        {
+            throw new IllegalArgumentException("Capacity " + capacity + " out of range");
+        }
+        if ( definition.hasSlots() )
+        {
+            throw new IllegalArgumentException(definition + " has slots, which an arena does not keep");
+        }
+        State contextualState = definition.findContextualState();
+        if ( contextualState != null )
+        {
+            throw new IllegalArgumentException("State " + contextualState + " of " + definition
+                                               + " cannot run in an arena");
+        }
+
+        this.name = name;
+        this.definition = definition;
+        this.capacity = capacity;
+        this.instances = ByteBuffer.allocateDirect(capacity * INTS_PER_INSTANCE * 4)
+                                   .order(ByteOrder.nativeOrder())
+                                   .asIntBuffer();
+        for ( int stripe = 0; stripe < LOCK_STRIPES; stripe++ )
+        {
+            locks[stripe] = new Object();
+        }
+        fill(definition.getStartStateIndex());
+    }
+
+    /**
+     * Puts every instance in the start State with no latest Event,
+     * copying a run of reset instances into the buffer at a time.
+     * The arena is not yet shared, so no lock is taken.
+     * <p>
+     * @param startStateIndex
+     */
+    private void fill(int startStateIndex)
+    {
+        int[] run = new int[Math.min(capacity, FILL_INSTANCES) * INTS_PER_INSTANCE];
+        for ( int position = 0; position < run.length; position += INTS_PER_INSTANCE )
+        {
+            run[position + STATE_SLOT] = startStateIndex;
+            run[position + EVENT_SLOT] = TransitionTable.REJECT;
+        }
+        while ( instances.hasRemaining() )
+        {
+            instances.put(run, 0, Math.min(run.length, instances.remaining()));
+        }
+        instances.clear();
+    }
+
+    /**
+     * Gets the name of the arena.
+     * <p>
+     * @return name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Gets the MachineDefinition shared by all instances.
+     * <p>
+     * @return definition
+     */
+    public MachineDefinition getDefinition()
+    {
+        return definition;
+    }
+
+    /**
+     * Gets the number of instances.
+     * <p>
+     * @return capacity
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Puts an instance back into the start State with no latest Event.
+     * <p>
+     * @param instance
+     */
+    public void reset(int instance)
+    {
+        checkInstance(instance);
+        synchronized ( lockOf(instance) )
+        {
+            instances.put(instance * INTS_PER_INSTANCE + STATE_SLOT, definition.getStartStateIndex());
+            instances.put(instance * INTS_PER_INSTANCE + EVENT_SLOT, TransitionTable.REJECT);
+        }
+    }
+
+    /**
+     * Executes a state transition of one instance, in the same way as
+     * FiniteStateMachine.input.
+     * <p>
+     * @param instance
+     * @param event
+     * @throws StateMachineException if a State returns a next State that
+     * is not part of the definition, or if a State throws it
+     * @see FiniteStateMachine#input(Event)
+     */
+    public void input(int instance, Event event) throws StateMachineException
+    {
+        checkInstance(instance);
+        TransitionTable transitionTable = definition.getTransitionTable();
+        int eventIndex = transitionTable.indexOf(event);
+        if ( eventIndex == TransitionTable.REJECT )
+        {
+            return;
+        }
+
+        int position = instance * INTS_PER_INSTANCE;
+        synchronized ( lockOf(instance) )
+        {
+            int stateIndex = instances.get(position + STATE_SLOT);
+            int nextStateIndex = transitionTable.next(stateIndex, eventIndex, event);
+            if ( nextStateIndex == TransitionTable.REJECT )
+            {
+                return;
+            }
+
+            State nextState;
+            if ( nextStateIndex == TransitionTable.DELEGATE )
+            {
+                // There are no ContextStates, so no MachineContext is needed
+                nextState = StateDispatch.delegate(transitionTable, stateIndex, eventIndex,
+                                                   transitionTable.getState(stateIndex), event, null);
+                nextStateIndex = transitionTable.indexOf(nextState);
+                if ( nextStateIndex == TransitionTable.REJECT )
+                {
+                    throw new StateMachineException("State " + nextState + " is not part of " + definition);
+                }
+            }
+            else
+            {
+                nextState = transitionTable.getState(nextStateIndex);
+            }
+
+            instances.put(position + STATE_SLOT, nextStateIndex);
+            nextState.onEntry(event);
+            instances.put(position + EVENT_SLOT, eventIndex);
+        }
+    }
+
+    /**
+     * Tests whether input of an Event would cause a transition of one
+     * instance now, evaluating the Guards of a GuardedState.
+     * <p>
+     * @param instance
+     * @param event
+     * @return true/false
+     * @see StateMachine#accepts(Event)
+     */
+    public boolean accepts(int instance, Event event)
+    {
+        checkInstance(instance);
+        TransitionTable transitionTable = definition.getTransitionTable();
+        int eventIndex = transitionTable.indexOf(event);
+        if ( eventIndex == TransitionTable.REJECT )
+        {
+            return false;
+        }
+        synchronized ( lockOf(instance) )
+        {
+            int stateIndex = instances.get(instance * INTS_PER_INSTANCE + STATE_SLOT);
+            return transitionTable.next(stateIndex, eventIndex, event) != TransitionTable.REJECT;
+        }
+    }
+
+    /**
+     * Gets the index of the current State of an instance.
+     * <p>
+     * @param instance
+     * @return stateIndex
+     */
+    public int getCurrentStateIndex(int instance)
+    {
+        checkInstance(instance);
+        synchronized ( lockOf(instance) )
+        {
+            return instances.get(instance * INTS_PER_INSTANCE + STATE_SLOT);
+        }
+    }
+
+    /**
+     * Gets the current State of an instance.
+     * <p>
+     * @param instance
+     * @return current State
+     */
+    public State getCurrentState(int instance)
+    {
+        return definition.getTransitionTable().getState(getCurrentStateIndex(instance));
+    }
+
+    /**
+     * Gets the latest Event input to an instance, or null if there is none.
+     * <p>
+     * @param instance
+     * @return latest Event
+     */
+    public Event getLatestEvent(int instance)
+    {
+        checkInstance(instance);
+        int eventIndex;
+        synchronized ( lockOf(instance) )
+        {
+            eventIndex = instances.get(instance * INTS_PER_INSTANCE + EVENT_SLOT);
+        }
+        return eventIndex != TransitionTable.REJECT ? definition.getTransitionTable().getEvent(eventIndex) : null;
+    }
+
+    /**
+     * Gets a StateMachine view of one instance. The view holds no state
+     * of its own, so it may be made whenever it is needed and discarded.
+     * Views of the same instance are equal; however, Triggers compare
+     * StateMachines by identity, so keep one view when using Triggers.
+     * <p>
+     * @param instance
+     * @return stateMachine
+     */
+    public StateMachine getStateMachine(int instance)
+    {
+        checkInstance(instance);
+        return new InstanceView(instance);
+    }
+
+    private void checkInstance(int instance)
+    {
+        if ( instance < 0 || instance >= capacity )
+        {
+            throw new IndexOutOfBoundsException("Instance " + instance + " of " + capacity);
+        }
+    }
+
+    private Object lockOf(int instance)
+    {
+        return locks[instance & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * A StateMachine backed by one instance of the arena.
+     */
+    private final class InstanceView implements StateMachine
+    {
+        private final int instance;
+
+        InstanceView(int instance)
+        {
+            this.instance = instance;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name + "[" + instance + "]";
+        }
+
+        /**
+         * Resets the instance. The definition of an arena is fixed, so
+         * startState must be the start State of the definition.
+         */
+        @Override
+        public void setup(State startState)
+        {
+            if ( ! startState.equals(definition.getStartState()) )
+            {
+                throw new UnsupportedOperationException("The definition of " + name + " is fixed");
+            }
+            reset(instance);
+        }
+
+        @Override
+        public void input(Event event) throws StateMachineException
+        {
+            MachineArena.this.input(instance, event);
+        }
+
+        @Override
+        public boolean accepts(Event event)
+        {
+            return MachineArena.this.accepts(instance, event);
+        }
+
+        @Override
+        public State getCurrentState()
+        {
+            return MachineArena.this.getCurrentState(instance);
+        }
+
+        @Override
+        public Event getLatestEvent()
+        {
+            return MachineArena.this.getLatestEvent(instance);
+        }
+
+        @Override
+        public State[] getStates()
+        {
+            return definition.getStateSet().toArray();
+        }
+
+        @Override
+        public Event[] getInputEvents()
+        {
+            return definition.getInputEventSet().toArray();
+        }
+
+        @Override
+        public StateSet getStateSet()
+        {
+            return definition.getStateSet();
+        }
+
+        @Override
+        public EventSet getInputEventSet()
+        {
+            return definition.getInputEventSet();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(MachineArena.this) * 31 + instance;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof InstanceView))
+            {
+                return false;
+            }
+            InstanceView other = (InstanceView) obj;
+            return other.arena() == MachineArena.this && other.instance == instance;
+        }
+
+        @Override
+        public String toString()
+        {
+            return getName();
+        }
+
+        private MachineArena arena()
+        {
+            return MachineArena.this;
+        }
+    }
+}
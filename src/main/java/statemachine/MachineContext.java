@@ -0,0 +1,193 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A MachineContext holds the extended state of one FiniteStateMachine in
+ * primitive slots: the int, long and double slots declared by its
+ * MachineDefinition, each addressed by index from zero.
+ * <p>
+ * Keeping extended state in slots rather than in objects referenced by
+ * the States lets the States be shared by every FiniteStateMachine of a
+ * definition, keeps each machine to three small arrays, and lets a
+ * snapshot carry the extended state with no code of its own.
+ * <p>
+ * Slots start at zero. A MachineContext is used under the monitor of its
+ * FiniteStateMachine and is not otherwise thread safe.
+ * <p>
+ * @see MachineDefinition#withSlots(int, int, int)
+ * @see ContextState
+ */
+public final class MachineContext implements Serializable
+{
+    private static final long serialVersionUID = -5514946730851049232L;
+    private static final int[] NO_INTS = new int[0];
+    private static final long[] NO_LONGS = new long[0];
+    private static final double[] NO_DOUBLES = new double[0];
+
+    /**
+     * The MachineContext of a definition without slots, shared since it
+     * holds nothing.
+     */
+    static final MachineContext EMPTY = new MachineContext(MachineDefinition.EMPTY);
+
+    private final int[] ints;
+    private final long[] longs;
+    private final double[] doubles;
+
+    MachineContext(MachineDefinition definition)
+    {
+        int intSlotCount = definition.getIntSlotCount();
+        int longSlotCount = definition.getLongSlotCount();
+        int doubleSlotCount = definition.getDoubleSlotCount();
+        this.ints = intSlotCount > 0 ? new int[intSlotCount] : NO_INTS;
+        this.longs = longSlotCount > 0 ? new long[longSlotCount] : NO_LONGS;
+        this.doubles = doubleSlotCount > 0 ? new double[doubleSlotCount] : NO_DOUBLES;
+    }
+
+    public int getInt(int slot)
+    {
+        return ints[slot];
+    }
+
+    public void setInt(int slot, int value)
+    {
+        ints[slot] = value;
+    }
+
+    /**
+     * Adds to an int slot.
+     * <p>
+     * @param slot
+     * @param delta
+     * @return new value
+     */
+    public int addInt(int slot, int delta)
+    {
+        return ints[slot] += delta;
+    }
+
+    public long getLong(int slot)
+    {
+        return longs[slot];
+    }
+
+    public void setLong(int slot, long value)
+    {
+        longs[slot] = value;
+    }
+
+    /**
+     * Adds to a long slot.
+     * <p>
+     * @param slot
+     * @param delta
+     * @return new value
+     */
+    public long addLong(int slot, long delta)
+    {
+        return longs[slot] += delta;
+    }
+
+    public double getDouble(int slot)
+    {
+        return doubles[slot];
+    }
+
+    public void setDouble(int slot, double value)
+    {
+        doubles[slot] = value;
+    }
+
+    /**
+     * Sets every slot back to zero.
+     */
+    public void clear()
+    {
+        Arrays.fill(ints, 0);
+        Arrays.fill(longs, 0);
+        Arrays.fill(doubles, 0);
+    }
+
+    /**
+     * Writes the slots for a snapshot. Ints are zigzag varints, so small
+     * values of either sign take one byte.
+     * <p>
+     * @param out
+     * @throws IOException
+     */
+    void write(DataOutput out) throws IOException
+    {
+        for ( int value : ints )
+        {
+            Varint.writeInt(out, (value << 1) ^ (value >> 31));
+        }
+        for ( long value : longs )
+        {
+            out.writeLong(value);
+        }
+        for ( double value : doubles )
+        {
+            out.writeDouble(value);
+        }
+    }
+
+    /**
+     * Reads the slots written by write.
+     * <p>
+     * @param in
+     * @throws IOException
+     */
+    void read(DataInput in) throws IOException
+    {
+        for ( int slot = 0; slot < ints.length; slot++ )
+        {
+            int zigzag = Varint.readInt(in);
+            ints[slot] = (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        for ( int slot = 0; slot < longs.length; slot++ )
+        {
+            longs[slot] = in.readLong();
+        }
+        for ( int slot = 0; slot < doubles.length; slot++ )
+        {
+            doubles[slot] = in.readDouble();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MachineContext(" + Arrays.toString(ints) + ", " + Arrays.toString(longs) + ", "
+            + Arrays.toString(doubles) + ")";
+    }
+}
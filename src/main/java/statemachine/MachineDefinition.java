@@ -0,0 +1,527 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A MachineDefinition is the frozen, shareable description of a state
+ * machine: every State reachable from a start State, every Event those
+ * States accept, and the TransitionTable compiled from them.
+ * <p>
+ * Building a MachineDefinition walks the State graph and calls init on
+ * each State once. Any number of FiniteStateMachines may then share it;
+ * each one holds only its own current State and latest Event, so making
+ * a new one does not repeat the walk.
+ * <p>
+ * Sharing a MachineDefinition means sharing its State objects, so the
+ * States should not hold data that belongs to one machine.
+ * <p>
+ * @see FiniteStateMachine
+ * @see TransitionTable
+ */
+public final class MachineDefinition implements Serializable
+{
+    private static final long serialVersionUID = -7125262186573358590L;
+
+    /**
+     * A MachineDefinition with no States, used by a FiniteStateMachine
+     * before setup.
+     */
+    public static final MachineDefinition EMPTY
+        = new MachineDefinition(new TransitionTable(new State[0], new Event[0]), null, 0);
+
+    private final TransitionTable transitionTable;
+    private final State startState;
+    private final int startStateIndex;
+    private final long buildNanos;
+    private final int intSlotCount;
+    private final int longSlotCount;
+    private final int doubleSlotCount;
+
+    private MachineDefinition(TransitionTable transitionTable, State startState, long buildNanos)
+    {
+        this(transitionTable, startState, buildNanos, 0, 0, 0);
+    }
+
+    private MachineDefinition(TransitionTable transitionTable, State startState, long buildNanos,
+                              int intSlotCount, int longSlotCount, int doubleSlotCount)
+    {
+        this.transitionTable = transitionTable;
+        this.startState = startState;
+        this.startStateIndex = startState != null ? transitionTable.indexOf(startState) : TransitionTable.REJECT;
+        this.buildNanos = buildNanos;
+        this.intSlotCount = intSlotCount;
+        this.longSlotCount = longSlotCount;
+        this.doubleSlotCount = doubleSlotCount;
+    }
+
+    /**
+     * Builds a MachineDefinition from all States reachable from
+     * startState and all Events they accept.
+     * <p>
+     * @param startState
+     * @return machineDefinition
+     * @see FiniteStateMachine#setup(State)
+     */
+    public static MachineDefinition build(State startState)
+    {
+        long start = System.nanoTime();
+        StateGraph stateGraph = new StateGraph(startState);
+        TransitionTable transitionTable = new TransitionTable(stateGraph.getStates(), stateGraph.getInputEvents());
+        return new MachineDefinition(transitionTable, startState, System.nanoTime() - start);
+    }
+
+    /**
+     * Builds a MachineDefinition as build(State) does, calling init on
+     * the States in parallel using the ForkJoinPool. The States must
+     * allow init to be called on several of them at once.
+     * The result is the same as that of build(State).
+     * <p>
+     * @param startState
+     * @param pool
+     * @return machineDefinition
+     */
+    public static MachineDefinition build(State startState, ForkJoinPool pool)
+    {
+        long start = System.nanoTime();
+        StateGraph stateGraph = new StateGraph(startState, pool);
+        TransitionTable transitionTable = new TransitionTable(stateGraph.getStates(), stateGraph.getInputEvents());
+        return new MachineDefinition(transitionTable, startState, System.nanoTime() - start);
+    }
+
+    /**
+     * Builds a MachineDefinition as build(State) does, without calling
+     * init on the States that have been initialized already.
+     * <p>
+     * @param startState
+     * @param alreadyInitialized
+     * @return machineDefinition
+     * @see LazyStateGraph
+     */
+    static MachineDefinition build(State startState, Set<State> alreadyInitialized)
+    {
+        long start = System.nanoTime();
+        StateGraph stateGraph = new StateGraph(startState, alreadyInitialized);
+        TransitionTable transitionTable = new TransitionTable(stateGraph.getStates(), stateGraph.getInputEvents());
+        return new MachineDefinition(transitionTable, startState, System.nanoTime() - start);
+    }
+
+    /**
+     * Merges the equivalent MergeableStates of this definition, found by
+     * Hopcroft's partition refinement over the TransitionTable. This
+     * definition is left as it is; the merged one is held by the result
+     * along with the reduction achieved and the mapping of each original
+     * State to the State it was merged into.
+     * <p>
+     * States that are not MergeableStates, or that delegate to
+     * onTransition, have Guards or are ActionStates, are never merged.
+     * <p>
+     * @return minimization
+     * @see MergeableState
+     */
+    public Minimization minimize()
+    {
+        long start = System.nanoTime();
+        int[] blockOf = Hopcroft.partition(transitionTable);
+        int blockCount = 0;
+        for ( int block : blockOf )
+        {
+            blockCount = Math.max(blockCount, block + 1);
+        }
+        TransitionTable minimizedTable = new TransitionTable(transitionTable, blockOf, blockCount);
+        MachineDefinition minimized
+            = new MachineDefinition(minimizedTable, startState, buildNanos + System.nanoTime() - start,
+                                    intSlotCount, longSlotCount, doubleSlotCount);
+        return new Minimization(this, minimized, blockOf);
+    }
+
+    /**
+     * Makes a MachineDefinition with the same States and transitions as
+     * this one, with its TransitionTable laid out as a TransitionLayout
+     * orders it and with the hot Event of each State remembered.
+     * States and Events are matched by name; those the layout does not
+     * name follow the named ones in their present order.
+     * <p>
+     * The new definition has a different fingerprint, so snapshots taken
+     * with this one do not restore against it.
+     * <p>
+     * @param layout
+     * @return laid out machineDefinition
+     * @see TransitionProfile#toLayout()
+     */
+    public MachineDefinition withLayout(TransitionLayout layout)
+    {
+        long start = System.nanoTime();
+        int stateCount = transitionTable.getStateCount();
+        int eventCount = transitionTable.getEventCount();
+        String[] stateNames = new String[stateCount];
+        for ( int stateIndex = 0; stateIndex < stateCount; stateIndex++ )
+        {
+            stateNames[stateIndex] = transitionTable.getState(stateIndex).getName();
+        }
+        String[] eventNames = new String[eventCount];
+        for ( int eventIndex = 0; eventIndex < eventCount; eventIndex++ )
+        {
+            eventNames[eventIndex] = transitionTable.getEvent(eventIndex).getName();
+        }
+        
+        int[] stateOrder = order(stateNames, layout.getStateNames());
+        int[] eventOrder = order(eventNames, layout.getEventNames());
+        Map<String, Integer> eventIndexOfName = new HashMap<String, Integer>();
+        for ( int eventIndex = eventCount - 1; eventIndex >= 0; eventIndex-- )
+        {
+            eventIndexOfName.put(eventNames[eventOrder[eventIndex]], eventIndex);
+        }
+        int[] hotEventOf = new int[stateCount];
+        for ( int stateIndex = 0; stateIndex < stateCount; stateIndex++ )
+        {
+            Integer hotEventIndex = eventIndexOfName.get(layout.getHotEventName(stateNames[stateOrder[stateIndex]]));
+            hotEventOf[stateIndex] = hotEventIndex != null ? hotEventIndex : TransitionTable.REJECT;
+        }
+        
+        TransitionTable laidOutTable = new TransitionTable(transitionTable, stateOrder, eventOrder, hotEventOf);
+        return new MachineDefinition(laidOutTable, startState, buildNanos + System.nanoTime() - start,
+                                     intSlotCount, longSlotCount, doubleSlotCount);
+    }
+
+    // The present indices of names in the order given, then the rest in their present order
+    private static int[] order(String[] names, List<String> orderedNames)
+    {
+        Map<String, Deque<Integer>> indicesOfName = new HashMap<String, Deque<Integer>>();
+        for ( int index = 0; index < names.length; index++ )
+        {
+            Deque<Integer> indices = indicesOfName.get(names[index]);
+            if ( indices == null )
+            {
+                indices = new ArrayDeque<Integer>();
+                indicesOfName.put(names[index], indices);
+            }
+            indices.add(index);
+        }
+        
+        int[] order = new int[names.length];
+        boolean[] placed = new boolean[names.length];
+        int count = 0;
+        for ( String name : orderedNames )
+        {
+            Deque<Integer> indices = indicesOfName.get(name);
+            if ( indices != null && ! indices.isEmpty() )
+            {
+                int index = indices.poll();
+                placed[index] = true;
+                order[count++] = index;
+            }
+        }
+        for ( int index = 0; index < names.length; index++ )
+        {
+            if ( ! placed[index] )
+            {
+                order[count++] = index;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Makes a MachineDefinition with the same States and TransitionTable
+     * as this one whose FiniteStateMachines each have the given numbers
+     * of int, long and double slots for their extended state. The slots
+     * are read and written by ContextStates through a MachineContext.
+     * <p>
+     * @param intSlotCount
+     * @param longSlotCount
+     * @param doubleSlotCount
+     * @return machineDefinition with slots
+     * @throws IllegalArgumentException if a count is negative
+     * @see MachineContext
+     * @see ContextState
+     */
+    public MachineDefinition withSlots(int intSlotCount, int longSlotCount, int doubleSlotCount)
+    {
+        if ( intSlotCount < 0 || longSlotCount < 0 || doubleSlotCount < 0 )
+        {
+            throw new IllegalArgumentException("Slot counts " + intSlotCount + ", " + longSlotCount + ", "
+                                               + doubleSlotCount + " must not be negative");
+        }
+        return new MachineDefinition(transitionTable, startState, buildNanos,
+                                     intSlotCount, longSlotCount, doubleSlotCount);
+    }
+
+    public int getIntSlotCount()
+    {
+        return intSlotCount;
+    }
+
+    public int getLongSlotCount()
+    {
+        return longSlotCount;
+    }
+
+    public int getDoubleSlotCount()
+    {
+        return doubleSlotCount;
+    }
+
+    /**
+     * Tests whether the FiniteStateMachines of this definition have any
+     * slots.
+     * <p>
+     * @return true/false
+     */
+    public boolean hasSlots()
+    {
+        return intSlotCount + longSlotCount + doubleSlotCount > 0;
+    }
+
+    /**
+     * Steps many instances of this definition by one Event each, as a
+     * data-oriented alternative to a FiniteStateMachine per instance.
+     * Instance i is in the State with index stateIndices[i] of the
+     * TransitionTable and is given the Event with index eventIndices[i];
+     * its next State index is written back into stateIndices. An
+     * instance given REJECT, or whose State rejects its Event, is left
+     * as it is.
+     * <p>
+     * Only the TransitionTable is used: no onEntry is called and no
+     * listener is told. GUARDED and DELEGATE entries are resolved with
+     * the Guards and onTransition of the States, the latter of which
+     * should be PureStates or free of per-instance data.
+     * <p>
+     * There are no ActionResults to act on and no MachineContext to pass,
+     * so a definition with an ActionState or a ContextState cannot be
+     * stepped.
+     * <p>
+     * @param stateIndices current State indices, overwritten
+     * @param eventIndices Event indices, from TransitionTable.indexOf(Event)
+     * @return number of instances that made a transition
+     * @throws StateMachineException from onTransition
+     * @throws IllegalArgumentException if the arrays differ in length, or
+     * an index is neither REJECT nor one of the TransitionTable
+     * @throws UnsupportedOperationException if the definition has an
+     * ActionState or a ContextState
+     * @see #step(int[], int[], ForkJoinPool)
+     */
+    public long step(int[] stateIndices, int[] eventIndices) throws StateMachineException
+    {
+        checkSteppable();
+        checkColumns(stateIndices, eventIndices);
+        return ColumnarStep.step(transitionTable, stateIndices, eventIndices, 0, stateIndices.length);
+    }
+
+    /**
+     * Steps many instances as step(int[], int[]) does, splitting the
+     * instances into ranges stepped in parallel on the ForkJoinPool.
+     * If onTransition throws, every range is still stepped and the first
+     * StateMachineException is thrown with the others suppressed.
+     * <p>
+     * @param stateIndices current State indices, overwritten
+     * @param eventIndices Event indices
+     * @param pool
+     * @return number of instances that made a transition
+     * @throws StateMachineException from onTransition
+     * @throws IllegalArgumentException if the arrays differ in length, or
+     * an index is neither REJECT nor one of the TransitionTable
+     * @throws UnsupportedOperationException if the definition has an
+     * ActionState or a ContextState
+     */
+    public long step(int[] stateIndices, int[] eventIndices, ForkJoinPool pool) throws StateMachineException
+    {
+        checkSteppable();
+        checkColumns(stateIndices, eventIndices);
+        ColumnarStep columnarStep
+            = new ColumnarStep(transitionTable, stateIndices, eventIndices, 0, stateIndices.length);
+        pool.invoke(columnarStep);
+        if ( columnarStep.getFailure() != null )
+        {
+            throw columnarStep.getFailure();
+        }
+        return columnarStep.getAppliedCount();
+    }
+
+    private void checkSteppable()
+    {
+        State state = findContextualState();
+        if ( state != null )
+        {
+            throw new UnsupportedOperationException("State " + state + " of " + this
+                                                    + " cannot be stepped in columns");
+        }
+    }
+
+    /**
+     * Finds a State that only a FiniteStateMachine can run: an
+     * ActionState, whose ActionResults it acts on, or a ContextState,
+     * to which it passes its MachineContext.
+     * <p>
+     * @return the first such State, or null if there is none
+     * @see ActionState
+     * @see ContextState
+     */
+    State findContextualState()
+    {
+        for ( int stateIndex = 0; stateIndex < transitionTable.getStateCount(); stateIndex++ )
+        {
+            State state = transitionTable.getState(stateIndex);
+            if ( state instanceof ActionState || state instanceof ContextState )
+            {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    // Checked before any instance is stepped, so a bad index leaves the columns as they were
+    private void checkColumns(int[] stateIndices, int[] eventIndices)
+    {
+        if ( stateIndices.length != eventIndices.length )
+        {
+            throw new IllegalArgumentException(stateIndices.length + " State indices and "
+                                               + eventIndices.length + " Event indices");
+        }
+        int stateCount = transitionTable.getStateCount();
+        int eventCount = transitionTable.getEventCount();
+        for ( int instance = 0; instance < stateIndices.length; instance++ )
+        {
+            if ( stateIndices[instance] < TransitionTable.REJECT || stateIndices[instance] >= stateCount )
+            {
+                throw new IllegalArgumentException("State index " + stateIndices[instance] + " of instance "
+                                                   + instance + " is not of " + this);
+            }
+            if ( eventIndices[instance] < TransitionTable.REJECT || eventIndices[instance] >= eventCount )
+            {
+                throw new IllegalArgumentException("Event index " + eventIndices[instance] + " of instance "
+                                                   + instance + " is not of " + this);
+            }
+        }
+    }
+
+    /**
+     * Gets the time taken to build this MachineDefinition: walking the
+     * State graph, initializing the States and compiling the table.
+     * <p>
+     * @return build time in nanoseconds
+     */
+    public long getBuildNanos()
+    {
+        return buildNanos;
+    }
+
+    /**
+     * Gets a hash that identifies this definition across processes:
+     * the fingerprint of its TransitionTable combined with the index of
+     * its start State and its slot counts.
+     * <p>
+     * @return fingerprint
+     * @see TransitionTable#getFingerprint()
+     * @see FiniteStateMachine#restoreSnapshot(java.io.DataInput, MachineDefinition)
+     */
+    public long getFingerprint()
+    {
+        long fingerprint = transitionTable.getFingerprint() * 31 + startStateIndex;
+        if ( hasSlots() )
+        {
+            fingerprint = ((fingerprint * 31 + intSlotCount) * 31 + longSlotCount) * 31 + doubleSlotCount;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Gets the State each machine sharing this definition starts in.
+     * <p>
+     * @return startState
+     */
+    public State getStartState()
+    {
+        return startState;
+    }
+
+    /**
+     * Gets the index of the start State in the TransitionTable.
+     * <p>
+     * @return startStateIndex
+     */
+    public int getStartStateIndex()
+    {
+        return startStateIndex;
+    }
+
+    /**
+     * Gets the compiled transitions.
+     * <p>
+     * @return transitionTable
+     */
+    public TransitionTable getTransitionTable()
+    {
+        return transitionTable;
+    }
+
+    /**
+     * Gets all States of the definition.
+     * <p>
+     * @return set of States
+     */
+    public StateSet getStateSet()
+    {
+        return transitionTable.getStateSet();
+    }
+
+    /**
+     * Gets all Events accepted by the definition.
+     * <p>
+     * @return set of Events
+     */
+    public EventSet getInputEventSet()
+    {
+        return transitionTable.getInputEventSet();
+    }
+
+    /**
+     * Makes a new FiniteStateMachine sharing this definition and in its
+     * start State.
+     * <p>
+     * @param name
+     * @return finiteStateMachine
+     */
+    public FiniteStateMachine newInstance(String name)
+    {
+        return new FiniteStateMachine(name, this);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MachineDefinition(" + startState + ", " + transitionTable.getStateCount() + " States, "
+            + transitionTable.getEventCount() + " Events)";
+    }
+}
@@ -0,0 +1,196 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A MachinePool keeps released FiniteStateMachines for reuse, one queue
+ * per MachineDefinition, so short-lived machines are neither set up nor
+ * collected each time.
+ * <p>
+ * acquire hands out a released FiniteStateMachine of the definition if
+ * there is one, otherwise a new one sharing the definition, in either
+ * case in the start State with its slots cleared. release resets a
+ * FiniteStateMachine, drops its TransitionListeners and
+ * TransitionProfile, and keeps it unless maxIdle of its definition are
+ * kept already. A new FiniteStateMachine is named after the pool and
+ * numbered, and a reused one keeps that name.
+ * <p>
+ * A FiniteStateMachine must not be used after it has been released, and
+ * must not be released again until it has been acquired.
+ * <p>
+ * @see FiniteStateMachine#reset()
+ * @see AbstractStateMachineContainer#setMachinePool(MachinePool)
+ */
+public class MachinePool
+{
+    private final String name;
+    private final int maxIdle;
+    private final Map<MachineDefinition, Queue<FiniteStateMachine>> idleMachines
+        = new ConcurrentHashMap<MachineDefinition, Queue<FiniteStateMachine>>();
+    private final Map<MachineDefinition, AtomicInteger> idleCounts
+        = new ConcurrentHashMap<MachineDefinition, AtomicInteger>();
+    private final AtomicLong createdCount = new AtomicLong();
+
+    /**
+     * Makes a MachinePool keeping up to maxIdle released
+     * FiniteStateMachines of each MachineDefinition.
+     * <p>
+     * @param name
+     * @param maxIdle
+     * @throws IllegalArgumentException if maxIdle is negative
+     */
+    public MachinePool(String name, int maxIdle)
+    {
+        if ( maxIdle < 0 )
+        {
+            throw new IllegalArgumentException("maxIdle " + maxIdle + " is negative");
+        }
+        this.name = name;
+        this.maxIdle = maxIdle;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getMaxIdle()
+    {
+        return maxIdle;
+    }
+
+    /**
+     * Gets a FiniteStateMachine of a definition in its start State.
+     * <p>
+     * @param definition
+     * @return finiteStateMachine
+     */
+    public FiniteStateMachine acquire(MachineDefinition definition)
+    {
+        Queue<FiniteStateMachine> idle = idleMachines.get(definition);
+        FiniteStateMachine machine = idle != null ? idle.poll() : null;
+        if ( machine != null )
+        {
+            idleCounts.get(definition).decrementAndGet();
+            machine.acquire();
+            return machine;
+        }
+        return definition.newInstance(name + "-" + createdCount.incrementAndGet());
+    }
+
+    /**
+     * Resets a FiniteStateMachine, drops its TransitionListeners and
+     * TransitionProfile, and keeps it for acquire.
+     * <p>
+     * @param machine
+     * @return true if kept, false if maxIdle of its definition are kept
+     * already
+     * @throws IllegalStateException if the machine has already been
+     * released and not acquired since
+     */
+    public boolean release(FiniteStateMachine machine)
+    {
+        if ( ! machine.release() )
+        {
+            throw new IllegalStateException("FiniteStateMachine " + machine + " has already been released");
+        }
+        
+        MachineDefinition definition = machine.getDefinition();
+        AtomicInteger idleCount = idleCountOf(definition);
+        if ( idleCount.incrementAndGet() > maxIdle )
+        {
+            idleCount.decrementAndGet();
+            return false;
+        }
+        
+        idleMachines.get(definition).offer(machine);
+        return true;
+    }
+
+    /**
+     * Gets the number of released FiniteStateMachines of a definition
+     * kept for acquire.
+     * <p>
+     * @param definition
+     * @return idle count
+     */
+    public int getIdleCount(MachineDefinition definition)
+    {
+        AtomicInteger idleCount = idleCounts.get(definition);
+        return idleCount != null ? idleCount.get() : 0;
+    }
+
+    /**
+     * Gets the number of FiniteStateMachines the pool has made.
+     * <p>
+     * @return created count
+     */
+    public long getCreatedCount()
+    {
+        return createdCount.get();
+    }
+
+    /**
+     * Drops every kept FiniteStateMachine.
+     */
+    public void clear()
+    {
+        for ( Map.Entry<MachineDefinition, Queue<FiniteStateMachine>> entry : idleMachines.entrySet() )
+        {
+            AtomicInteger idleCount = idleCounts.get(entry.getKey());
+            while ( entry.getValue().poll() != null )
+            {
+                idleCount.decrementAndGet();
+            }
+        }
+    }
+
+    // The queue is made before the count, so a counted machine always has a queue
+    private AtomicInteger idleCountOf(MachineDefinition definition)
+    {
+        AtomicInteger idleCount = idleCounts.get(definition);
+        if ( idleCount == null )
+        {
+            idleMachines.putIfAbsent(definition, new ConcurrentLinkedQueue<FiniteStateMachine>());
+            idleCounts.putIfAbsent(definition, new AtomicInteger());
+            idleCount = idleCounts.get(definition);
+        }
+        return idleCount;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MachinePool(" + name + ", " + createdCount.get() + " created)";
+    }
+}
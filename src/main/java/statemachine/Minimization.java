@@ -0,0 +1,124 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.Serializable;
+
+/**
+ * A Minimization is the result of merging the equivalent MergeableStates
+ * of a MachineDefinition: the minimized definition, how much smaller it
+ * is, and which State each original State was merged into.
+ * <p>
+ * Each block of equivalent States is represented in the minimized
+ * definition by its State with the lowest index in the original, so the
+ * start State always represents its own block. A FiniteStateMachine
+ * running the minimized definition enters only representatives, so
+ * getCurrentState returns one of the original States, equivalent to the
+ * one the original definition would have entered. Looking up a merged
+ * State in the minimized TransitionTable gives the index of its
+ * representative.
+ * <p>
+ * @see MachineDefinition#minimize()
+ * @see MergeableState
+ */
+public final class Minimization implements Serializable
+{
+    private static final long serialVersionUID = 1790846117287400227L;
+
+    private final MachineDefinition original;
+    private final MachineDefinition minimized;
+    private final int[] blockOf;
+
+    Minimization(MachineDefinition original, MachineDefinition minimized, int[] blockOf)
+    {
+        this.original = original;
+        this.minimized = minimized;
+        this.blockOf = blockOf;
+    }
+
+    public MachineDefinition getOriginal()
+    {
+        return original;
+    }
+
+    public MachineDefinition getMinimized()
+    {
+        return minimized;
+    }
+
+    public int getOriginalStateCount()
+    {
+        return original.getTransitionTable().getStateCount();
+    }
+
+    public int getMinimizedStateCount()
+    {
+        return minimized.getTransitionTable().getStateCount();
+    }
+
+    /**
+     * Gets the number of States merged away.
+     * <p>
+     * @return original State count less minimized State count
+     */
+    public int getMergedStateCount()
+    {
+        return getOriginalStateCount() - getMinimizedStateCount();
+    }
+
+    /**
+     * Gets the index in the minimized TransitionTable of the State an
+     * original State was merged into.
+     * <p>
+     * @param originalStateIndex
+     * @return minimized State index
+     */
+    public int getMinimizedIndex(int originalStateIndex)
+    {
+        return blockOf[originalStateIndex];
+    }
+
+    /**
+     * Gets the State of the minimized definition that an original State
+     * was merged into, which is the State itself if it was not merged.
+     * <p>
+     * @param originalState
+     * @return representative State, or null if the State is not in the
+     * original definition
+     */
+    public State getRepresentative(State originalState)
+    {
+        TransitionTable minimizedTable = minimized.getTransitionTable();
+        int stateIndex = minimizedTable.indexOf(originalState);
+        return stateIndex != TransitionTable.REJECT ? minimizedTable.getState(stateIndex) : null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Minimization(" + getOriginalStateCount() + " States to " + getMinimizedStateCount() + ")";
+    }
+}
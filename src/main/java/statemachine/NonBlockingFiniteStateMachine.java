@@ -0,0 +1,572 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+
+import java.io.Serializable;
+import java.util.Queue;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This implements the methods of StateMachine without taking a monitor.
+ * <p>
+ * The current State and the latest Event are published together as one
+ * immutable Snapshot through an AtomicReference, so getCurrentState and
+ * getLatestEvent never block and always describe the same transition.
+ * <p>
+ * Concurrent calls to input are serialized by a work-in-progress counter:
+ * each Event is queued, and whichever thread moves the counter from zero
+ * delivers queued Events until none remain. A call to input may therefore
+ * return before its Event has been delivered by another thread. A
+ * StateMachineException thrown by a State is rethrown to the delivering
+ * thread after the remaining Events have been delivered. Any other
+ * exception stops the delivery; the Events still queued are delivered by
+ * the next call to input.
+ * <p>
+ * States are called as by a FiniteStateMachine, so a ContextState is
+ * given the MachineContext, the next State of a PureState is memoized
+ * and the ActionResults of an ActionState in the TransitionTable are
+ * acted on.
+ * <p>
+ * setup must not be called concurrently with input.
+ * <p>
+ * @see StateMachine
+ * @see FiniteStateMachine
+ */
+public class NonBlockingFiniteStateMachine implements StateMachine, Serializable
+{
+    private static final long serialVersionUID = -2961403870297425712L;
+
+    /**
+     * An immutable pairing of the current State and the latest Event.
+     */
+    private static final class Snapshot implements Serializable
+    {
+        private static final long serialVersionUID = 3627452003415212440L;
+        private final State state;
+        private final int stateIndex;
+        private final Event latestEvent;
+
+        Snapshot(State state, int stateIndex, Event latestEvent)
+        {
+            this.state = state;
+            this.stateIndex = stateIndex;
+            this.latestEvent = latestEvent;
+        }
+    }
+
+    private static final Snapshot NO_SNAPSHOT = new Snapshot(null, TransitionTable.REJECT, null);
+
+    private final String name;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(NO_SNAPSHOT);
+    private final Queue<Event> pendingEvents = new ConcurrentLinkedQueue<Event>();
+    private final AtomicInteger workInProgress = new AtomicInteger();
+    private volatile MachineDefinition definition = MachineDefinition.EMPTY;
+    private volatile MachineContext context = MachineContext.EMPTY;
+    // null while there are no TransitionListeners
+    private transient volatile TransitionListener[] transitionListeners = null;
+
+    public NonBlockingFiniteStateMachine(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Makes a NonBlockingFiniteStateMachine that shares a
+     * MachineDefinition and starts in its start State.
+     * <p>
+     * @param name
+     * @param definition
+     * @see MachineDefinition
+     */
+    public NonBlockingFiniteStateMachine(String name, MachineDefinition definition)
+    {
+        this.name = name;
+        setup(definition);
+    }
+
+    /**
+     * Gets the name associated with a NonBlockingFiniteStateMachine.
+     * <p>
+     * @return name
+     */
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Initializes the NonBlockingFiniteStateMachine with all States
+     * reachable from startState and all Events they accept,
+     * in the same way as FiniteStateMachine.setup.
+     * <p>
+     * @param startState
+     * @see FiniteStateMachine#setup(State)
+     */
+    @Override
+    public void setup(State startState)
+    {
+        setup(MachineDefinition.build(startState));
+    }
+
+    /**
+     * Initializes the NonBlockingFiniteStateMachine with an already built
+     * MachineDefinition.
+     * <p>
+     * @param definition
+     */
+    public void setup(MachineDefinition definition)
+    {
+        this.definition = definition;
+        this.context = definition.hasSlots() ? new MachineContext(definition) : MachineContext.EMPTY;
+        snapshot.set(new Snapshot(definition.getStartState(), definition.getStartStateIndex(), null));
+    }
+
+    /**
+     * Gets the MachineDefinition this NonBlockingFiniteStateMachine runs.
+     * <p>
+     * @return definition
+     */
+    public MachineDefinition getDefinition()
+    {
+        return definition;
+    }
+
+    /**
+     * Gets the MachineContext holding the extended state.
+     * It is only to be read and written by the States, on the thread
+     * delivering Events.
+     * <p>
+     * @return context
+     * @see FiniteStateMachine#getContext()
+     */
+    public MachineContext getContext()
+    {
+        return context;
+    }
+
+    /**
+     * Queues an Event and, unless another thread is already delivering,
+     * delivers all queued Events.
+     * <p>
+     * @param event
+     * @throws StateMachineException if the NonBlockingFiniteStateMachine
+     * has not been set up, or as thrown by a State
+     * @see FiniteStateMachine#input(Event)
+     */
+    @Override
+    public void input(Event event) throws StateMachineException
+    {
+        if ( snapshot.get().state == null )
+        {
+            throw new StateMachineException("StateMachine " + name + " has not been set up");
+        }
+        pendingEvents.offer(event);
+        if ( workInProgress.getAndIncrement() != 0 )
+        {
+            return;
+        }
+
+        StateMachineException failure = null;
+        boolean drained = false;
+        try
+        {
+            int missed = 1;
+            do
+            {
+                Event pendingEvent;
+                while ( (pendingEvent = pendingEvents.poll()) != null )
+                {
+                    try
+                    {
+                        deliver(pendingEvent);
+                    }
+                    catch (StateMachineException e)
+                    {
+                        if ( failure == null )
+                        {
+                            failure = e;
+                        }
+                        else
+                        {
+                            failure.addSuppressed(e);
+                        }
+                    }
+                }
+                missed = workInProgress.addAndGet(-missed);
+            }
+            while ( missed != 0 );
+            drained = true;
+        }
+        finally
+        {
+            if ( ! drained )
+            {
+                // Releases the counter so the next call to input delivers what is still queued
+                workInProgress.set(0);
+            }
+        }
+
+        if ( failure != null )
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Gets the current State without blocking.
+     * <p>
+     * @return current State
+     */
+    @Override
+    public State getCurrentState()
+    {
+        return snapshot.get().state;
+    }
+
+    /**
+     * Adds a TransitionListener. It is told of transitions on the thread
+     * that drains the pending Events, one Event at a time. While none are
+     * added, telling them costs each transition a single null check.
+     * <p>
+     * @param transitionListener
+     * @see TransitionListener
+     */
+    @Override
+    public synchronized void addTransitionListener(TransitionListener transitionListener)
+    {
+        transitionListeners = TransitionListeners.add(transitionListeners, transitionListener);
+    }
+
+    /**
+     * Removes a TransitionListener.
+     * <p>
+     * @param transitionListener
+     */
+    @Override
+    public synchronized void removeTransitionListener(TransitionListener transitionListener)
+    {
+        transitionListeners = TransitionListeners.remove(transitionListeners, transitionListener);
+    }
+
+    /**
+     * Tests without blocking whether input of an Event would cause a
+     * transition from the current State, evaluating the Guards of a
+     * GuardedState. Events queued by other threads are not considered.
+     * <p>
+     * @param event
+     * @return true/false
+     */
+    @Override
+    public boolean accepts(Event event)
+    {
+        State currentState = snapshot.get().state;
+        if ( currentState == null )
+        {
+            return false;
+        }
+        
+        TransitionTable table = definition.getTransitionTable();
+        int stateIndex = table.indexOf(currentState);
+        if ( stateIndex == TransitionTable.REJECT )
+        {
+            return EventSet.inputEventsOf(currentState).contains(event);
+        }
+        int eventIndex = table.indexOf(event);
+        return eventIndex != TransitionTable.REJECT
+            && table.next(stateIndex, eventIndex, event) != TransitionTable.REJECT;
+    }
+
+    /**
+     * Gets the last input Event without blocking.
+     * <p>
+     * @return last Event input to this NonBlockingFiniteStateMachine
+     */
+    @Override
+    public Event getLatestEvent()
+    {
+        return snapshot.get().latestEvent;
+    }
+
+    /**
+     * Get all states that may be transitioned to.
+     * <p>
+     * @return states
+     */
+    @Override
+    public State[] getStates()
+    {
+        return definition.getStateSet().toArray();
+    }
+
+    /**
+     * Get all events accepted.
+     * <p>
+     * @return events
+     */
+    @Override
+    public Event[] getInputEvents()
+    {
+        return definition.getInputEventSet().toArray();
+    }
+
+    /**
+     * Gets all States as a read-only set without copying.
+     * <p>
+     * @return set of States
+     */
+    @Override
+    public StateSet getStateSet()
+    {
+        return definition.getStateSet();
+    }
+
+    /**
+     * Gets all Events accepted as a read-only set without copying.
+     * <p>
+     * @return set of Events
+     */
+    @Override
+    public EventSet getInputEventSet()
+    {
+        return definition.getInputEventSet();
+    }
+
+    /**
+     * Executes one state transition and publishes the resulting Snapshot.
+     * Only the thread holding the work-in-progress counter calls this.
+     * <p>
+     * @param event
+     * @throws StateMachineException
+     * @see FiniteStateMachine#input(Event)
+     */
+    private void deliver(Event event) throws StateMachineException
+    {
+        TransitionTable table = definition.getTransitionTable();
+        TransitionListener[] listeners = transitionListeners;
+        Snapshot current = snapshot.get();
+        State currentState = current.state;
+        int eventIndex = TransitionTable.REJECT;
+        int nextStateIndex;
+
+        if ( current.stateIndex == TransitionTable.REJECT )
+        {
+            Vector<Event> inputEvents = currentState.getInputEvents();
+            if ( inputEvents == null || ! inputEvents.contains(event) )
+            {
+                rejected(listeners, currentState, event);
+                return;
+            }
+            nextStateIndex = TransitionTable.DELEGATE;
+        }
+        else
+        {
+            eventIndex = table.indexOf(event);
+            if ( eventIndex == TransitionTable.REJECT )
+            {
+                rejected(listeners, currentState, event);
+                return;
+            }
+            nextStateIndex = table.next(current.stateIndex, eventIndex, event);
+            if ( nextStateIndex == TransitionTable.REJECT )
+            {
+                rejected(listeners, currentState, event);
+                return;
+            }
+        }
+
+        boolean onTable = current.stateIndex != TransitionTable.REJECT;
+        if ( onTable && currentState instanceof ActionState )
+        {
+            ActionState actionState = currentState.getThis();
+            switch ( actionState.onTransitionAction(event) )
+            {
+            case STAY:
+                snapshot.compareAndSet(current, new Snapshot(currentState, current.stateIndex, event));
+                return;
+            case ABORT:
+                rejected(listeners, currentState, event);
+                return;
+            case BRANCH:
+                nextStateIndex = table.branch(current.stateIndex, eventIndex);
+                if ( nextStateIndex == TransitionTable.REJECT )
+                {
+                    rejected(listeners, currentState, event);
+                    return;
+                }
+                break;
+            case RESTART:
+                if ( listeners != null )
+                {
+                    TransitionListeners.fireExit(listeners, this, currentState, event);
+                }
+                restart(current);
+                if ( listeners != null )
+                {
+                    TransitionListeners.fireTransition(listeners, this, currentState, definition.getStartState(), event);
+                }
+                return;
+            default:
+                break;
+            }
+        }
+
+        if ( listeners != null )
+        {
+            TransitionListeners.fireExit(listeners, this, currentState, event);
+        }
+        State nextState;
+        if ( nextStateIndex != TransitionTable.DELEGATE )
+        {
+            nextState = table.getState(nextStateIndex);
+        }
+        else if ( onTable )
+        {
+            nextState = StateDispatch.delegate(table, current.stateIndex, eventIndex, currentState, event, context);
+            nextStateIndex = table.indexOf(nextState);
+        }
+        else
+        {
+            nextState = StateDispatch.transitionOf(currentState, event, context);
+            nextStateIndex = table.indexOf(nextState);
+        }
+
+        // The State and Event are published together once the entry action returns.
+        // If a concurrent setup has replaced the Snapshot the transition is dropped.
+        if ( onTable && nextState instanceof ActionState )
+        {
+            ActionState actionState = nextState.getThis();
+            switch ( actionState.onEntryAction(event) )
+            {
+            case ABORT:
+                rejected(listeners, currentState, event);
+                return;
+            case RESTART:
+                restart(current);
+                if ( listeners != null )
+                {
+                    TransitionListeners.fireTransition(listeners, this, currentState, definition.getStartState(), event);
+                }
+                return;
+            default:
+                break;
+            }
+            if ( listeners != null )
+            {
+                TransitionListeners.fireTransition(listeners, this, currentState, nextState, event);
+            }
+        }
+        else
+        {
+            if ( listeners != null )
+            {
+                TransitionListeners.fireTransition(listeners, this, currentState, nextState, event);
+            }
+            try
+            {
+                StateDispatch.enter(nextState, event, context);
+            }
+            catch (StateMachineException e)
+            {
+                snapshot.compareAndSet(current, new Snapshot(nextState, nextStateIndex, current.latestEvent));
+                throw e;
+            }
+        }
+        snapshot.compareAndSet(current, new Snapshot(nextState, nextStateIndex, event));
+        if ( listeners != null )
+        {
+            TransitionListeners.fireEnter(listeners, this, nextState, event);
+        }
+    }
+
+    /**
+     * Publishes the start State of the definition with no latest Event,
+     * without running any entry action, unless a concurrent setup has
+     * replaced the Snapshot.
+     * <p>
+     * @param current Snapshot being replaced
+     * @see ActionResult#RESTART
+     */
+    private void restart(Snapshot current)
+    {
+        MachineDefinition definition = this.definition;
+        snapshot.compareAndSet(current, new Snapshot(definition.getStartState(), definition.getStartStateIndex(), null));
+    }
+
+    private void rejected(TransitionListener[] listeners, State currentState, Event event)
+    {
+        if ( listeners != null )
+        {
+            TransitionListeners.fireRejected(listeners, this, currentState, event);
+        }
+    }
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((name == null) ? 0 : name.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (!(obj instanceof NonBlockingFiniteStateMachine))
+        {
+            return false;
+        }
+        NonBlockingFiniteStateMachine other = (NonBlockingFiniteStateMachine) obj;
+        if (name == null)
+        {
+            if (other.name != null)
+            {
+                return false;
+            }
+        }
+        else if (!name.equals(other.name))
+        {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getName();
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An OrthogonalState is made of independent regions, each a StateMachine
+ * with its own current State. While it is the current State, an Event is
+ * input to every region that accepts it, so one Event may move several
+ * regions at once.
+ * <p>
+ * An OrthogonalState accepts the Events of all its regions, which stay
+ * in it, and the exit Events added with addExit, which leave it for
+ * another State without being input to the regions.
+ * <p>
+ * Given a ForkJoinPool, the regions an Event is input to run
+ * concurrently, which pays off when their onTransition work is heavy.
+ * onTransition returns only once every region is done, so the next Event
+ * sees all regions settled. Each region must then be safe to run on a
+ * pool thread; a FiniteStateMachine is. A ForkJoinPool is not serialized;
+ * a deserialized OrthogonalState that had one runs its regions on the
+ * common pool.
+ * <p>
+ * The regions keep their current States when the OrthogonalState is
+ * left and entered again. Since it holds the regions of one machine, an
+ * OrthogonalState should not be shared by several machines.
+ * <p>
+ * @see StateMachine
+ * @see FiniteStateMachine
+ */
+public class OrthogonalState extends AbstractCompactState {
+
+    private static final long serialVersionUID = 6118270513402216873L;
+
+    /**
+     * Inputs an Event to one region on a pool thread, keeping any
+     * StateMachineException for the joining thread.
+     */
+    private static final class RegionInput extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final StateMachine region;
+        private final Event event;
+        private StateMachineException failure = null;
+
+        RegionInput(StateMachine region, Event event) {
+            this.region = region;
+            this.event = event;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                region.input(event);
+            } catch (StateMachineException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private final StateMachine[] regions;
+    private final boolean concurrent;
+    private transient ForkJoinPool pool;
+    private final Map<Event, State> exits = new LinkedHashMap<Event, State>();
+    private EventSet inputEvents = EventSet.EMPTY;
+    private StateSet transitionStates = StateSet.EMPTY;
+
+    /**
+     * Makes an OrthogonalState whose regions run one after another on the
+     * thread inputting the Event. Each region must already be set up.
+     * <p>
+     * @param name
+     * @param regions
+     */
+    public OrthogonalState(String name, StateMachine... regions) {
+        this(name, null, regions);
+    }
+
+    /**
+     * Makes an OrthogonalState whose regions run concurrently using the
+     * ForkJoinPool. Each region must already be set up.
+     * <p>
+     * @param name
+     * @param pool or null to run the regions one after another
+     * @param regions
+     */
+    public OrthogonalState(String name, ForkJoinPool pool, StateMachine... regions) {
+        super(name);
+        this.regions = regions.clone();
+        this.pool = pool;
+        this.concurrent = pool != null;
+    }
+
+    /**
+     * Adds a transition out of the OrthogonalState. It must be added
+     * before the OrthogonalState is set up in a StateMachine.
+     * <p>
+     * @param event
+     * @param nextState
+     */
+    public void addExit(Event event, State nextState) {
+        exits.put(event, nextState);
+    }
+
+    /**
+     * Gets the number of regions.
+     * <p>
+     * @return number of regions
+     */
+    public int getRegionCount() {
+        return regions.length;
+    }
+
+    /**
+     * Gets a region.
+     * <p>
+     * @param index
+     * @return region
+     */
+    public StateMachine getRegion(int index) {
+        return regions[index];
+    }
+
+    /**
+     * Collects the Events of all regions and the exit Events.
+     */
+    @Override
+    public void init() {
+        Set<Event> events = new LinkedHashSet<Event>();
+        for (StateMachine region : regions) {
+            EventSet regionEvents = region.getInputEventSet();
+            for (int index = 0; index < regionEvents.size(); index++) {
+                events.add(regionEvents.get(index));
+            }
+        }
+        events.addAll(exits.keySet());
+        inputEvents = EventSet.copyOf(events);
+        transitionStates = StateSet.copyOf(exits.values());
+    }
+
+    /**
+     * Returns the exit State for an exit Event. Otherwise inputs the
+     * Event to every region whose current State accepts it, waits for them all and
+     * returns this State.
+     * <p>
+     * If regions throw, every region has still been given the Event and
+     * the first StateMachineException is thrown with the others added to
+     * it as suppressed.
+     * <p>
+     * @param event
+     * @return next State
+     * @throws StateMachineException
+     */
+    @Override
+    public State onTransition(Event event) throws StateMachineException {
+        State exit = exits.get(event);
+        if (exit != null) {
+            return exit;
+        }
+
+        List<StateMachine> accepting = new ArrayList<StateMachine>(regions.length);
+        for (StateMachine region : regions) {
+            if (region.accepts(event)) {
+                accepting.add(region);
+            }
+        }
+
+        if (pool == null || accepting.size() < 2) {
+            inputSequentially(accepting, event);
+        } else {
+            inputConcurrently(accepting, event);
+        }
+        return this;
+    }
+
+    private void inputSequentially(List<StateMachine> accepting, Event event) throws StateMachineException {
+        StateMachineException failure = null;
+        for (StateMachine region : accepting) {
+            try {
+                region.input(event);
+            } catch (StateMachineException e) {
+                failure = addFailure(failure, e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Runs all but the last accepting region on the pool and the last one
+     * on this thread, then joins the others. Every region is joined
+     * before anything is thrown.
+     */
+    private void inputConcurrently(List<StateMachine> accepting, Event event) throws StateMachineException {
+        int forkedCount = accepting.size() - 1;
+        List<RegionInput> tasks = new ArrayList<RegionInput>(forkedCount);
+        for (int index = 0; index < forkedCount; index++) {
+            RegionInput task = new RegionInput(accepting.get(index), event);
+            pool.execute(task);
+            tasks.add(task);
+        }
+
+        StateMachineException failure = null;
+        Throwable unexpected = null;
+        try {
+            accepting.get(forkedCount).input(event);
+        } catch (StateMachineException e) {
+            failure = e;
+        } catch (RuntimeException | Error e) {
+            unexpected = e;
+        }
+
+        for (RegionInput task : tasks) {
+            try {
+                task.join();
+            } catch (RuntimeException | Error e) {
+                if (unexpected == null) {
+                    unexpected = e;
+                } else {
+                    unexpected.addSuppressed(e);
+                }
+                continue;
+            }
+            if (task.failure != null) {
+                failure = addFailure(failure, task.failure);
+            }
+        }
+
+        if (unexpected instanceof RuntimeException) {
+            throw (RuntimeException) unexpected;
+        }
+        if (unexpected instanceof Error) {
+            throw (Error) unexpected;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static StateMachineException addFailure(StateMachineException failure, StateMachineException e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+    @Override
+    public EventSet getInputEventSet() {
+        return inputEvents;
+    }
+
+    @Override
+    public StateSet getTransitionStateSet() {
+        return transitionStates;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        pool = concurrent ? ForkJoinPool.commonPool() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public OrthogonalState getThis() {
+        return this;
+    }
+}
@@ -40,6 +40,29 @@ public interface State {
     
     <S extends State> S getThis();
     
+    /**
+     * Gets the small int id the IdentityRegistry assigns to this State.
+     * Equal States have the same id.
+     * <p>
+     * @return id
+     * @see IdentityRegistry
+     */
+    default int id() {
+
+        return IdentityRegistry.idOf(this);
+    }
+    
+    /**
+     * Gets the id of this State if it has one, without registering it.
+     * <p>
+     * @return id or IdentityRegistry.NO_ID
+     * @see IdentityRegistry#peekId(State)
+     */
+    default int peekId() {
+
+        return IdentityRegistry.peekId(this);
+    }
+    
     void init();
 
     void onEntry(Event event) throws StateMachineException;
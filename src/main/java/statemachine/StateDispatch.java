@@ -0,0 +1,117 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+/**
+ * The calls a StateMachine running from a TransitionTable makes on its
+ * States, shared so that FiniteStateMachine and
+ * NonBlockingFiniteStateMachine treat a ContextState and a PureState
+ * the same way.
+ * <p>
+ * @see FiniteStateMachine
+ * @see NonBlockingFiniteStateMachine
+ * @see MachineArena
+ */
+final class StateDispatch
+{
+    private StateDispatch()
+    {
+    }
+
+    /**
+     * Calls onTransition of a State, passing the MachineContext to a
+     * ContextState.
+     * <p>
+     * @param state
+     * @param event
+     * @param context of the StateMachine
+     * @return next State
+     * @throws StateMachineException
+     */
+    static State transitionOf(State state, Event event, MachineContext context) throws StateMachineException
+    {
+        if ( state instanceof ContextState )
+        {
+            ContextState contextState = state.getThis();
+            return contextState.onTransition(event, context);
+        }
+        return state.onTransition(event);
+    }
+
+    /**
+     * Gets the next State for a DELEGATE entry of the TransitionTable.
+     * For a PureState the next State is taken from the TransitionTable
+     * once it has been remembered there.
+     * <p>
+     * @param transitionTable
+     * @param stateIndex of the current State
+     * @param eventIndex
+     * @param state current State
+     * @param event
+     * @param context of the StateMachine
+     * @return next State
+     * @throws StateMachineException
+     * @see PureState
+     */
+    static State delegate(TransitionTable transitionTable, int stateIndex, int eventIndex,
+                          State state, Event event, MachineContext context) throws StateMachineException
+    {
+        int memoizedIndex = transitionTable.memoized(stateIndex, eventIndex);
+        if ( memoizedIndex != TransitionTable.REJECT )
+        {
+            return transitionTable.getState(memoizedIndex);
+        }
+
+        State nextState = transitionOf(state, event, context);
+        if ( state instanceof PureState )
+        {
+            transitionTable.memoize(stateIndex, eventIndex, transitionTable.indexOf(nextState));
+        }
+        return nextState;
+    }
+
+    /**
+     * Calls onEntry of a State, passing the MachineContext to a
+     * ContextState.
+     * <p>
+     * @param state
+     * @param event
+     * @param context of the StateMachine
+     * @throws StateMachineException
+     */
+    static void enter(State state, Event event, MachineContext context) throws StateMachineException
+    {
+        if ( state instanceof ContextState )
+        {
+            ContextState contextState = state.getThis();
+            contextState.onEntry(event, context);
+        }
+        else
+        {
+            state.onEntry(event);
+        }
+    }
+}
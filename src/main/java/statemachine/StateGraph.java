@@ -0,0 +1,324 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A StateGraph holds all States reachable from a start State and all
+ * Events accepted by those States.
+ * Beginning with the startState, it obtains the State transitions and
+ * the associated Events from each State. The process is repeated until
+ * no new States or Events are found. Each State found has its init
+ * method called once. The parent State and initial substate of a
+ * HierarchicalState are found the same way as its transition States.
+ * <p>
+ * The graph is walked with an explicit stack rather than by recursion,
+ * so the depth of the graph is not limited by the thread's stack.
+ * Given a ForkJoinPool, the States are first initialized in parallel
+ * and then walked; init may then be called on several States at once.
+ * <p>
+ * States and Events are kept in the order they are found, which is the
+ * same whether or not a ForkJoinPool is used, so the indices of a
+ * TransitionTable compiled from a StateGraph are stable.
+ * <p>
+ * @see MachineDefinition
+ * @see TransitionTable
+ */
+final class StateGraph
+{
+    /**
+     * The position reached in the successor States of one State.
+     */
+    private static final class Cursor
+    {
+        private final StateSet states;
+        private int index = 0;
+
+        Cursor(StateSet states)
+        {
+            this.states = states;
+        }
+    }
+
+    private final Set<Event> setOfInputEvents = new LinkedHashSet<Event>();
+    private final Set<State> setOfStates = new LinkedHashSet<State>();
+    private final Set<State> alreadyInitialized;
+
+    // Filled in by initialize when a ForkJoinPool is used, otherwise null
+    private Map<State, StateSet> initializedSuccessors = null;
+    private Map<State, EventSet> initializedInputEvents = null;
+
+    StateGraph(State startState)
+    {
+        this.alreadyInitialized = Collections.emptySet();
+        walk(startState);
+    }
+
+    StateGraph(State startState, ForkJoinPool pool)
+    {
+        this.alreadyInitialized = Collections.emptySet();
+        initialize(startState, pool);
+        walk(startState);
+    }
+
+    /**
+     * Walks the graph without calling init on the States in
+     * alreadyInitialized.
+     * <p>
+     * @param startState
+     * @param alreadyInitialized
+     */
+    StateGraph(State startState, Set<State> alreadyInitialized)
+    {
+        this.alreadyInitialized = alreadyInitialized;
+        walk(startState);
+    }
+
+    State[] getStates()
+    {
+        return setOfStates.toArray(new State[setOfStates.size()]);
+    }
+
+    Event[] getInputEvents()
+    {
+        return setOfInputEvents.toArray(new Event[setOfInputEvents.size()]);
+    }
+
+    /**
+     * Visits every State reachable from startState, depth first, in the
+     * order the successor States are given.
+     * <p>
+     * @param startState
+     */
+    private void walk(State startState)
+    {
+        Deque<Cursor> stack = new ArrayDeque<Cursor>();
+        addState(startState);
+        stack.push(new Cursor(successorsOf(startState)));
+
+        while ( ! stack.isEmpty() )
+        {
+            Cursor cursor = stack.peek();
+            if ( cursor.index == cursor.states.size() )
+            {
+                stack.pop();
+                continue;
+            }
+
+            State successorState = cursor.states.get(cursor.index++);
+            if ( addState(successorState) )
+            {
+                stack.push(new Cursor(successorsOf(successorState)));
+            }
+        }
+    }
+
+    /**
+     * Adds a new State to the Set of transition States
+     * and calls the State's init method, unless it has been
+     * initialized already.
+     * <p>
+     * It also adds all of the State's transition Events
+     * to the Set of transition Events.
+     * <p>
+     * Returns true if the State was added, false if the State was already present.
+     * @param state
+     * @return true/false
+     */
+    private boolean addState(State state)
+    {
+        if ( setOfStates.contains(state) )
+        {
+            return false;
+        }
+        
+        EventSet inputEvents;
+        if ( initializedInputEvents != null )
+        {
+            inputEvents = initializedInputEvents.get(state);
+        }
+        else
+        {
+            if ( ! alreadyInitialized.contains(state) )
+            {
+                state.init();
+            }
+            inputEvents = EventSet.inputEventsOf(state);
+        }
+        setOfStates.add(state);
+        
+        for ( int index = 0; index < inputEvents.size(); index++ )
+        {
+            setOfInputEvents.add(inputEvents.get(index));
+        }
+        
+        return true;
+    }
+
+    private StateSet successorsOf(State state)
+    {
+        if ( initializedSuccessors != null )
+        {
+            return initializedSuccessors.get(state);
+        }
+        return neighboursOf(state);
+    }
+
+    /**
+     * Gets the States found from state: its transition States and, for a
+     * HierarchicalState, its parent State and initial substate.
+     * <p>
+     * @param state
+     * @return set of States
+     */
+    private static StateSet neighboursOf(State state)
+    {
+        StateSet transitionStates = StateSet.transitionStatesOf(state);
+        if ( ! (state instanceof HierarchicalState) )
+        {
+            return transitionStates;
+        }
+
+        HierarchicalState hierarchicalState = state.getThis();
+        State parentState = hierarchicalState.getParentState();
+        State initialSubstate = hierarchicalState.getInitialSubstate();
+        if ( parentState == null && initialSubstate == null )
+        {
+            return transitionStates;
+        }
+        
+        State[] states = new State[transitionStates.size() + 2];
+        int count = 0;
+        for ( int index = 0; index < transitionStates.size(); index++ )
+        {
+            states[count++] = transitionStates.get(index);
+        }
+        if ( parentState != null )
+        {
+            states[count++] = parentState;
+        }
+        if ( initialSubstate != null )
+        {
+            states[count++] = initialSubstate;
+        }
+        return StateSet.of(Arrays.copyOf(states, count));
+    }
+
+    /**
+     * Calls init on every State reachable from startState using the
+     * ForkJoinPool and records the input Events and successor States of
+     * each. A task is submitted for each newly seen State; tasks never
+     * wait on each other, so the depth of the graph does not matter.
+     * <p>
+     * @param startState
+     * @param pool
+     */
+    private void initialize(State startState, final ForkJoinPool pool)
+    {
+        final Map<State, StateSet> successors = new ConcurrentHashMap<State, StateSet>();
+        final Map<State, EventSet> inputEvents = new ConcurrentHashMap<State, EventSet>();
+        final Set<State> visited = ConcurrentHashMap.newKeySet();
+        final AtomicInteger pending = new AtomicInteger(1);
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+        class InitTask implements Runnable
+        {
+            private final State state;
+
+            InitTask(State state)
+            {
+                this.state = state;
+            }
+
+            @Override
+            public void run()
+            {
+                try
+                {
+                    state.init();
+                    StateSet successorStates = neighboursOf(state);
+                    inputEvents.put(state, EventSet.inputEventsOf(state));
+                    successors.put(state, successorStates);
+
+                    for ( int index = 0; index < successorStates.size(); index++ )
+                    {
+                        State successorState = successorStates.get(index);
+                        if ( visited.add(successorState) )
+                        {
+                            pending.incrementAndGet();
+                            pool.execute(new InitTask(successorState));
+                        }
+                    }
+                }
+                catch (Throwable e)
+                {
+                    done.completeExceptionally(e);
+                    return;
+                }
+
+                if ( pending.decrementAndGet() == 0 )
+                {
+                    done.complete(null);
+                }
+            }
+        }
+
+        visited.add(startState);
+        pool.execute(new InitTask(startState));
+        try
+        {
+            done.join();
+        }
+        catch (CompletionException e)
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+
+        initializedSuccessors = successors;
+        initializedInputEvents = inputEvents;
+    }
+}
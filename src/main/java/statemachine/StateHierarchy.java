@@ -0,0 +1,342 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.Serializable;
+
+/**
+ * A StateHierarchy is the compiled form of a MachineDefinition whose
+ * States are HierarchicalStates. It adds to the TransitionTable of the
+ * definition:
+ * <p>
+ * - for each State and Event, the index of the State that handles the
+ * Event: the State itself if it accepts the Event, otherwise its nearest
+ * parent that does
+ * <p>
+ * - for each State a HierarchicalStateMachine may rest in and each State
+ * it may transition to, the States exited and entered, in order
+ * <p>
+ * So an Event input to a deeply nested State costs a few array lookups
+ * and the onExit and onEntry calls, rather than a walk of the tree.
+ * <p>
+ * The exits and entries between a current State and a next State are
+ * found from the lowest common parent: the lowest parent of the next
+ * State that is also the current State or one of its parents. All States
+ * from the current State up to it are exited and all States from it down
+ * to the next State are entered. A transition from a State to itself or
+ * to one of its parents therefore exits and re-enters that State. If the
+ * next State has an initial substate the path continues down to the
+ * State that is finally entered.
+ * <p>
+ * The paths take memory proportional to the number of resting States
+ * times the number of States, so a StateHierarchy suits machines of up
+ * to some hundreds of States.
+ * <p>
+ * @see HierarchicalState
+ * @see HierarchicalStateMachine
+ */
+public final class StateHierarchy implements Serializable
+{
+    private static final long serialVersionUID = 5507963162375215140L;
+
+    /**
+     * A StateHierarchy with no States, used by a HierarchicalStateMachine
+     * before setup.
+     */
+    public static final StateHierarchy EMPTY = new StateHierarchy(MachineDefinition.EMPTY);
+
+    private final MachineDefinition definition;
+    private final int startStateIndex;
+    
+    // Index of the parent State, or REJECT
+    private final int[] parents;
+    
+    // Index of the State finally entered when entering a State
+    private final int[] restingStates;
+    
+    // [stateIndex * eventCount + eventIndex] -> index of the handling State, or REJECT
+    private final int[] handlers;
+    
+    // [restingIndex * stateCount + nextIndex] -> { exitCount, exits..., entries... }
+    private final int[][] paths;
+
+    /**
+     * Compiles the hierarchy of the States of a definition.
+     * <p>
+     * @param definition
+     * @throws IllegalStateException if the parents of a State form a
+     * cycle, or a parent or initial substate is not in the definition, or
+     * an initial substate is not nested in its State
+     */
+    public StateHierarchy(MachineDefinition definition)
+    {
+        TransitionTable transitionTable = definition.getTransitionTable();
+        int stateCount = transitionTable.getStateCount();
+        
+        this.definition = definition;
+        this.parents = new int[stateCount];
+        this.restingStates = new int[stateCount];
+        this.handlers = new int[stateCount * transitionTable.getEventCount()];
+        this.paths = new int[stateCount * stateCount][];
+        
+        for ( int stateIndex = 0; stateIndex < stateCount; stateIndex++ )
+        {
+            parents[stateIndex] = parentOf(transitionTable, stateIndex);
+        }
+        int[][] chains = new int[stateCount][];
+        for ( int stateIndex = 0; stateIndex < stateCount; stateIndex++ )
+        {
+            chains[stateIndex] = chainOf(transitionTable, stateIndex);
+        }
+        for ( int stateIndex = 0; stateIndex < stateCount; stateIndex++ )
+        {
+            restingStates[stateIndex] = restingStateOf(transitionTable, stateIndex);
+            compileHandlers(transitionTable, chains[stateIndex]);
+        }
+        for ( int stateIndex = 0; stateIndex < stateCount; stateIndex++ )
+        {
+            if ( restingStates[stateIndex] == stateIndex )
+            {
+                for ( int nextStateIndex = 0; nextStateIndex < stateCount; nextStateIndex++ )
+                {
+                    paths[stateIndex * stateCount + nextStateIndex] = compilePath(chains, stateIndex, nextStateIndex);
+                }
+            }
+        }
+        
+        int definitionStartIndex = definition.getStartStateIndex();
+        this.startStateIndex = definitionStartIndex != TransitionTable.REJECT
+                             ? restingStates[definitionStartIndex] : TransitionTable.REJECT;
+    }
+
+    /**
+     * Builds the MachineDefinition of all States reachable from startState,
+     * including parents and initial substates, and compiles its hierarchy.
+     * <p>
+     * @param startState
+     * @return stateHierarchy
+     */
+    public static StateHierarchy build(State startState)
+    {
+        return new StateHierarchy(MachineDefinition.build(startState));
+    }
+
+    /**
+     * Gets the definition this hierarchy was compiled from.
+     * <p>
+     * @return definition
+     */
+    public MachineDefinition getDefinition()
+    {
+        return definition;
+    }
+
+    /**
+     * Gets the index of the State a HierarchicalStateMachine starts in:
+     * the start State of the definition or, following initial substates,
+     * the State finally entered from it.
+     * <p>
+     * @return startStateIndex
+     */
+    public int getStartStateIndex()
+    {
+        return startStateIndex;
+    }
+
+    /**
+     * Gets the index of the parent of a State.
+     * <p>
+     * @param stateIndex
+     * @return index of the parent or REJECT for a top level State
+     */
+    public int getParentIndex(int stateIndex)
+    {
+        return parents[stateIndex];
+    }
+
+    /**
+     * Gets the index of the State that handles an Event in a State.
+     * <p>
+     * @param stateIndex
+     * @param eventIndex
+     * @return index of the State itself or of one of its parents, or REJECT
+     */
+    public int handlerOf(int stateIndex, int eventIndex)
+    {
+        return handlers[stateIndex * definition.getTransitionTable().getEventCount() + eventIndex];
+    }
+
+    /**
+     * Gets the States exited and entered by a transition. The first
+     * element is the number of States exited. The indices of the States
+     * exited follow, innermost first, then the indices of the States
+     * entered, outermost first. The last State entered is the new current
+     * State.
+     * <p>
+     * @param stateIndex of a State a HierarchicalStateMachine rests in
+     * @param nextStateIndex
+     * @return path, which must not be modified
+     */
+    public int[] pathOf(int stateIndex, int nextStateIndex)
+    {
+        return paths[stateIndex * parents.length + nextStateIndex];
+    }
+
+    private static int parentOf(TransitionTable transitionTable, int stateIndex)
+    {
+        State state = transitionTable.getState(stateIndex);
+        if ( ! (state instanceof HierarchicalState) )
+        {
+            return TransitionTable.REJECT;
+        }
+        
+        HierarchicalState hierarchicalState = state.getThis();
+        State parentState = hierarchicalState.getParentState();
+        if ( parentState == null )
+        {
+            return TransitionTable.REJECT;
+        }
+        
+        int parentIndex = transitionTable.indexOf(parentState);
+        if ( parentIndex == TransitionTable.REJECT )
+        {
+            throw new IllegalStateException("Parent " + parentState + " of State " + state + " is unknown");
+        }
+        return parentIndex;
+    }
+
+    /**
+     * Gets a State followed by its parents, innermost first.
+     */
+    private int[] chainOf(TransitionTable transitionTable, int stateIndex)
+    {
+        int length = 1;
+        for ( int index = parents[stateIndex]; index != TransitionTable.REJECT; index = parents[index] )
+        {
+            if ( length++ > parents.length )
+            {
+                throw new IllegalStateException("Parents of State " + transitionTable.getState(stateIndex)
+                                                + " form a cycle");
+            }
+        }
+        
+        int[] chain = new int[length];
+        int index = stateIndex;
+        for ( int position = 0; position < length; position++ )
+        {
+            chain[position] = index;
+            index = parents[index];
+        }
+        return chain;
+    }
+
+    private int restingStateOf(TransitionTable transitionTable, int stateIndex)
+    {
+        int index = stateIndex;
+        while ( transitionTable.getState(index) instanceof HierarchicalState )
+        {
+            HierarchicalState hierarchicalState = transitionTable.getState(index).getThis();
+            State initialSubstate = hierarchicalState.getInitialSubstate();
+            if ( initialSubstate == null )
+            {
+                break;
+            }
+            
+            int substateIndex = transitionTable.indexOf(initialSubstate);
+            if ( substateIndex == TransitionTable.REJECT || parents[substateIndex] != index )
+            {
+                throw new IllegalStateException("Initial substate " + initialSubstate + " of State "
+                                                + hierarchicalState + " is not nested in it");
+            }
+            index = substateIndex;
+        }
+        return index;
+    }
+
+    private void compileHandlers(TransitionTable transitionTable, int[] chain)
+    {
+        int eventCount = transitionTable.getEventCount();
+        int row = chain[0] * eventCount;
+        for ( int eventIndex = 0; eventIndex < eventCount; eventIndex++ )
+        {
+            int handler = TransitionTable.REJECT;
+            for ( int position = 0; position < chain.length; position++ )
+            {
+                if ( transitionTable.next(chain[position], eventIndex) != TransitionTable.REJECT )
+                {
+                    handler = chain[position];
+                    break;
+                }
+            }
+            handlers[row + eventIndex] = handler;
+        }
+    }
+
+    private int[] compilePath(int[][] chains, int stateIndex, int nextStateIndex)
+    {
+        int[] chain = chains[stateIndex];
+        int[] nextChain = chains[nextStateIndex];
+        int[] descent = chains[restingStates[nextStateIndex]];
+        
+        // Lowest parent of the next State that is the current State or one of its parents
+        int exitCount = chain.length;
+        int entryCount = nextChain.length;
+        for ( int position = 1; position < nextChain.length; position++ )
+        {
+            int offset = chain.length - nextChain.length + position;
+            if ( offset >= 0 && chain[offset] == nextChain[position] )
+            {
+                exitCount = offset;
+                entryCount = position;
+                break;
+            }
+        }
+        
+        int descentCount = descent.length - nextChain.length;
+        int[] path = new int[1 + exitCount + entryCount + descentCount];
+        int count = 0;
+        path[count++] = exitCount;
+        for ( int position = 0; position < exitCount; position++ )
+        {
+            path[count++] = chain[position];
+        }
+        for ( int position = entryCount - 1; position >= 0; position-- )
+        {
+            path[count++] = nextChain[position];
+        }
+        for ( int position = descentCount - 1; position >= 0; position-- )
+        {
+            path[count++] = descent[position];
+        }
+        return path;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StateHierarchy(" + definition + ")";
+    }
+}
@@ -25,6 +25,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package statemachine;
 
+import java.util.List;
 
 /**
  * A StateMachine passes Events to the current State and
@@ -43,6 +44,69 @@ public interface StateMachine
 
     void input(Event event) throws StateMachineException;
 
+    /**
+     * Inputs a run of Events, from index from up to but not including
+     * index to, and returns the number of Events the current State
+     * accepted along with the final State.
+     * <p>
+     * The default inputs the Events one at a time, checking each one
+     * with accepts first. An implementation should override it to
+     * handle the whole run under one acquisition of its lock.
+     * <p>
+     * @param events
+     * @param from
+     * @param to
+     * @return number of Events applied and the final State
+     * @throws StateMachineException
+     */
+    default InputResult input(Event[] events, int from, int to) throws StateMachineException
+    {
+        int appliedCount = 0;
+        for ( int index = from; index < to; index++ )
+        {
+            Event event = events[index];
+            boolean accepted = accepts(event);
+            input(event);
+            if ( accepted )
+            {
+                appliedCount++;
+            }
+        }
+        return new InputResult(appliedCount, getCurrentState());
+    }
+
+    /**
+     * Inputs a List of Events as input(Event[], int, int) does.
+     * <p>
+     * @param events
+     * @return number of Events applied and the final State
+     * @throws StateMachineException
+     */
+    default InputResult input(List<? extends Event> events) throws StateMachineException
+    {
+        Event[] array = events.toArray(new Event[events.size()]);
+        return input(array, 0, array.length);
+    }
+
+    /**
+     * Tests whether input of an Event would cause a transition now.
+     * It does not call onTransition, but it does evaluate the Guards of
+     * a GuardedState.
+     * <p>
+     * The default tests whether the Event is one of the input Events of
+     * the current State, which is all that is known for a State whose
+     * onTransition chooses the next State.
+     * <p>
+     * @param event
+     * @return true/false
+     * @see GuardedState
+     */
+    default boolean accepts(Event event)
+    {
+        State currentState = getCurrentState();
+        return currentState != null && EventSet.inputEventsOf(currentState).contains(event);
+    }
+
     State getCurrentState();
 
     Event getLatestEvent();
@@ -51,4 +115,50 @@ public interface StateMachine
 
     Event[] getInputEvents();
     
+    /**
+     * Gets all States of the StateMachine as a read-only set.
+     * Unlike getStates, an implementation should return the same set on
+     * every call. The default copies getStates.
+     * <p>
+     * @return set of States
+     */
+    default StateSet getStateSet()
+    {
+        return StateSet.of(getStates());
+    }
+    
+    /**
+     * Gets all Events accepted by the StateMachine as a read-only set.
+     * Unlike getInputEvents, an implementation should return the same set
+     * on every call. The default copies getInputEvents.
+     * <p>
+     * @return set of Events
+     */
+    default EventSet getInputEventSet()
+    {
+        return EventSet.of(getInputEvents());
+    }
+    
+    /**
+     * Adds a TransitionListener that is told of every transition and
+     * rejected Event from then on. The default does nothing, so a
+     * StateMachine that does not tell TransitionListeners can still be
+     * added to a container that has some.
+     * <p>
+     * @param transitionListener
+     * @see TransitionListener
+     */
+    default void addTransitionListener(TransitionListener transitionListener)
+    {
+    }
+    
+    /**
+     * Removes a TransitionListener. The default does nothing.
+     * <p>
+     * @param transitionListener
+     */
+    default void removeTransitionListener(TransitionListener transitionListener)
+    {
+    }
+    
 }
\ No newline at end of file
@@ -52,6 +52,41 @@ public interface StateMachineContainer
     void removeStateMachine(StateMachine stateMachine);
     
     boolean deliverNextEvent() throws StateMachineException;
+    
+    /**
+     * Delivers up to maxEvents Events that go to the same StateMachine
+     * as one run. The default delivers a single Event.
+     * <p>
+     * @param maxEvents
+     * @return false if there were no Events to deliver
+     * @throws StateMachineException
+     * @see AbstractStateMachineContainer#deliverNextEvents(int)
+     */
+    default boolean deliverNextEvents(int maxEvents) throws StateMachineException
+    {
+        return deliverNextEvent();
+    }
+
+    /**
+     * Adds a TransitionListener to every StateMachine in the container,
+     * now and as they are added. The default does nothing.
+     * <p>
+     * @param transitionListener
+     * @see TransitionListener
+     */
+    default void addTransitionListener(TransitionListener transitionListener)
+    {
+    }
+
+    /**
+     * Removes a TransitionListener from every StateMachine in the
+     * container. The default does nothing.
+     * <p>
+     * @param transitionListener
+     */
+    default void removeTransitionListener(TransitionListener transitionListener)
+    {
+    }
 
     void addTrigger(TriggerHandle triggerHandle, Trigger trigger);
     
@@ -0,0 +1,205 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A StateSet is an immutable set of States.
+ * <p>
+ * Membership is held as a bitset keyed by the IdentityRegistry id of each
+ * State, so contains is a bit test. The States are also held in an array in
+ * the order they were given, so size and get allow iteration without
+ * allocating.
+ * <p>
+ * @see CompactState
+ * @see IdentityRegistry
+ */
+public final class StateSet implements Iterable<State>, Serializable
+{
+    private static final long serialVersionUID = -428160785720533049L;
+
+    public static final StateSet EMPTY = new StateSet(new State[0]);
+
+    private final State[] states;
+
+    // Keyed by IdentityRegistry id; rebuilt after deserialization since ids are per process
+    private transient long[] bits;
+
+    private StateSet(State[] states)
+    {
+        this.states = states;
+        indexIds();
+    }
+
+    /**
+     * Makes a StateSet of the given States. Duplicates are dropped.
+     * <p>
+     * @param states
+     * @return StateSet
+     */
+    public static StateSet of(State... states)
+    {
+        if ( states.length == 0 )
+        {
+            return EMPTY;
+        }
+
+        long[] seen = IdBits.EMPTY;
+        State[] distinct = new State[states.length];
+        int size = 0;
+        for ( State state : states )
+        {
+            int id = state.id();
+            if ( ! IdBits.contains(seen, id) )
+            {
+                seen = IdBits.add(seen, id);
+                distinct[size++] = state;
+            }
+        }
+        return new StateSet(Arrays.copyOf(distinct, size));
+    }
+
+    /**
+     * Makes a StateSet of the given States. A null Collection gives EMPTY.
+     * <p>
+     * @param states
+     * @return StateSet
+     */
+    public static StateSet copyOf(Collection<? extends State> states)
+    {
+        if ( states == null )
+        {
+            return EMPTY;
+        }
+        return of(states.toArray(new State[states.size()]));
+    }
+
+    /**
+     * Gets the transition States of a State.
+     * <p>
+     * A CompactState returns its own StateSet. For any other State the
+     * Vector it returns is copied into a new StateSet.
+     * <p>
+     * @param state
+     * @return StateSet
+     */
+    public static StateSet transitionStatesOf(State state)
+    {
+        if ( state instanceof CompactState )
+        {
+            CompactState compactState = state.getThis();
+            return compactState.getTransitionStateSet();
+        }
+        return copyOf(state.getTransitionStates());
+    }
+
+    /**
+     * Tests for a State by IdentityRegistry id.
+     * <p>
+     * @param id
+     * @return true/false
+     */
+    public boolean contains(int id)
+    {
+        return IdBits.contains(bits, id);
+    }
+
+    /**
+     * Tests for a State.
+     * <p>
+     * @param state
+     * @return true/false
+     */
+    public boolean contains(State state)
+    {
+        return state != null && contains(state.peekId());
+    }
+
+    /**
+     * Gets the number of States.
+     * <p>
+     * @return size
+     */
+    public int size()
+    {
+        return states.length;
+    }
+
+    /**
+     * Gets the State at the given position.
+     * <p>
+     * @param index
+     * @return State
+     */
+    public State get(int index)
+    {
+        return states[index];
+    }
+
+    /**
+     * Copies the States into a new array.
+     * <p>
+     * @return States
+     */
+    public State[] toArray()
+    {
+        return states.clone();
+    }
+
+    @Override
+    public Iterator<State> iterator()
+    {
+        return Arrays.asList(states).iterator();
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(states);
+    }
+
+    private void indexIds()
+    {
+        long[] words = IdBits.EMPTY;
+        for ( State state : states )
+        {
+            words = IdBits.add(words, state.id());
+        }
+        bits = words;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        indexIds();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A TransitionLayout is an order for the States and Events of a
+ * MachineDefinition, hottest first, and the hottest Event of each State.
+ * It is learned by a TransitionProfile and applied by
+ * MachineDefinition.withLayout.
+ * <p>
+ * States and Events are named rather than indexed, so a layout learned
+ * in one process can be written out and read back at the startup of
+ * another, and still applies to a definition that has gained or lost
+ * States or Events since.
+ * <p>
+ * @see TransitionProfile#toLayout()
+ * @see MachineDefinition#withLayout(TransitionLayout)
+ */
+public final class TransitionLayout implements Serializable
+{
+    private static final long serialVersionUID = -4721609254617353820L;
+    private static final int LAYOUT_VERSION = 1;
+
+    private final List<String> stateNames;
+    private final List<String> eventNames;
+    private final Map<String, String> hotEventNames;
+
+    /**
+     * Makes a TransitionLayout.
+     * <p>
+     * @param stateNames in the order wanted
+     * @param eventNames in the order wanted
+     * @param hotEventNames the hottest Event name of each State name
+     */
+    public TransitionLayout(List<String> stateNames, List<String> eventNames, Map<String, String> hotEventNames)
+    {
+        this.stateNames = Collections.unmodifiableList(new ArrayList<String>(stateNames));
+        this.eventNames = Collections.unmodifiableList(new ArrayList<String>(eventNames));
+        this.hotEventNames = Collections.unmodifiableMap(new LinkedHashMap<String, String>(hotEventNames));
+    }
+
+    public List<String> getStateNames()
+    {
+        return stateNames;
+    }
+
+    public List<String> getEventNames()
+    {
+        return eventNames;
+    }
+
+    /**
+     * Gets the name of the Event a State most often transitions on.
+     * <p>
+     * @param stateName
+     * @return event name, or null if the State never transitioned
+     */
+    public String getHotEventName(String stateName)
+    {
+        return hotEventNames.get(stateName);
+    }
+
+    /**
+     * Writes the layout as names.
+     * <p>
+     * @param out
+     * @throws IOException
+     * @see #read(DataInput)
+     */
+    public void write(DataOutput out) throws IOException
+    {
+        Varint.writeInt(out, LAYOUT_VERSION);
+        writeNames(out, stateNames);
+        writeNames(out, eventNames);
+        Varint.writeInt(out, hotEventNames.size());
+        for ( Map.Entry<String, String> entry : hotEventNames.entrySet() )
+        {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    /**
+     * Reads a layout written by write.
+     * <p>
+     * @param in
+     * @return transitionLayout
+     * @throws IOException
+     */
+    public static TransitionLayout read(DataInput in) throws IOException
+    {
+        int version = Varint.readInt(in);
+        if ( version != LAYOUT_VERSION )
+        {
+            throw new InvalidObjectException("Unknown layout version " + version);
+        }
+        List<String> stateNames = readNames(in);
+        List<String> eventNames = readNames(in);
+        int hotCount = Varint.readInt(in);
+        Map<String, String> hotEventNames = new LinkedHashMap<String, String>();
+        for ( int index = 0; index < hotCount; index++ )
+        {
+            hotEventNames.put(in.readUTF(), in.readUTF());
+        }
+        return new TransitionLayout(stateNames, eventNames, hotEventNames);
+    }
+
+    private static void writeNames(DataOutput out, List<String> names) throws IOException
+    {
+        Varint.writeInt(out, names.size());
+        for ( String name : names )
+        {
+            out.writeUTF(name);
+        }
+    }
+
+    private static List<String> readNames(DataInput in) throws IOException
+    {
+        int count = Varint.readInt(in);
+        List<String> names = new ArrayList<String>(count);
+        for ( int index = 0; index < count; index++ )
+        {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if ( this == obj )
+        {
+            return true;
+        }
+        if ( ! (obj instanceof TransitionLayout) )
+        {
+            return false;
+        }
+        TransitionLayout other = (TransitionLayout) obj;
+        return stateNames.equals(other.stateNames) && eventNames.equals(other.eventNames)
+            && hotEventNames.equals(other.hotEventNames);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (stateNames.hashCode() * 31 + eventNames.hashCode()) * 31 + hotEventNames.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TransitionLayout(" + stateNames + ", " + eventNames + ")";
+    }
+}
@@ -0,0 +1,95 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+/**
+ * A TransitionListener is told of the transitions of the StateMachines
+ * it is added to, for auditing or metrics, without wrapping their States.
+ * <p>
+ * States and Events are passed as their IdentityRegistry ids so telling
+ * a TransitionListener allocates nothing; IdentityRegistry.getState and
+ * IdentityRegistry.getEvent give them back. For each accepted Event the
+ * StateMachine calls onExit, then onTransition once the next State is
+ * current, then onEnter once its onEntry has returned. A StateMachine
+ * with nested States calls onExit and onEnter for each State it leaves
+ * and enters.
+ * <p>
+ * The methods are called on the thread that inputs the Event, holding
+ * whatever lock the StateMachine holds, so they should be quick. The
+ * defaults do nothing.
+ * <p>
+ * @see StateMachine#addTransitionListener(TransitionListener)
+ * @see IdentityRegistry
+ */
+public interface TransitionListener
+{
+    /**
+     * Called before a StateMachine leaves a State.
+     * <p>
+     * @param stateMachine
+     * @param stateId of the State left
+     * @param eventId of the Event causing the transition
+     */
+    default void onExit(StateMachine stateMachine, int stateId, int eventId)
+    {
+    }
+
+    /**
+     * Called once the next State is the current State.
+     * <p>
+     * @param stateMachine
+     * @param fromStateId
+     * @param toStateId
+     * @param eventId
+     */
+    default void onTransition(StateMachine stateMachine, int fromStateId, int toStateId, int eventId)
+    {
+    }
+
+    /**
+     * Called after onEntry of the State entered has returned.
+     * <p>
+     * @param stateMachine
+     * @param stateId of the State entered
+     * @param eventId
+     */
+    default void onEnter(StateMachine stateMachine, int stateId, int eventId)
+    {
+    }
+
+    /**
+     * Called when the current State does not accept an Event.
+     * An Event rejected is not registered for the call, so one that
+     * has never been registered is passed as IdentityRegistry.NO_ID.
+     * <p>
+     * @param stateMachine
+     * @param stateId of the current State
+     * @param eventId of the Event rejected or NO_ID
+     */
+    default void onRejected(StateMachine stateMachine, int stateId, int eventId)
+    {
+    }
+}
@@ -0,0 +1,138 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+/**
+ * Keeps the TransitionListeners of a StateMachine as an array that is
+ * replaced, never changed, on each add or remove. A StateMachine holds
+ * the array in a volatile field that is null while there are no
+ * TransitionListeners, so telling them costs one null check when there
+ * are none.
+ * <p>
+ * @see TransitionListener
+ */
+final class TransitionListeners
+{
+    private TransitionListeners()
+    {
+    }
+
+    /**
+     * Makes a copy of listeners with one more TransitionListener.
+     * <p>
+     * @param listeners or null
+     * @param listener
+     * @return new listeners
+     */
+    static TransitionListener[] add(TransitionListener[] listeners, TransitionListener listener)
+    {
+        if ( listener == null )
+        {
+            throw new NullPointerException("TransitionListener is null");
+        }
+        if ( listeners == null )
+        {
+            return new TransitionListener[] { listener };
+        }
+        TransitionListener[] added = new TransitionListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, added, 0, listeners.length);
+        added[listeners.length] = listener;
+        return added;
+    }
+
+    /**
+     * Makes a copy of listeners without the first occurrence of a
+     * TransitionListener.
+     * <p>
+     * @param listeners or null
+     * @param listener
+     * @return new listeners, or null if none are left
+     */
+    static TransitionListener[] remove(TransitionListener[] listeners, TransitionListener listener)
+    {
+        if ( listeners == null )
+        {
+            return null;
+        }
+        for ( int index = 0; index < listeners.length; index++ )
+        {
+            if ( listeners[index] == listener )
+            {
+                if ( listeners.length == 1 )
+                {
+                    return null;
+                }
+                TransitionListener[] removed = new TransitionListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, removed, 0, index);
+                System.arraycopy(listeners, index + 1, removed, index, removed.length - index);
+                return removed;
+            }
+        }
+        return listeners;
+    }
+
+    static void fireExit(TransitionListener[] listeners, StateMachine stateMachine, State state, Event event)
+    {
+        int stateId = state.id();
+        int eventId = event.id();
+        for ( TransitionListener listener : listeners )
+        {
+            listener.onExit(stateMachine, stateId, eventId);
+        }
+    }
+
+    static void fireTransition(TransitionListener[] listeners, StateMachine stateMachine,
+                               State fromState, State toState, Event event)
+    {
+        int fromStateId = fromState.id();
+        int toStateId = toState.id();
+        int eventId = event.id();
+        for ( TransitionListener listener : listeners )
+        {
+            listener.onTransition(stateMachine, fromStateId, toStateId, eventId);
+        }
+    }
+
+    static void fireEnter(TransitionListener[] listeners, StateMachine stateMachine, State state, Event event)
+    {
+        int stateId = state.id();
+        int eventId = event.id();
+        for ( TransitionListener listener : listeners )
+        {
+            listener.onEnter(stateMachine, stateId, eventId);
+        }
+    }
+
+    static void fireRejected(TransitionListener[] listeners, StateMachine stateMachine, State state, Event event)
+    {
+        int stateId = state != null ? state.id() : IdentityRegistry.NO_ID;
+        int eventId = event.peekId();
+        for ( TransitionListener listener : listeners )
+        {
+            listener.onRejected(stateMachine, stateId, eventId);
+        }
+    }
+}
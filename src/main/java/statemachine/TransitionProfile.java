@@ -0,0 +1,194 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A TransitionProfile counts the transitions of the FiniteStateMachines
+ * running one MachineDefinition, by State and Event pair, so that a
+ * TransitionLayout can be learned from them.
+ * <p>
+ * Counting is an unsynchronized increment of an array element, so a
+ * profile shared by FiniteStateMachines on different threads may miss
+ * some counts. The counts are meant for ranking, not accounting.
+ * <p>
+ * @see FiniteStateMachine#setTransitionProfile(TransitionProfile)
+ * @see TransitionLayout
+ */
+public final class TransitionProfile
+{
+    private final MachineDefinition definition;
+    private final long[] counts;
+
+    public TransitionProfile(MachineDefinition definition)
+    {
+        TransitionTable transitionTable = definition.getTransitionTable();
+        this.definition = definition;
+        this.counts = new long[transitionTable.getStateCount() * transitionTable.getEventCount()];
+    }
+
+    public MachineDefinition getDefinition()
+    {
+        return definition;
+    }
+
+    /**
+     * Counts a transition. Called by a FiniteStateMachine holding its
+     * monitor.
+     * <p>
+     * @param stateIndex
+     * @param eventIndex
+     */
+    void count(int stateIndex, int eventIndex)
+    {
+        counts[stateIndex * definition.getTransitionTable().getEventCount() + eventIndex]++;
+    }
+
+    /**
+     * Gets the number of transitions counted out of a State on an Event.
+     * <p>
+     * @param state
+     * @param event
+     * @return count, or 0 if either is not in the definition
+     */
+    public long getCount(State state, Event event)
+    {
+        TransitionTable transitionTable = definition.getTransitionTable();
+        int stateIndex = transitionTable.indexOf(state);
+        int eventIndex = transitionTable.indexOf(event);
+        if ( stateIndex == TransitionTable.REJECT || eventIndex == TransitionTable.REJECT )
+        {
+            return 0;
+        }
+        return counts[stateIndex * transitionTable.getEventCount() + eventIndex];
+    }
+
+    /**
+     * Gets the number of transitions counted.
+     * <p>
+     * @return count
+     */
+    public long getTotalCount()
+    {
+        long total = 0;
+        for ( long count : counts )
+        {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Clears the counts.
+     */
+    public void reset()
+    {
+        Arrays.fill(counts, 0);
+    }
+
+    /**
+     * Makes a TransitionLayout that orders States by the transitions out
+     * of them and Events by the transitions on them, hottest first, so
+     * the hottest pairs of a laid out TransitionTable are in its first
+     * rows and columns. States and Events that were never counted keep
+     * their order, after the counted ones. Each State that was counted
+     * gets its most frequent Event as its hot Event.
+     * <p>
+     * @return transitionLayout
+     */
+    public TransitionLayout toLayout()
+    {
+        TransitionTable transitionTable = definition.getTransitionTable();
+        int stateCount = transitionTable.getStateCount();
+        int eventCount = transitionTable.getEventCount();
+        final long[] stateTotals = new long[stateCount];
+        final long[] eventTotals = new long[eventCount];
+        Map<String, String> hotEventNames = new LinkedHashMap<String, String>();
+        for ( int stateIndex = 0; stateIndex < stateCount; stateIndex++ )
+        {
+            int hotEventIndex = TransitionTable.REJECT;
+            for ( int eventIndex = 0; eventIndex < eventCount; eventIndex++ )
+            {
+                long count = counts[stateIndex * eventCount + eventIndex];
+                stateTotals[stateIndex] += count;
+                eventTotals[eventIndex] += count;
+                if ( count > 0 && (hotEventIndex == TransitionTable.REJECT
+                                   || count > counts[stateIndex * eventCount + hotEventIndex]) )
+                {
+                    hotEventIndex = eventIndex;
+                }
+            }
+            if ( hotEventIndex != TransitionTable.REJECT )
+            {
+                hotEventNames.put(transitionTable.getState(stateIndex).getName(),
+                                  transitionTable.getEvent(hotEventIndex).getName());
+            }
+        }
+
+        List<String> stateNames = new ArrayList<String>(stateCount);
+        for ( Integer stateIndex : byTotal(stateTotals) )
+        {
+            stateNames.add(transitionTable.getState(stateIndex).getName());
+        }
+        List<String> eventNames = new ArrayList<String>(eventCount);
+        for ( Integer eventIndex : byTotal(eventTotals) )
+        {
+            eventNames.add(transitionTable.getEvent(eventIndex).getName());
+        }
+        return new TransitionLayout(stateNames, eventNames, hotEventNames);
+    }
+
+    // Indices by descending total; the sort is stable so ties keep their order
+    private static List<Integer> byTotal(final long[] totals)
+    {
+        List<Integer> indices = new ArrayList<Integer>(totals.length);
+        for ( int index = 0; index < totals.length; index++ )
+        {
+            indices.add(index);
+        }
+        indices.sort(new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer left, Integer right)
+            {
+                return Long.compare(totals[right], totals[left]);
+            }
+        });
+        return indices;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TransitionProfile(" + definition + ", " + getTotalCount() + " transitions)";
+    }
+}
@@ -0,0 +1,754 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A TransitionTable is the compiled form of the States and Events of a
+ * StateMachine. Each State and each Event is given an integer index and
+ * the table holds one entry for every State and Event pair.
+ * <p>
+ * An entry is one of:
+ * <p>
+ * REJECT --> the State does not accept the Event
+ * <p>
+ * DELEGATE --> the State accepts the Event and its onTransition method
+ * determines the next State
+ * <p>
+ * GUARDED --> the State has GuardedTransitions on the Event; the next
+ * State is the target of the first one whose Guard passes
+ * <p>
+ * any other value --> the index of the next State, compiled from a
+ * TableDrivenState or from a GuardedTransition without a Guard
+ * <p>
+ * Accepting or rejecting an Event is then an array lookup rather than
+ * a search of the Vector returned by State.getInputEvents.
+ * <p>
+ * The index of a State or Event is found from its IdentityRegistry id
+ * with a further array lookup, so no hashing or equals is involved.
+ * <p>
+ * A table laid out from a TransitionLayout has its hottest States and
+ * Events at the lowest indices, so the hottest entries share cache
+ * lines, and remembers the hot Event of each State so that its index is
+ * found by comparing references.
+ * <p>
+ * @see FiniteStateMachine
+ * @see TableDrivenState
+ * @see GuardedState
+ * @see TransitionLayout
+ */
+public final class TransitionTable implements Serializable
+{
+    private static final long serialVersionUID = -3040527519338000528L;
+
+    public static final int REJECT = -1;
+    public static final int DELEGATE = -2;
+    public static final int GUARDED = -3;
+
+    private final State[] states;
+    private final Event[] events;
+    private final int[] table;
+    // Indexed like table, with the branch State of each ActionState; null if there are no ActionStates
+    private final int[] branches;
+    private final StateSet stateSet;
+    private final EventSet eventSet;
+    
+    // States merged into another by minimization, and the index each one maps to
+    private final State[] aliasStates;
+    private final int[] aliasIndices;
+    private final long fingerprint;
+    
+    // The hot Event of each State and its index, checked by reference before the id lookup;
+    // null unless the table was laid out from a TransitionLayout
+    private final Event[] hotEvents;
+    private final int[] hotEventIndices;
+    
+    // Indexed by IdentityRegistry id; rebuilt after deserialization since ids are per process
+    private transient int[] stateIdToIndex;
+    private transient int[] eventIdToIndex;
+    
+    // Indexed like table, for GUARDED entries only; null if no State is a GuardedState.
+    // Rebuilt from the States after deserialization.
+    private transient Guard[][] guards;
+    private transient int[][] guardTargets;
+    
+    // Indexed like table, with 1 + the next State a PureState returned; null if there are no PureStates.
+    // Not kept across serialization.
+    private transient int[] memo;
+
+    /**
+     * Compiles the transitions of the given States.
+     * Every Event accepted by one of the States must be in events, and
+     * every State a TableDrivenState or GuardedState transitions into
+     * must be in states.
+     * <p>
+     * @param states
+     * @param events
+     * @throws IllegalStateException if a TableDrivenState or
+     * GuardedState transitions into a State that is not in states, or a
+     * GuardedState has a transition on an Event it does not accept
+     */
+    public TransitionTable(State[] states, Event[] events)
+    {
+        this.states = states;
+        this.events = events;
+        this.table = new int[states.length * events.length];
+        this.branches = hasActionState(states) ? new int[table.length] : null;
+        this.stateSet = StateSet.of(states);
+        this.eventSet = EventSet.of(events);
+        this.aliasStates = new State[0];
+        this.aliasIndices = new int[0];
+        this.hotEvents = null;
+        this.hotEventIndices = null;
+
+        indexIds();
+        for ( int stateIndex = 0; stateIndex < states.length; stateIndex++ )
+        {
+            compileRow(stateIndex);
+        }
+        this.fingerprint = fingerprint();
+        allocateMemo();
+    }
+
+    /**
+     * Makes the table of a minimized definition from the table of the
+     * original one. Each block of equivalent States becomes one row,
+     * represented by the State of the block with the lowest index.
+     * Every other State of the block becomes an alias: indexOf returns
+     * the index of its block.
+     * <p>
+     * @param original
+     * @param blockOf index of the block of each State of original;
+     * blocks are numbered in the order of their lowest State
+     * @param blockCount
+     * @see Minimization
+     */
+    TransitionTable(TransitionTable original, int[] blockOf, int blockCount)
+    {
+        int eventCount = original.events.length;
+        this.states = new State[blockCount];
+        this.events = original.events;
+        this.table = new int[blockCount * eventCount];
+        this.branches = original.branches != null ? new int[table.length] : null;
+        this.aliasStates = new State[original.states.length - blockCount];
+        this.aliasIndices = new int[aliasStates.length];
+        this.hotEvents = null;
+        this.hotEventIndices = null;
+
+        int aliasCount = 0;
+        for ( int stateIndex = 0; stateIndex < original.states.length; stateIndex++ )
+        {
+            int block = blockOf[stateIndex];
+            if ( states[block] != null )
+            {
+                aliasStates[aliasCount] = original.states[stateIndex];
+                aliasIndices[aliasCount++] = block;
+                continue;
+            }
+            
+            states[block] = original.states[stateIndex];
+            for ( int eventIndex = 0; eventIndex < eventCount; eventIndex++ )
+            {
+                int entry = original.table[stateIndex * eventCount + eventIndex];
+                table[block * eventCount + eventIndex] = entry >= 0 ? blockOf[entry] : entry;
+                if ( branches != null )
+                {
+                    int branch = original.branches[stateIndex * eventCount + eventIndex];
+                    branches[block * eventCount + eventIndex] = branch >= 0 ? blockOf[branch] : branch;
+                }
+            }
+        }
+        this.stateSet = StateSet.of(states);
+        this.eventSet = original.eventSet;
+
+        indexIds();
+        compileAllGuards();
+        this.fingerprint = fingerprint();
+        allocateMemo();
+    }
+
+    /**
+     * Makes a copy of a table with its States and Events in a new order
+     * and a hot Event for some of the States. The entries are moved with
+     * their States and Events, so the copy makes the same transitions.
+     * <p>
+     * @param original
+     * @param stateOrder original index of the State at each new index
+     * @param eventOrder original index of the Event at each new index
+     * @param hotEventOf new index of the hot Event of the State at each
+     * new index, or REJECT
+     * @see MachineDefinition#withLayout(TransitionLayout)
+     */
+    TransitionTable(TransitionTable original, int[] stateOrder, int[] eventOrder, int[] hotEventOf)
+    {
+        int stateCount = original.states.length;
+        int eventCount = original.events.length;
+        int[] newStateIndex = new int[stateCount];
+        for ( int stateIndex = 0; stateIndex < stateCount; stateIndex++ )
+        {
+            newStateIndex[stateOrder[stateIndex]] = stateIndex;
+        }
+        
+        this.states = new State[stateCount];
+        this.events = new Event[eventCount];
+        this.table = new int[original.table.length];
+        this.branches = original.branches != null ? new int[table.length] : null;
+        for ( int eventIndex = 0; eventIndex < eventCount; eventIndex++ )
+        {
+            events[eventIndex] = original.events[eventOrder[eventIndex]];
+        }
+        for ( int stateIndex = 0; stateIndex < stateCount; stateIndex++ )
+        {
+            states[stateIndex] = original.states[stateOrder[stateIndex]];
+            for ( int eventIndex = 0; eventIndex < eventCount; eventIndex++ )
+            {
+                int originalCell = stateOrder[stateIndex] * eventCount + eventOrder[eventIndex];
+                int entry = original.table[originalCell];
+                table[stateIndex * eventCount + eventIndex] = entry >= 0 ? newStateIndex[entry] : entry;
+                if ( branches != null )
+                {
+                    int branch = original.branches[originalCell];
+                    branches[stateIndex * eventCount + eventIndex] = branch >= 0 ? newStateIndex[branch] : branch;
+                }
+            }
+        }
+        
+        this.aliasStates = original.aliasStates;
+        this.aliasIndices = new int[aliasStates.length];
+        for ( int index = 0; index < aliasStates.length; index++ )
+        {
+            aliasIndices[index] = newStateIndex[original.aliasIndices[index]];
+        }
+        
+        this.hotEvents = new Event[stateCount];
+        this.hotEventIndices = new int[stateCount];
+        for ( int stateIndex = 0; stateIndex < stateCount; stateIndex++ )
+        {
+            hotEventIndices[stateIndex] = hotEventOf[stateIndex];
+            hotEvents[stateIndex] = hotEventOf[stateIndex] != REJECT ? events[hotEventOf[stateIndex]] : null;
+        }
+        this.stateSet = StateSet.of(states);
+        this.eventSet = EventSet.of(events);
+
+        indexIds();
+        compileAllGuards();
+        this.fingerprint = fingerprint();
+        allocateMemo();
+    }
+
+    /**
+     * Gets the number of States in the table.
+     * <p>
+     * @return number of States
+     */
+    public int getStateCount()
+    {
+        return states.length;
+    }
+
+    /**
+     * Gets the number of Events in the table.
+     * <p>
+     * @return number of Events
+     */
+    public int getEventCount()
+    {
+        return events.length;
+    }
+
+    /**
+     * Gets a hash of the names of the States and Events, in index order,
+     * and of every entry of the table. Tables built from the same States
+     * get the same fingerprint in any process, so a snapshot holding
+     * indices into one can be checked against another.
+     * <p>
+     * @return fingerprint
+     */
+    public long getFingerprint()
+    {
+        return fingerprint;
+    }
+
+    /**
+     * Gets the State with the given index.
+     * <p>
+     * @param stateIndex
+     * @return State
+     */
+    public State getState(int stateIndex)
+    {
+        return states[stateIndex];
+    }
+
+    /**
+     * Gets the Event with the given index.
+     * <p>
+     * @param eventIndex
+     * @return Event
+     */
+    public Event getEvent(int eventIndex)
+    {
+        return events[eventIndex];
+    }
+
+    /**
+     * Gets all States of the table as an immutable set.
+     * <p>
+     * @return set of States
+     */
+    public StateSet getStateSet()
+    {
+        return stateSet;
+    }
+
+    /**
+     * Gets all Events of the table as an immutable set.
+     * <p>
+     * @return set of Events
+     */
+    public EventSet getInputEventSet()
+    {
+        return eventSet;
+    }
+
+    /**
+     * Gets the index of a State or REJECT if the State is not in the table.
+     * A State merged into another by minimization gets the index of the
+     * State it was merged into.
+     * <p>
+     * @param state
+     * @return index of the State
+     */
+    public int indexOf(State state)
+    {
+        int id = state.peekId();
+        return id >= 0 && id < stateIdToIndex.length ? stateIdToIndex[id] : REJECT;
+    }
+
+    /**
+     * Gets the index of an Event or REJECT if no State accepts the Event.
+     * <p>
+     * @param event
+     * @return index of the Event
+     */
+    public int indexOf(Event event)
+    {
+        int id = event.peekId();
+        return id >= 0 && id < eventIdToIndex.length ? eventIdToIndex[id] : REJECT;
+    }
+
+    /**
+     * Gets the index of an Event input to the State with the given index.
+     * If the Event is the hot Event of the State its index is known
+     * without looking up the id of the Event, which for an Event that
+     * does not cache its id is a hash lookup.
+     * <p>
+     * @param stateIndex
+     * @param event
+     * @return index of the Event or REJECT
+     * @see TransitionLayout
+     */
+    public int indexOf(int stateIndex, Event event)
+    {
+        if ( hotEvents != null && hotEvents[stateIndex] == event )
+        {
+            return hotEventIndices[stateIndex];
+        }
+        return indexOf(event);
+    }
+
+    /**
+     * Looks up the entry for a State and Event pair.
+     * <p>
+     * @param stateIndex
+     * @param eventIndex
+     * @return REJECT, DELEGATE, GUARDED or the index of the next State
+     */
+    public int next(int stateIndex, int eventIndex)
+    {
+        return table[stateIndex * events.length + eventIndex];
+    }
+
+    /**
+     * Tests whether a State is terminal: it accepts no Event, so a
+     * StateMachine in it can make no further transition.
+     * <p>
+     * @param stateIndex
+     * @return true/false
+     */
+    public boolean isTerminal(int stateIndex)
+    {
+        int row = stateIndex * events.length;
+        for ( int cell = row; cell < row + events.length; cell++ )
+        {
+            if ( table[cell] != REJECT )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests whether any State of the table is an ActionState.
+     * <p>
+     * @return true/false
+     * @see ActionState
+     */
+    public boolean hasActionStates()
+    {
+        return branches != null;
+    }
+
+    /**
+     * Looks up the branch State of an ActionState for an Event.
+     * <p>
+     * @param stateIndex
+     * @param eventIndex
+     * @return REJECT or the index of the branch State
+     * @see ActionState#getBranchState(Event)
+     */
+    public int branch(int stateIndex, int eventIndex)
+    {
+        return branches != null ? branches[stateIndex * events.length + eventIndex] : REJECT;
+    }
+
+    /**
+     * Looks up the next State a PureState returned from onTransition for
+     * an Event, if it has been remembered.
+     * <p>
+     * @param stateIndex
+     * @param eventIndex
+     * @return REJECT or the index of the next State
+     * @see PureState
+     */
+    public int memoized(int stateIndex, int eventIndex)
+    {
+        return memo != null ? memo[stateIndex * events.length + eventIndex] - 1 : REJECT;
+    }
+
+    /**
+     * Remembers the next State a PureState returned from onTransition.
+     * Racing writes are harmless since a PureState always returns the
+     * same State for an Event.
+     * <p>
+     * @param stateIndex of a PureState
+     * @param eventIndex
+     * @param nextStateIndex
+     */
+    public void memoize(int stateIndex, int eventIndex, int nextStateIndex)
+    {
+        if ( memo != null && nextStateIndex >= 0 && states[stateIndex] instanceof PureState
+             && ! (states[stateIndex] instanceof ContextState) )
+        {
+            memo[stateIndex * events.length + eventIndex] = nextStateIndex + 1;
+        }
+    }
+
+    /**
+     * Looks up the entry for a State and Event pair, evaluating the
+     * Guards of a GUARDED entry against the Event.
+     * <p>
+     * @param stateIndex
+     * @param eventIndex
+     * @param event
+     * @return REJECT, DELEGATE or the index of the next State
+     */
+    public int next(int stateIndex, int eventIndex, Event event)
+    {
+        int cell = stateIndex * events.length + eventIndex;
+        int entry = table[cell];
+        if ( entry != GUARDED )
+        {
+            return entry;
+        }
+        
+        Guard[] cellGuards = guards[cell];
+        for ( int index = 0; index < cellGuards.length; index++ )
+        {
+            if ( cellGuards[index] == null || cellGuards[index].test(event) )
+            {
+                return guardTargets[cell][index];
+            }
+        }
+        return REJECT;
+    }
+
+    // 64 bit FNV-1a over the State names, Event names and entries
+    private long fingerprint()
+    {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, states.length);
+        for ( State state : states )
+        {
+            hash = mix(hash, String.valueOf(state.getName()));
+        }
+        hash = mix(hash, events.length);
+        for ( Event event : events )
+        {
+            hash = mix(hash, String.valueOf(event.getName()));
+        }
+        for ( int entry : table )
+        {
+            hash = mix(hash, entry);
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, String name)
+    {
+        hash = mix(hash, name.length());
+        for ( int index = 0; index < name.length(); index++ )
+        {
+            hash = (hash ^ name.charAt(index)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, int value)
+    {
+        for ( int shift = 0; shift < 32; shift += 8 )
+        {
+            hash = (hash ^ ((value >>> shift) & 0xFF)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static boolean hasActionState(State[] states)
+    {
+        for ( State state : states )
+        {
+            if ( state instanceof ActionState )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void indexIds()
+    {
+        int[] stateIds = new int[states.length];
+        int maxStateId = IdentityRegistry.NO_ID;
+        for ( int index = 0; index < states.length; index++ )
+        {
+            stateIds[index] = states[index].id();
+            maxStateId = Math.max(maxStateId, stateIds[index]);
+        }
+        int[] aliasIds = new int[aliasStates.length];
+        for ( int index = 0; index < aliasStates.length; index++ )
+        {
+            aliasIds[index] = aliasStates[index].id();
+            maxStateId = Math.max(maxStateId, aliasIds[index]);
+        }
+        stateIdToIndex = new int[maxStateId + 1];
+        Arrays.fill(stateIdToIndex, REJECT);
+        for ( int index = 0; index < states.length; index++ )
+        {
+            stateIdToIndex[stateIds[index]] = index;
+        }
+        for ( int index = 0; index < aliasStates.length; index++ )
+        {
+            stateIdToIndex[aliasIds[index]] = aliasIndices[index];
+        }
+
+        int[] eventIds = new int[events.length];
+        int maxEventId = IdentityRegistry.NO_ID;
+        for ( int index = 0; index < events.length; index++ )
+        {
+            eventIds[index] = events[index].id();
+            maxEventId = Math.max(maxEventId, eventIds[index]);
+        }
+        eventIdToIndex = new int[maxEventId + 1];
+        Arrays.fill(eventIdToIndex, REJECT);
+        for ( int index = 0; index < events.length; index++ )
+        {
+            eventIdToIndex[eventIds[index]] = index;
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        indexIds();
+        compileAllGuards();
+        allocateMemo();
+    }
+
+    private void allocateMemo()
+    {
+        for ( State state : states )
+        {
+            if ( state instanceof PureState )
+            {
+                memo = new int[table.length];
+                return;
+            }
+        }
+    }
+
+    private void compileAllGuards()
+    {
+        for ( int stateIndex = 0; stateIndex < states.length; stateIndex++ )
+        {
+            if ( states[stateIndex] instanceof GuardedState )
+            {
+                compileGuards(stateIndex);
+            }
+        }
+    }
+
+    private void compileRow(int stateIndex)
+    {
+        State state = states[stateIndex];
+        int row = stateIndex * events.length;
+
+        for ( int eventIndex = 0; eventIndex < events.length; eventIndex++ )
+        {
+            table[row + eventIndex] = REJECT;
+        }
+        if ( branches != null )
+        {
+            Arrays.fill(branches, row, row + events.length, REJECT);
+        }
+
+        EventSet inputEvents = EventSet.inputEventsOf(state);
+        for ( int index = 0; index < inputEvents.size(); index++ )
+        {
+            Event event = inputEvents.get(index);
+            int entry = DELEGATE;
+            if ( state instanceof TableDrivenState )
+            {
+                TableDrivenState tableDrivenState = state.getThis();
+                State nextState = tableDrivenState.getTransitionState(event);
+                entry = indexOf(nextState);
+                if ( entry == REJECT )
+                {
+                    throw new IllegalStateException("State " + state + " transitions on " + event
+                                                    + " into unknown State " + nextState);
+                }
+            }
+            table[row + indexOf(event)] = entry;
+            if ( state instanceof ActionState )
+            {
+                ActionState actionState = state.getThis();
+                State branchState = actionState.getBranchState(event);
+                if ( branchState != null )
+                {
+                    int branch = indexOf(branchState);
+                    if ( branch == REJECT )
+                    {
+                        throw new IllegalStateException("State " + state + " branches on " + event
+                                                        + " into unknown State " + branchState);
+                    }
+                    branches[row + indexOf(event)] = branch;
+                }
+            }
+        }
+        
+        if ( state instanceof GuardedState )
+        {
+            compileGuards(stateIndex);
+        }
+    }
+
+    /**
+     * Compiles the GuardedTransitions of a State. An Event whose first
+     * transition has no Guard gets the index of its target; otherwise
+     * the Guards and targets up to the first transition without a Guard
+     * are kept for next(int, int, Event).
+     * <p>
+     * @param stateIndex
+     */
+    private void compileGuards(int stateIndex)
+    {
+        State state = states[stateIndex];
+        GuardedState guardedState = state.getThis();
+        GuardedTransition[] transitions = guardedState.getGuardedTransitions();
+        EventSet inputEvents = EventSet.inputEventsOf(state);
+        int row = stateIndex * events.length;
+
+        for ( GuardedTransition transition : transitions )
+        {
+            if ( ! inputEvents.contains(transition.getEvent()) )
+            {
+                throw new IllegalStateException("State " + state + " has a transition on " + transition.getEvent()
+                                                + " which is not one of its input Events");
+            }
+        }
+
+        for ( int index = 0; index < inputEvents.size(); index++ )
+        {
+            Event event = inputEvents.get(index);
+            int count = 0;
+            Guard[] cellGuards = new Guard[transitions.length];
+            int[] cellTargets = new int[transitions.length];
+            for ( GuardedTransition transition : transitions )
+            {
+                if ( ! transition.getEvent().equals(event) )
+                {
+                    continue;
+                }
+                int target = indexOf(transition.getTarget());
+                if ( target == REJECT )
+                {
+                    throw new IllegalStateException("State " + state + " transitions on " + event
+                                                    + " into unknown State " + transition.getTarget());
+                }
+                cellGuards[count] = transition.getGuard();
+                cellTargets[count++] = target;
+                if ( transition.getGuard() == null )
+                {
+                    // later transitions can never be taken
+                    break;
+                }
+            }
+            if ( count == 0 )
+            {
+                continue;
+            }
+
+            int cell = row + indexOf(event);
+            if ( cellGuards[0] == null )
+            {
+                table[cell] = cellTargets[0];
+                continue;
+            }
+            if ( guards == null )
+            {
+                guards = new Guard[table.length][];
+                guardTargets = new int[table.length][];
+            }
+            table[cell] = GUARDED;
+            guards[cell] = Arrays.copyOf(cellGuards, count);
+            guardTargets[cell] = Arrays.copyOf(cellTargets, count);
+        }
+    }
+}
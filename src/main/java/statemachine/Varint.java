@@ -0,0 +1,107 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * Writes and reads ints as unsigned variable length quantities, seven
+ * bits to a byte with the high bit set on every byte but the last.
+ * Values below 128 take one byte, so the indices of a small
+ * MachineDefinition take one byte each.
+ * <p>
+ * Negative values take five bytes. Callers that write small negative
+ * values, such as TransitionTable.REJECT, should shift them first.
+ * <p>
+ * @see FiniteStateMachine#writeSnapshot(DataOutput)
+ */
+public final class Varint
+{
+    private Varint()
+    {
+    }
+
+    /**
+     * Writes an int in one to five bytes.
+     * <p>
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    public static void writeInt(DataOutput out, int value) throws IOException
+    {
+        while ( (value & ~0x7F) != 0 )
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads an int written by writeInt.
+     * <p>
+     * @param in
+     * @return value
+     * @throws IOException
+     * @throws StreamCorruptedException if more than five bytes have the
+     * high bit set
+     */
+    public static int readInt(DataInput in) throws IOException
+    {
+        int value = 0;
+        for ( int shift = 0; shift < 35; shift += 7 )
+        {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ( (b & 0x80) == 0 )
+            {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Varint longer than 5 bytes");
+    }
+
+    /**
+     * Gets the number of bytes writeInt writes for a value.
+     * <p>
+     * @param value
+     * @return 1 to 5
+     */
+    public static int sizeOf(int value)
+    {
+        int size = 1;
+        while ( (value & ~0x7F) != 0 )
+        {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine.cep;
+
+import java.io.Serializable;
+
+import statemachine.Event;
+import statemachine.Guard;
+
+/**
+ * An EventPattern declares a sequence of Events to look for in the
+ * Events delivered by a StateMachineContainer, for example a Coin
+ * followed by Return.Coins within two seconds, three times in a minute.
+ * <p>
+ * Each step of the sequence is a Guard on an Event. Other Events may
+ * come between the steps. Optionally the whole sequence must happen
+ * within a window, and must complete a number of times within a second
+ * window before the pattern matches.
+ * <p>
+ * An EventPattern is immutable; within and times return new ones.
+ * <p>
+ * @see PatternMatcher
+ */
+public final class EventPattern implements Serializable
+{
+    private static final long serialVersionUID = -1624367227734802155L;
+
+    public static final long UNBOUNDED = Long.MAX_VALUE;
+
+    private final Guard[] steps;
+    private final long windowMillis;
+    private final int times;
+    private final long timesWindowMillis;
+
+    private EventPattern(Guard[] steps, long windowMillis, int times, long timesWindowMillis)
+    {
+        if ( steps.length == 0 )
+        {
+            throw new IllegalArgumentException("A pattern needs at least one step");
+        }
+        this.steps = steps;
+        this.windowMillis = windowMillis;
+        this.times = times;
+        this.timesWindowMillis = timesWindowMillis;
+    }
+
+    /**
+     * Makes a pattern of Events, each step passing its Guard.
+     * <p>
+     * @param steps
+     * @return eventPattern
+     */
+    public static EventPattern sequence(Guard... steps)
+    {
+        return new EventPattern(steps.clone(), UNBOUNDED, 1, UNBOUNDED);
+    }
+
+    /**
+     * Makes a pattern of Events, each step an Event equal to the one given.
+     * <p>
+     * @param events
+     * @return eventPattern
+     */
+    public static EventPattern sequence(Event... events)
+    {
+        Guard[] steps = new Guard[events.length];
+        for ( int index = 0; index < events.length; index++ )
+        {
+            final Event step = events[index];
+            steps[index] = event -> step.equals(event);
+        }
+        return new EventPattern(steps, UNBOUNDED, 1, UNBOUNDED);
+    }
+
+    /**
+     * Requires the sequence to complete within a window measured from its
+     * first Event.
+     * <p>
+     * @param millis
+     * @return eventPattern
+     */
+    public EventPattern within(long millis)
+    {
+        return new EventPattern(steps, millis, times, timesWindowMillis);
+    }
+
+    /**
+     * Requires the sequence to complete count times within a window
+     * before the pattern matches. The count starts again after a match.
+     * <p>
+     * @param count
+     * @param millis
+     * @return eventPattern
+     */
+    public EventPattern times(int count, long millis)
+    {
+        if ( count < 1 )
+        {
+            throw new IllegalArgumentException("count must be at least 1");
+        }
+        return new EventPattern(steps, windowMillis, count, millis);
+    }
+
+    public int getStepCount()
+    {
+        return steps.length;
+    }
+
+    public Guard getStep(int index)
+    {
+        return steps[index];
+    }
+
+    public long getWindowMillis()
+    {
+        return windowMillis;
+    }
+
+    public int getTimes()
+    {
+        return times;
+    }
+
+    public long getTimesWindowMillis()
+    {
+        return timesWindowMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "EventPattern(" + steps.length + " steps"
+            + (windowMillis != UNBOUNDED ? " within " + windowMillis + " ms" : "")
+            + (times > 1 ? ", " + times + " times in " + timesWindowMillis + " ms" : "") + ")";
+    }
+}
@@ -0,0 +1,241 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine.cep;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+import statemachine.Event;
+import statemachine.EventSender;
+import statemachine.EventTap;
+import statemachine.Guard;
+import statemachine.StateMachine;
+
+/**
+ * A PatternMatcher is an EventTap that looks for an EventPattern in the
+ * Events delivered by an AbstractStateMachineContainer. Each time the
+ * pattern matches, it posts its match Event to the priority queue of
+ * the container, where StateMachines and Triggers see it before any
+ * further normal Event.
+ * <p>
+ * The pattern is compiled into an automaton with one slot per step. A
+ * partial match waiting for step k is kept in slot k as the time of its
+ * first Event. Two partial matches waiting for the same step have the
+ * same future, except that the later one expires later, so only the
+ * later is kept. Each Event therefore costs one Guard test per active
+ * partial match, however many Events have been seen: expired partials
+ * are dropped, a partial whose next step passes moves on, and an Event
+ * passing the first step starts a new partial.
+ * <p>
+ * A partial match that completes is used up; other partials carry on.
+ * <p>
+ * @see EventPattern
+ * @see statemachine.AbstractStateMachineContainer#addEventTap(EventTap)
+ */
+public class PatternMatcher implements EventTap
+{
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final EventPattern pattern;
+    private final Event matchEvent;
+    private final LongSupplier clock;
+    private final Guard[] steps;
+    private final long windowMillis;
+
+    // [k] -> start time of the partial match waiting for step k, or NONE; [0] is unused
+    private final long[] waiting;
+
+    // Times of the sequences completed within the times window, oldest first
+    private final long[] completions;
+    private int completionHead = 0;
+    private int completionCount = 0;
+    private long matchCount = 0;
+
+    /**
+     * Makes a PatternMatcher timed by System.currentTimeMillis.
+     * <p>
+     * @param pattern
+     * @param matchEvent posted when the pattern matches
+     */
+    public PatternMatcher(EventPattern pattern, Event matchEvent)
+    {
+        this(pattern, matchEvent, System::currentTimeMillis);
+    }
+
+    /**
+     * Makes a PatternMatcher timed by a clock giving milliseconds.
+     * <p>
+     * @param pattern
+     * @param matchEvent posted when the pattern matches
+     * @param clock
+     */
+    public PatternMatcher(EventPattern pattern, Event matchEvent, LongSupplier clock)
+    {
+        this.pattern = pattern;
+        this.matchEvent = matchEvent;
+        this.clock = clock;
+        this.steps = new Guard[pattern.getStepCount()];
+        for ( int index = 0; index < steps.length; index++ )
+        {
+            steps[index] = pattern.getStep(index);
+        }
+        this.windowMillis = pattern.getWindowMillis();
+        this.waiting = new long[steps.length];
+        this.completions = new long[pattern.getTimes()];
+        Arrays.fill(waiting, NONE);
+    }
+
+    public EventPattern getPattern()
+    {
+        return pattern;
+    }
+
+    /**
+     * Advances the partial matches and posts the match Event to the
+     * priority queue if the pattern matches.
+     */
+    @Override
+    public void onDelivered(Event event, StateMachine stateMachine, EventSender eventSender)
+    {
+        if ( input(event, clock.getAsLong()) )
+        {
+            eventSender.postPriorityEvent(matchEvent);
+        }
+    }
+
+    /**
+     * Advances the partial matches with an Event seen at a time.
+     * <p>
+     * @param event
+     * @param now in milliseconds
+     * @return true if the pattern matched
+     */
+    public synchronized boolean input(Event event, long now)
+    {
+        int last = steps.length - 1;
+        boolean completed = false;
+
+        // Last step first, so an Event moves each partial at most one step
+        for ( int step = last; step >= 1; step-- )
+        {
+            long start = waiting[step];
+            if ( start == NONE )
+            {
+                continue;
+            }
+            if ( now - start > windowMillis )
+            {
+                waiting[step] = NONE;
+                continue;
+            }
+            if ( steps[step].test(event) )
+            {
+                waiting[step] = NONE;
+                if ( step == last )
+                {
+                    completed = true;
+                }
+                else if ( waiting[step + 1] < start )
+                {
+                    waiting[step + 1] = start;
+                }
+            }
+        }
+
+        if ( steps[0].test(event) )
+        {
+            if ( last == 0 )
+            {
+                completed = true;
+            }
+            else
+            {
+                waiting[1] = now;
+            }
+        }
+
+        return completed && countCompletion(now);
+    }
+
+    /**
+     * Gets the number of partial matches waiting for a further step.
+     * Some of them may have expired without having seen an Event since.
+     * <p>
+     * @return number of partial matches
+     */
+    public synchronized int getActivePartialCount()
+    {
+        int count = 0;
+        for ( int step = 1; step < waiting.length; step++ )
+        {
+            if ( waiting[step] != NONE )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of times the pattern has matched.
+     * <p>
+     * @return number of matches
+     */
+    public synchronized long getMatchCount()
+    {
+        return matchCount;
+    }
+
+    /**
+     * Records a completed sequence and tests whether enough have
+     * completed within the times window.
+     */
+    private boolean countCompletion(long now)
+    {
+        long timesWindowMillis = pattern.getTimesWindowMillis();
+        while ( completionCount > 0 && now - completions[completionHead] > timesWindowMillis )
+        {
+            completionHead = (completionHead + 1) % completions.length;
+            completionCount--;
+        }
+        completions[(completionHead + completionCount) % completions.length] = now;
+        completionCount++;
+
+        if ( completionCount < completions.length )
+        {
+            return false;
+        }
+        completionCount = 0;
+        matchCount++;
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PatternMatcher(" + pattern + " -> " + matchEvent + ")";
+    }
+}
@@ -0,0 +1,407 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine.compile;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a StateMachine class for each enum annotated with
+ * CompiledMachine.
+ * <p>
+ * The generated class holds the ordinal of its current State and
+ * dispatches an Event with a switch over the State ordinal and the Event
+ * ordinal, so there is no reflection, no TransitionTable and no State
+ * graph walk at run time. Like a TableDrivenState, the transitions are
+ * fixed: the generated class calls onEntry of the next State but never
+ * onTransition, and it does not call init.
+ * <p>
+ * The processor is not registered as a service; name it to javac with
+ * -processor statemachine.compile.CompiledMachineProcessor, or in the
+ * annotationProcessors of the maven-compiler-plugin.
+ * <p>
+ * @see CompiledMachine
+ * @see Transition
+ */
+public class CompiledMachineProcessor extends AbstractProcessor
+{
+    private static final String STATE = "statemachine.State";
+    private static final String EVENT = "statemachine.Event";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes()
+    {
+        return Collections.singleton(CompiledMachine.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        for ( Element element : roundEnv.getElementsAnnotatedWith(CompiledMachine.class) )
+        {
+            if ( element.getKind() != ElementKind.ENUM )
+            {
+                error(element, "@CompiledMachine must annotate an enum");
+                continue;
+            }
+            generate((TypeElement) element);
+        }
+        return true;
+    }
+
+    private void generate(TypeElement stateEnum)
+    {
+        CompiledMachine compiledMachine = stateEnum.getAnnotation(CompiledMachine.class);
+        TypeElement eventEnum = eventEnumOf(compiledMachine);
+        if ( eventEnum == null || eventEnum.getKind() != ElementKind.ENUM
+             || ! isSubtype(eventEnum, EVENT) )
+        {
+            error(stateEnum, "events of @CompiledMachine must be an enum implementing " + EVENT);
+            return;
+        }
+
+        List<String> stateNames = constantsOf(stateEnum);
+        List<String> eventNames = constantsOf(eventEnum);
+        int start = stateNames.indexOf(compiledMachine.start());
+        if ( start < 0 )
+        {
+            error(stateEnum, "Unknown start State " + compiledMachine.start());
+            return;
+        }
+
+        // transitions.get(state).get(event) is the next State ordinal
+        List<Map<Integer, Integer>> transitions = new ArrayList<Map<Integer, Integer>>();
+        boolean[] inputEvents = new boolean[eventNames.size()];
+        boolean valid = true;
+        for ( Element constant : stateEnum.getEnclosedElements() )
+        {
+            if ( constant.getKind() != ElementKind.ENUM_CONSTANT )
+            {
+                continue;
+            }
+            Map<Integer, Integer> row = new LinkedHashMap<Integer, Integer>();
+            for ( Transition transition : constant.getAnnotationsByType(Transition.class) )
+            {
+                int event = eventNames.indexOf(transition.on());
+                int next = stateNames.indexOf(transition.to());
+                if ( event < 0 )
+                {
+                    error(constant, "Unknown Event " + transition.on());
+                    valid = false;
+                }
+                else if ( next < 0 )
+                {
+                    error(constant, "Unknown State " + transition.to());
+                    valid = false;
+                }
+                else if ( row.put(event, next) != null )
+                {
+                    error(constant, "More than one Transition on " + transition.on());
+                    valid = false;
+                }
+                else
+                {
+                    inputEvents[event] = true;
+                }
+            }
+            transitions.add(row);
+        }
+        if ( ! valid )
+        {
+            return;
+        }
+
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(stateEnum);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String className = compiledMachine.name();
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+
+        try
+        {
+            PrintWriter out = new PrintWriter(
+                processingEnv.getFiler().createSourceFile(qualifiedName, stateEnum).openWriter());
+            try
+            {
+                write(out, packageName, className, stateEnum, eventEnum, stateNames, eventNames,
+                      start, transitions, inputEvents);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch (IOException e)
+        {
+            error(stateEnum, "Cannot write " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    private void write(PrintWriter out, String packageName, String className,
+                       TypeElement stateEnum, TypeElement eventEnum,
+                       List<String> stateNames, List<String> eventNames,
+                       int start, List<Map<Integer, Integer>> transitions, boolean[] inputEvents)
+    {
+        String states = stateEnum.getQualifiedName().toString();
+        String events = eventEnum.getQualifiedName().toString();
+        boolean enumIsState = isSubtype(stateEnum, STATE);
+
+        if ( ! packageName.isEmpty() )
+        {
+            out.println("package " + packageName + ";");
+            out.println();
+        }
+        out.println("/**");
+        out.println(" * Generated by statemachine.compile.CompiledMachineProcessor from " + states + ".");
+        out.println(" * Do not edit.");
+        out.println(" */");
+        out.println("public final class " + className + " implements statemachine.StateMachine, java.io.Serializable");
+        out.println("{");
+        out.println("    private static final long serialVersionUID = 1L;");
+        out.println("    private static final int REJECT = -1;");
+        out.println("    private static final int START = " + start + ";");
+        out.print("    private static final statemachine.Event[] INPUT_EVENTS = {");
+        String separator = " ";
+        for ( int event = 0; event < eventNames.size(); event++ )
+        {
+            if ( inputEvents[event] )
+            {
+                out.print(separator + events + "." + eventNames.get(event));
+                separator = ", ";
+            }
+        }
+        out.println(" };");
+        out.println("    private static final statemachine.EventSet INPUT_EVENT_SET = statemachine.EventSet.of(INPUT_EVENTS);");
+        out.println();
+        out.println("    private final String name;");
+        out.println("    private final statemachine.State[] states;");
+        out.println("    private final statemachine.StateSet stateSet;");
+        out.println("    private int current = START;");
+        out.println("    private statemachine.Event latestEvent = null;");
+        out.println();
+        if ( enumIsState )
+        {
+            out.println("    public " + className + "(String name)");
+            out.println("    {");
+            out.println("        this.name = name;");
+            out.print("        this.states = new statemachine.State[] {");
+            separator = " ";
+            for ( String state : stateNames )
+            {
+                out.print(separator + states + "." + state);
+                separator = ", ";
+            }
+            out.println(" };");
+        }
+        else
+        {
+            out.println("    public " + className + "(String name, statemachine.StateFactory<" + states + "> stateFactory)");
+            out.println("    {");
+            out.println("        this.name = name;");
+            out.println("        this.states = new statemachine.State[" + stateNames.size() + "];");
+            out.println("        for ( " + states + " state : " + states + ".values() )");
+            out.println("        {");
+            out.println("            this.states[state.ordinal()] = stateFactory.newState(state);");
+            out.println("        }");
+        }
+        out.println("        this.stateSet = statemachine.StateSet.of(this.states);");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public String getName()");
+        out.println("    {");
+        out.println("        return name;");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public synchronized void setup(statemachine.State startState)");
+        out.println("    {");
+        out.println("        for ( int state = 0; state < states.length; state++ )");
+        out.println("        {");
+        out.println("            if ( states[state].equals(startState) )");
+        out.println("            {");
+        out.println("                current = state;");
+        out.println("                latestEvent = null;");
+        out.println("                return;");
+        out.println("            }");
+        out.println("        }");
+        out.println("        throw new IllegalArgumentException(\"Unknown State \" + startState);");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public synchronized void input(statemachine.Event event) throws statemachine.StateMachineException");
+        out.println("    {");
+        out.println("        if ( ! (event instanceof " + events + ") )");
+        out.println("        {");
+        out.println("            return;");
+        out.println("        }");
+        out.println("        int next = next(current, ((" + events + ") event).ordinal());");
+        out.println("        if ( next == REJECT )");
+        out.println("        {");
+        out.println("            return;");
+        out.println("        }");
+        out.println("        current = next;");
+        out.println("        states[next].onEntry(event);");
+        out.println("        latestEvent = event;");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public synchronized statemachine.State getCurrentState()");
+        out.println("    {");
+        out.println("        return states[current];");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public synchronized statemachine.Event getLatestEvent()");
+        out.println("    {");
+        out.println("        return latestEvent;");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public statemachine.State[] getStates()");
+        out.println("    {");
+        out.println("        return states.clone();");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public statemachine.Event[] getInputEvents()");
+        out.println("    {");
+        out.println("        return INPUT_EVENTS.clone();");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public statemachine.StateSet getStateSet()");
+        out.println("    {");
+        out.println("        return stateSet;");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public statemachine.EventSet getInputEventSet()");
+        out.println("    {");
+        out.println("        return INPUT_EVENT_SET;");
+        out.println("    }");
+        out.println();
+        out.println("    /**");
+        out.println("     * Gets the ordinal of the next State or REJECT.");
+        out.println("     */");
+        out.println("    static int next(int state, int event)");
+        out.println("    {");
+        out.println("        switch ( state )");
+        out.println("        {");
+        for ( int state = 0; state < transitions.size(); state++ )
+        {
+            Map<Integer, Integer> row = transitions.get(state);
+            if ( row.isEmpty() )
+            {
+                continue;
+            }
+            out.println("        case " + state + ": // " + stateNames.get(state));
+            out.println("            switch ( event )");
+            out.println("            {");
+            for ( Map.Entry<Integer, Integer> entry : row.entrySet() )
+            {
+                out.println("            case " + entry.getKey() + ": return " + entry.getValue() + "; // "
+                            + eventNames.get(entry.getKey()) + " -> " + stateNames.get(entry.getValue()));
+            }
+            out.println("            default: return REJECT;");
+            out.println("            }");
+        }
+        out.println("        default:");
+        out.println("            return REJECT;");
+        out.println("        }");
+        out.println("    }");
+        out.println();
+        out.println("    @Override");
+        out.println("    public String toString()");
+        out.println("    {");
+        out.println("        return name;");
+        out.println("    }");
+        out.println("}");
+    }
+
+    private TypeElement eventEnumOf(CompiledMachine compiledMachine)
+    {
+        TypeMirror eventType;
+        try
+        {
+            compiledMachine.events();
+            return null;
+        }
+        catch (MirroredTypeException e)
+        {
+            // The Class itself is not available while compiling
+            eventType = e.getTypeMirror();
+        }
+        return (TypeElement) processingEnv.getTypeUtils().asElement(eventType);
+    }
+
+    private List<String> constantsOf(TypeElement enumElement)
+    {
+        List<String> constants = new ArrayList<String>();
+        for ( Element element : enumElement.getEnclosedElements() )
+        {
+            if ( element.getKind() == ElementKind.ENUM_CONSTANT )
+            {
+                constants.add(element.getSimpleName().toString());
+            }
+        }
+        return constants;
+    }
+
+    private boolean isSubtype(TypeElement element, String interfaceName)
+    {
+        TypeElement interfaceElement = processingEnv.getElementUtils().getTypeElement(interfaceName);
+        return interfaceElement != null
+            && processingEnv.getTypeUtils().isAssignable(element.asType(), interfaceElement.asType());
+    }
+
+    private void error(Element element, String message)
+    {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -52,8 +52,8 @@ public class StandardCombinedJuncture extends StandardJuncture
     @Override
     public boolean isJunctureConditionMet()
     {
-        return getStateName().equals(getStateMachine().getCurrentState().getName())
-            && getEventName().equals(getStateMachine().getLatestEvent().getName());
+        return isJunctureState(getStateMachine().getCurrentState())
+            && isJunctureEvent(getStateMachine().getLatestEvent());
     }
 
 }
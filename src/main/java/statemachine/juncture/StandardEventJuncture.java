@@ -50,7 +50,7 @@ public class StandardEventJuncture extends StandardJuncture
     @Override
     public boolean isJunctureConditionMet()
     {
-        return getEventName().equals(getStateMachine().getLatestEvent().getName());
+        return isJunctureEvent(getStateMachine().getLatestEvent());
     }
 
 }
@@ -26,6 +26,7 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package statemachine.juncture;
 
 import statemachine.Event;
+import statemachine.IdentityRegistry;
 import statemachine.State;
 import statemachine.StateMachine;
 
@@ -37,6 +38,8 @@ public abstract class StandardJuncture extends Juncture
 {
     final String eventName;
     final String stateName;
+    final int eventId;
+    final int stateId;
     
     /**
      * @param stateMachine
@@ -46,6 +49,8 @@ public abstract class StandardJuncture extends Juncture
         super(stateMachine);
         eventName = event != null ? event.getName() : "";
         stateName = state != null ? state.getName() : "";
+        eventId = event != null ? event.id() : IdentityRegistry.NO_ID;
+        stateId = state != null ? state.id() : IdentityRegistry.NO_ID;
     }
 
     /**
@@ -64,4 +69,42 @@ public abstract class StandardJuncture extends Juncture
         return stateName;
     }
 
+    /**
+     * @return eventId
+     */
+    public int getEventId()
+    {
+        return eventId;
+    }
+
+    /**
+     * @return stateId
+     */
+    public int getStateId()
+    {
+        return stateId;
+    }
+
+    /**
+     * Compares an Event with the Event of this StandardJuncture by id.
+     * <p>
+     * @param event
+     * @return true/false
+     */
+    protected boolean isJunctureEvent(Event event)
+    {
+        return event != null && eventId != IdentityRegistry.NO_ID && event.peekId() == eventId;
+    }
+
+    /**
+     * Compares a State with the State of this StandardJuncture by id.
+     * <p>
+     * @param state
+     * @return true/false
+     */
+    protected boolean isJunctureState(State state)
+    {
+        return state != null && stateId != IdentityRegistry.NO_ID && state.peekId() == stateId;
+    }
+
 }
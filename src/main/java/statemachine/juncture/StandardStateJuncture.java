@@ -50,7 +50,7 @@ public class StandardStateJuncture extends StandardJuncture {
     @Override
     public boolean isJunctureConditionMet() {
 
-        return getStateName().equals(getStateMachine().getCurrentState().getName());
+        return isJunctureState(getStateMachine().getCurrentState());
     }
 
 }
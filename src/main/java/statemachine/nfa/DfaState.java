@@ -0,0 +1,176 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine.nfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import statemachine.AbstractCompactState;
+import statemachine.Event;
+import statemachine.EventSet;
+import statemachine.MergeableState;
+import statemachine.State;
+import statemachine.StateMachineException;
+import statemachine.StateSet;
+
+/**
+ * A DfaState is one State of the deterministic machine compiled from an
+ * Nfa: the set of nodes the Nfa could be in. Its successor DfaStates are
+ * found in init and looked up afterwards, never recomputed.
+ * <p>
+ * Two DfaStates are equal if they are of the same Nfa and have the same
+ * nodes. Their names alone do not tell, since two Nfas may share a name.
+ * <p>
+ * Subset construction does not give the fewest States. DfaStates that
+ * are both accepting or both not accepting may be merged by
+ * MachineDefinition.minimize.
+ * <p>
+ * @see Nfa
+ * @see statemachine.MachineDefinition#minimize()
+ */
+public final class DfaState extends AbstractCompactState implements MergeableState {
+
+    private static final long serialVersionUID = -6508431740096718375L;
+
+    private final Nfa nfa;
+    private final BitSet nodes;
+    private final boolean accepting;
+    private volatile Map<Event, DfaState> successors = null;
+    private EventSet inputEvents = EventSet.EMPTY;
+    private StateSet transitionStates = StateSet.EMPTY;
+
+    DfaState(Nfa nfa, BitSet nodes, String name, boolean accepting) {
+        super(name);
+        this.nfa = nfa;
+        this.nodes = nodes;
+        this.accepting = accepting;
+    }
+
+    /**
+     * Tests whether any node of this DfaState is accepting.
+     * <p>
+     * @return true/false
+     */
+    public boolean isAccepting() {
+        return accepting;
+    }
+
+    /**
+     * Gets the names of the nodes of this DfaState.
+     * <p>
+     * @return node names
+     */
+    public List<String> getNodeNames() {
+        List<String> names = new ArrayList<String>(nodes.cardinality());
+        for (int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1)) {
+            names.add(nfa.getNodeName(node));
+        }
+        return names;
+    }
+
+    /**
+     * Finds the successor DfaState for each Event accepted by any node,
+     * making those not reached before.
+     */
+    @Override
+    public synchronized void init() {
+        if (successors != null) {
+            return;
+        }
+        Map<Event, DfaState> dfaSuccessors = new LinkedHashMap<Event, DfaState>();
+        for (Map.Entry<Event, BitSet> entry : nfa.successorsOf(nodes).entrySet()) {
+            dfaSuccessors.put(entry.getKey(), nfa.dfaStateOf(entry.getValue()));
+        }
+        inputEvents = EventSet.copyOf(dfaSuccessors.keySet());
+        List<State> states = new ArrayList<State>(dfaSuccessors.size());
+        for (DfaState successor : dfaSuccessors.values()) {
+            if (successor != this) {
+                states.add(successor);
+            }
+        }
+        transitionStates = StateSet.copyOf(states);
+        successors = dfaSuccessors;
+    }
+
+    @Override
+    public Object getMergeKey() {
+        return Arrays.asList(DfaState.class, accepting);
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(nfa) * 31 + nodes.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DfaState)) {
+            return false;
+        }
+        DfaState other = (DfaState) obj;
+        return nfa == other.nfa && nodes.equals(other.nodes);
+    }
+
+    @Override
+    public State getTransitionState(Event event) {
+        if (successors == null) {
+            init();
+        }
+        return successors.get(event);
+    }
+
+    @Override
+    public State onTransition(Event event) throws StateMachineException {
+        State next = getTransitionState(event);
+        if (next == null) {
+            throw new StateMachineException("State " + this + " does not accept " + event);
+        }
+        return next;
+    }
+
+    @Override
+    public EventSet getInputEventSet() {
+        return inputEvents;
+    }
+
+    @Override
+    public StateSet getTransitionStateSet() {
+        return transitionStates;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public DfaState getThis() {
+        return this;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine.nfa;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import statemachine.Event;
+
+/**
+ * An Nfa is a nondeterministic definition of a state machine: a node may
+ * have several transitions on the same Event and epsilon transitions
+ * that are taken without any Event.
+ * <p>
+ * An Nfa is not run directly. compile turns it into the start DfaState
+ * of an equivalent deterministic machine by subset construction: each
+ * DfaState stands for the set of nodes the Nfa could be in. A DfaState
+ * is made the first time it is reached and kept, so each set of nodes
+ * becomes one DfaState however often it is reached. The DfaStates are
+ * TableDrivenStates, so a FiniteStateMachine set up with the start
+ * DfaState compiles them into its TransitionTable and takes one table
+ * lookup per Event. Set up lazily, it builds only the DfaStates the
+ * input actually reaches.
+ * <p>
+ * Nodes and transitions must all be added before compile is called.
+ * <p>
+ * @see DfaState
+ * @see statemachine.FiniteStateMachine#setupLazily(statemachine.State)
+ */
+public final class Nfa implements Serializable
+{
+    private static final long serialVersionUID = 4396146373911585618L;
+
+    private final String name;
+    private final List<String> nodeNames = new ArrayList<String>();
+    private final List<Map<Event, BitSet>> transitions = new ArrayList<Map<Event, BitSet>>();
+    private final List<BitSet> epsilonTransitions = new ArrayList<BitSet>();
+    private final BitSet acceptingNodes = new BitSet();
+    private final Map<BitSet, DfaState> dfaStates = new ConcurrentHashMap<BitSet, DfaState>();
+    private volatile boolean compiled = false;
+
+    public Nfa(String name)
+    {
+        this.name = name;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Adds a node. Node names must be distinct, since they make up the
+     * names of the DfaStates.
+     * <p>
+     * @param nodeName
+     * @return index of the node
+     * @throws IllegalArgumentException if a node already has the name
+     */
+    public synchronized int addNode(String nodeName)
+    {
+        checkNotCompiled();
+        if ( nodeNames.contains(nodeName) )
+        {
+            throw new IllegalArgumentException("Node " + nodeName + " already in " + name);
+        }
+        nodeNames.add(nodeName);
+        transitions.add(new LinkedHashMap<Event, BitSet>());
+        epsilonTransitions.add(new BitSet());
+        return nodeNames.size() - 1;
+    }
+
+    /**
+     * Adds a transition from one node to another on an Event. A node may
+     * have transitions to several nodes on the same Event.
+     * <p>
+     * @param from
+     * @param event
+     * @param to
+     */
+    public synchronized void addTransition(int from, Event event, int to)
+    {
+        checkNotCompiled();
+        checkNode(to);
+        BitSet targets = transitions.get(checkNode(from)).get(event);
+        if ( targets == null )
+        {
+            targets = new BitSet();
+            transitions.get(from).put(event, targets);
+        }
+        targets.set(to);
+    }
+
+    /**
+     * Adds a transition from one node to another taken without an Event.
+     * <p>
+     * @param from
+     * @param to
+     */
+    public synchronized void addEpsilonTransition(int from, int to)
+    {
+        checkNotCompiled();
+        epsilonTransitions.get(checkNode(from)).set(checkNode(to));
+    }
+
+    /**
+     * Marks a node as accepting. A DfaState is accepting if any of its
+     * nodes is.
+     * <p>
+     * @param node
+     */
+    public synchronized void setAccepting(int node)
+    {
+        checkNotCompiled();
+        acceptingNodes.set(checkNode(node));
+    }
+
+    /**
+     * Gets the DfaState for the start node and everything reachable from
+     * it by epsilon transitions. After this no nodes or transitions may
+     * be added.
+     * <p>
+     * @param startNode
+     * @return start DfaState
+     */
+    public DfaState compile(int startNode)
+    {
+        synchronized ( this )
+        {
+            checkNode(startNode);
+            compiled = true;
+        }
+        BitSet start = new BitSet();
+        start.set(startNode);
+        return dfaStateOf(start);
+    }
+
+    /**
+     * Gets the number of DfaStates built so far.
+     * <p>
+     * @return number of DfaStates
+     */
+    public int getDfaStateCount()
+    {
+        return dfaStates.size();
+    }
+
+    /**
+     * Gets the DfaState for the epsilon closure of a set of nodes, making
+     * it if this set has not been reached before.
+     * <p>
+     * @param nodes which are not modified
+     * @return DfaState
+     */
+    DfaState dfaStateOf(BitSet nodes)
+    {
+        BitSet closure = closureOf(nodes);
+        DfaState dfaState = dfaStates.get(closure);
+        if ( dfaState == null )
+        {
+            DfaState newState = new DfaState(this, closure, nameOf(closure), closure.intersects(acceptingNodes));
+            dfaState = dfaStates.putIfAbsent(closure, newState);
+            if ( dfaState == null )
+            {
+                dfaState = newState;
+            }
+        }
+        return dfaState;
+    }
+
+    /**
+     * Gets the nodes reached from a set of nodes on an Event, grouped by
+     * Event in the order the transitions were added.
+     * <p>
+     * @param nodes
+     * @return targets by Event, before epsilon closure
+     */
+    Map<Event, BitSet> successorsOf(BitSet nodes)
+    {
+        Map<Event, BitSet> successors = new LinkedHashMap<Event, BitSet>();
+        for ( int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1) )
+        {
+            for ( Map.Entry<Event, BitSet> entry : transitions.get(node).entrySet() )
+            {
+                BitSet targets = successors.get(entry.getKey());
+                if ( targets == null )
+                {
+                    targets = new BitSet();
+                    successors.put(entry.getKey(), targets);
+                }
+                targets.or(entry.getValue());
+            }
+        }
+        return successors;
+    }
+
+    String getNodeName(int node)
+    {
+        return nodeNames.get(node);
+    }
+
+    private BitSet closureOf(BitSet nodes)
+    {
+        BitSet closure = (BitSet) nodes.clone();
+        Deque<Integer> stack = new ArrayDeque<Integer>();
+        for ( int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1) )
+        {
+            stack.push(node);
+        }
+        while ( ! stack.isEmpty() )
+        {
+            BitSet epsilonTargets = epsilonTransitions.get(stack.pop());
+            for ( int target = epsilonTargets.nextSetBit(0); target >= 0; target = epsilonTargets.nextSetBit(target + 1) )
+            {
+                if ( ! closure.get(target) )
+                {
+                    closure.set(target);
+                    stack.push(target);
+                }
+            }
+        }
+        return closure;
+    }
+
+    private String nameOf(BitSet nodes)
+    {
+        StringBuilder builder = new StringBuilder(name).append('{');
+        for ( int node = nodes.nextSetBit(0); node >= 0; node = nodes.nextSetBit(node + 1) )
+        {
+            if ( builder.charAt(builder.length() - 1) != '{' )
+            {
+                builder.append(',');
+            }
+            builder.append(nodeNames.get(node));
+        }
+        return builder.append('}').toString();
+    }
+
+    private int checkNode(int node)
+    {
+        if ( node < 0 || node >= nodeNames.size() )
+        {
+            throw new IllegalArgumentException("No node " + node + " in " + name);
+        }
+        return node;
+    }
+
+    private void checkNotCompiled()
+    {
+        if ( compiled )
+        {
+            throw new IllegalStateException(name + " has been compiled");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Nfa(" + name + ", " + nodeNames.size() + " nodes)";
+    }
+}
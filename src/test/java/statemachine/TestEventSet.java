@@ -0,0 +1,139 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import statemachine.TestFiniteStateMachine.AtmEvent;
+import statemachine.TestFiniteStateMachine.AtmState;
+
+public class TestEventSet {
+
+    public static class Gate extends AbstractCompactState {
+
+        private static final long serialVersionUID = 1L;
+        private EventSet inputEvents = EventSet.EMPTY;
+        private StateSet transitionStates = StateSet.EMPTY;
+        private Gate other;
+
+        public Gate(String name) {
+            super(name);
+        }
+
+        public void setOther(Gate other) {
+            this.other = other;
+        }
+
+        @Override
+        public void init() {
+            inputEvents = eventSet(new MockJunctureEvent(getName() + "Toggle"));
+            transitionStates = stateSet(other);
+        }
+
+        @Override
+        public State onTransition(Event event) throws StateMachineException {
+            return other;
+        }
+
+        @Override
+        public EventSet getInputEventSet() {
+            return inputEvents;
+        }
+
+        @Override
+        public StateSet getTransitionStateSet() {
+            return transitionStates;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Gate getThis() {
+            return this;
+        }
+    }
+
+    @Test
+    public void testOf() {
+
+        EventSet events = EventSet.of(AtmEvent.Connected, AtmEvent.LoadFail, AtmEvent.Connected);
+        assertEquals(2, events.size());
+        assertSame(AtmEvent.Connected, events.get(0));
+        assertSame(AtmEvent.LoadFail, events.get(1));
+        assertTrue(events.contains(AtmEvent.LoadFail));
+        assertTrue(events.contains(AtmEvent.LoadFail.id()));
+        assertFalse(events.contains(AtmEvent.StartUp));
+        assertFalse(events.contains(IdentityRegistry.NO_ID));
+        assertSame(EventSet.EMPTY, EventSet.of());
+    }
+
+    @Test
+    public void testEqualEventsAreContained() {
+
+        EventSet events = EventSet.of(new MockJunctureEvent("SetEvent"));
+        assertTrue(events.contains(new MockJunctureEvent("SetEvent")));
+        assertFalse(events.contains(new MockJunctureEvent("OtherSetEvent")));
+    }
+
+    @Test
+    public void testInputEventsOf() {
+
+        AtmState.Loading.init();
+        EventSet events = EventSet.inputEventsOf(AtmState.Loading);
+        assertEquals(AtmState.Loading.getInputEvents().size(), events.size());
+        assertTrue(events.contains(AtmEvent.LoadSuccess));
+
+        StateSet states = StateSet.transitionStatesOf(AtmState.Loading);
+        assertTrue(states.contains(AtmState.InService));
+        assertFalse(states.contains(AtmState.Idle));
+
+        assertSame(EventSet.EMPTY, EventSet.inputEventsOf(new MockJunctureState("NoEvents")));
+    }
+
+    @Test
+    public void testCompactStateMachine() throws StateMachineException {
+
+        Gate open = new Gate("Open");
+        Gate closed = new Gate("Closed");
+        open.setOther(closed);
+        closed.setOther(open);
+
+        FiniteStateMachine fsm = new FiniteStateMachine("Gate");
+        fsm.setup(open);
+        assertEquals(2, fsm.getStateSet().size());
+        assertEquals(2, fsm.getInputEventSet().size());
+        assertSame(fsm.getInputEventSet(), fsm.getInputEventSet());
+        assertEquals(1, open.getInputEvents().size());
+
+        fsm.input(new MockJunctureEvent("ClosedToggle"));
+        assertEquals(open, fsm.getCurrentState());
+
+        fsm.input(new MockJunctureEvent("OpenToggle"));
+        assertEquals(closed, fsm.getCurrentState());
+    }
+
+}
@@ -27,8 +27,18 @@ package statemachine;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Vector;
 
 import org.junit.Before;
@@ -184,6 +194,284 @@ public class TestFiniteStateMachine {
         }
     }
 
+    public enum TurnstileEvent implements Event {
+        Coin, Push,;
+
+        @Override
+        public String getName() {
+
+            return name();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public TurnstileEvent getThis() {
+
+            return this;
+        }
+    }
+
+    public enum TurnstileState implements TableDrivenState {
+        Locked, Unlocked,;
+
+        @Override
+        public String getName() {
+
+            return name();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public TurnstileState getThis() {
+
+            return this;
+        }
+
+        @Override
+        public void init() {}
+
+        @Override
+        public void onEntry(Event event) throws StateMachineException {}
+
+        @Override
+        public State onTransition(Event event) throws StateMachineException {
+
+            throw new StateMachineException("onTransition is not called for a TableDrivenState");
+        }
+
+        @Override
+        public State getTransitionState(Event event) {
+
+            return event == TurnstileEvent.Coin ? Unlocked : Locked;
+        }
+
+        @Override
+        public Vector<State> getTransitionStates() {
+
+            return new Vector<State>(Arrays.asList(values()));
+        }
+
+        @Override
+        public Vector<Event> getInputEvents() {
+
+            Event[] events = { this == Locked ? TurnstileEvent.Coin : TurnstileEvent.Push };
+            return new Vector<Event>(Arrays.asList(events));
+        }
+    }
+
+    public static class GuardedTurnstile extends AbstractGuardedState {
+
+        private static final long serialVersionUID = 1L;
+        private final boolean[] paid;
+        private GuardedTurnstile other;
+        private int transitionCount = 0;
+
+        public GuardedTurnstile(String name, boolean[] paid) {
+            super(name);
+            this.paid = paid;
+        }
+
+        @Override
+        public void init() {
+
+            if (getName().equals("Locked")) {
+                setTransitions(new GuardedTransition(TurnstileEvent.Coin, event -> paid[0], other));
+            } else {
+                setTransitions(new GuardedTransition(TurnstileEvent.Push, other));
+            }
+        }
+
+        @Override
+        public State onTransition(Event event) throws StateMachineException {
+
+            transitionCount++;
+            return super.onTransition(event);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public GuardedTurnstile getThis() {
+
+            return this;
+        }
+    }
+
+    public static class StepState extends AbstractCompactState implements ActionState {
+
+        private static final long serialVersionUID = 1L;
+        public static final Event GO = new MockJunctureEvent("Go");
+        StepState next;
+        StepState branch;
+        ActionResult transitionResult = ActionResult.PROCEED;
+        ActionResult entryResult = ActionResult.PROCEED;
+        int entryCount = 0;
+
+        public StepState(String name) {
+            super(name);
+        }
+
+        @Override
+        public ActionResult onTransitionAction(Event event) {
+            return transitionResult;
+        }
+
+        @Override
+        public ActionResult onEntryAction(Event event) {
+            entryCount++;
+            return entryResult;
+        }
+
+        @Override
+        public State getBranchState(Event event) {
+            return branch;
+        }
+
+        @Override
+        public State getTransitionState(Event event) {
+            return next;
+        }
+
+        @Override
+        public State onTransition(Event event) throws StateMachineException {
+            return next;
+        }
+
+        @Override
+        public EventSet getInputEventSet() {
+            return next != null ? eventSet(GO) : EventSet.EMPTY;
+        }
+
+        @Override
+        public StateSet getTransitionStateSet() {
+            return branch != null ? stateSet(next, branch) : next != null ? stateSet(next) : StateSet.EMPTY;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public StepState getThis() {
+            return this;
+        }
+    }
+
+    public static class ParityState extends AbstractCompactState implements PureState {
+
+        private static final long serialVersionUID = 1L;
+        public static final Event FLIP = new MockJunctureEvent("Flip");
+        public static final Event HOLD = new MockJunctureEvent("Hold");
+        ParityState other;
+        int transitionCount = 0;
+
+        public ParityState(String name) {
+            super(name);
+        }
+
+        @Override
+        public State onTransition(Event event) throws StateMachineException {
+            transitionCount++;
+            return event.equals(FLIP) ? other : this;
+        }
+
+        @Override
+        public EventSet getInputEventSet() {
+            return eventSet(FLIP, HOLD);
+        }
+
+        @Override
+        public StateSet getTransitionStateSet() {
+            return stateSet(other, this);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public ParityState getThis() {
+            return this;
+        }
+    }
+
+    public static class TallyState extends AbstractCompactState implements ContextState, PureState {
+
+        private static final long serialVersionUID = 1L;
+        public static final Event DIME = new MockJunctureEvent("Dime");
+        public static final Event VEND = new MockJunctureEvent("Vend");
+        public static final int CREDIT_SLOT = 0;
+        public static final int COIN_COUNT_SLOT = 0;
+        public static final int PRICE = 25;
+        TallyState vending;
+
+        public TallyState(String name) {
+            super(name);
+        }
+
+        @Override
+        public State onTransition(Event event, MachineContext context) throws StateMachineException {
+            if (event.equals(DIME)) {
+                context.addInt(CREDIT_SLOT, 10);
+                context.addLong(COIN_COUNT_SLOT, 1);
+                return this;
+            }
+            return context.getInt(CREDIT_SLOT) >= PRICE ? vending : this;
+        }
+
+        @Override
+        public void onEntry(Event event, MachineContext context) {
+            if (event.equals(VEND) && vending == null) {
+                context.addInt(CREDIT_SLOT, -PRICE);
+            }
+        }
+
+        @Override
+        public State onTransition(Event event) throws StateMachineException {
+            throw new StateMachineException("Needs a MachineContext");
+        }
+
+        @Override
+        public EventSet getInputEventSet() {
+            return eventSet(DIME, VEND);
+        }
+
+        @Override
+        public StateSet getTransitionStateSet() {
+            return vending != null ? stateSet(this, vending) : stateSet(this);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public TallyState getThis() {
+            return this;
+        }
+    }
+
+    public static class CountingMachine extends FiniteStateMachine {
+
+        private static final long serialVersionUID = 1L;
+        private int count = 0;
+
+        public CountingMachine(String name, MachineDefinition definition) {
+            super(name, definition);
+        }
+
+        @Override
+        public synchronized void input(Event event) throws StateMachineException {
+            count++;
+            super.input(event);
+        }
+
+        @Override
+        protected void writeExtendedState(DataOutput out) throws IOException {
+            Varint.writeInt(out, count);
+        }
+
+        @Override
+        protected void readExtendedState(DataInput in) throws IOException {
+            count = Varint.readInt(in);
+        }
+
+        @Override
+        protected void resetExtendedState() {
+            count = 0;
+        }
+    }
+
     private static FiniteStateMachine fsm = new FiniteStateMachine("Fsm");
 
     @Before
@@ -233,6 +521,350 @@ public class TestFiniteStateMachine {
 
     }
 
+    @Test
+    public void testInputTableDriven() throws StateMachineException {
+
+        FiniteStateMachine turnstile = new FiniteStateMachine("Turnstile");
+        turnstile.setup(TurnstileState.Locked);
+
+        // Not a transition event for Locked State
+        turnstile.input(TurnstileEvent.Push);
+        assertEquals(TurnstileState.Locked, turnstile.getCurrentState());
+        assertNull(turnstile.getLatestEvent());
+
+        turnstile.input(TurnstileEvent.Coin);
+        assertEquals(TurnstileState.Unlocked, turnstile.getCurrentState());
+
+        turnstile.input(TurnstileEvent.Push);
+        assertEquals(TurnstileState.Locked, turnstile.getCurrentState());
+        assertEquals(TurnstileEvent.Push, turnstile.getLatestEvent());
+    }
+
+    @Test
+    public void testInputGuarded() throws StateMachineException {
+
+        boolean[] paid = { false };
+        GuardedTurnstile locked = new GuardedTurnstile("Locked", paid);
+        GuardedTurnstile unlocked = new GuardedTurnstile("Unlocked", paid);
+        locked.other = unlocked;
+        unlocked.other = locked;
+
+        FiniteStateMachine turnstile = new FiniteStateMachine("Turnstile");
+        turnstile.setup(locked);
+        TransitionTable table = turnstile.getDefinition().getTransitionTable();
+        assertEquals(TransitionTable.GUARDED,
+                table.next(table.indexOf(locked), table.indexOf(TurnstileEvent.Coin)));
+
+        // The guard does not pass
+        assertFalse(turnstile.accepts(TurnstileEvent.Coin));
+        turnstile.input(TurnstileEvent.Coin);
+        assertEquals(locked, turnstile.getCurrentState());
+        assertNull(turnstile.getLatestEvent());
+
+        paid[0] = true;
+        assertTrue(turnstile.accepts(TurnstileEvent.Coin));
+        turnstile.input(TurnstileEvent.Coin);
+        assertEquals(unlocked, turnstile.getCurrentState());
+
+        assertFalse(turnstile.accepts(TurnstileEvent.Coin));
+        turnstile.input(TurnstileEvent.Push);
+        assertEquals(locked, turnstile.getCurrentState());
+
+        // The guards were evaluated by the FiniteStateMachine
+        assertEquals(0, locked.transitionCount);
+        assertEquals(0, unlocked.transitionCount);
+    }
+
+    @Test
+    public void testInputBatch() throws StateMachineException {
+
+        // StartUp and ConnectionClosed are not transition events at that point
+        Event[] events = { AtmEvent.StartUp, AtmEvent.Connected, AtmEvent.LoadSuccess,
+                           AtmEvent.ConnectionClosed, AtmEvent.ShutDown };
+
+        InputResult result = fsm.input(events, 0, events.length);
+        assertEquals(3, result.getAppliedCount());
+        assertEquals(AtmState.OutOfService, result.getFinalState());
+        assertEquals(AtmState.OutOfService, fsm.getCurrentState());
+        assertEquals(AtmEvent.ShutDown, fsm.getLatestEvent());
+
+        result = fsm.input(Arrays.<Event>asList(AtmEvent.StartUp, AtmEvent.ConnectionLost));
+        assertEquals(2, result.getAppliedCount());
+        assertEquals(AtmState.Disconnected, result.getFinalState());
+    }
+
+    @Test
+    public void testInputActions() throws StateMachineException {
+
+        StepState idle = new StepState("Idle");
+        StepState working = new StepState("Working");
+        StepState failed = new StepState("Failed");
+        idle.next = working;
+        idle.branch = failed;
+        working.next = failed;
+        failed.next = idle;
+
+        FiniteStateMachine machine = new FiniteStateMachine("Steps");
+        machine.setup(idle);
+        TransitionTable table = machine.getDefinition().getTransitionTable();
+        assertTrue(table.hasActionStates());
+        assertEquals(table.indexOf(failed), table.branch(table.indexOf(idle), table.indexOf(StepState.GO)));
+
+        idle.transitionResult = ActionResult.STAY;
+        assertTrue(machine.input(new Event[] { StepState.GO }, 0, 1).getAppliedCount() == 1);
+        assertEquals(idle, machine.getCurrentState());
+        assertEquals(0, idle.entryCount);
+
+        idle.transitionResult = ActionResult.ABORT;
+        machine.input(StepState.GO);
+        assertEquals(idle, machine.getCurrentState());
+
+        // The entry action rolls back to Idle
+        idle.transitionResult = ActionResult.PROCEED;
+        working.entryResult = ActionResult.ABORT;
+        machine.input(StepState.GO);
+        assertEquals(idle, machine.getCurrentState());
+        assertEquals(1, working.entryCount);
+
+        idle.transitionResult = ActionResult.BRANCH;
+        machine.input(StepState.GO);
+        assertEquals(failed, machine.getCurrentState());
+        assertEquals(StepState.GO, machine.getLatestEvent());
+
+        failed.transitionResult = ActionResult.RESTART;
+        machine.input(StepState.GO);
+        assertEquals(idle, machine.getCurrentState());
+        assertNull(machine.getLatestEvent());
+        assertEquals(0, idle.entryCount);
+    }
+
+    @Test
+    public void testTransitionListener() throws StateMachineException {
+
+        final List<String> heard = new ArrayList<String>();
+        TransitionListener transitionListener = new TransitionListener() {
+
+            @Override
+            public void onExit(StateMachine stateMachine, int stateId, int eventId) {
+                heard.add("exit " + IdentityRegistry.getState(stateId));
+            }
+
+            @Override
+            public void onTransition(StateMachine stateMachine, int fromStateId, int toStateId, int eventId) {
+                heard.add(IdentityRegistry.getState(fromStateId) + " to " + IdentityRegistry.getState(toStateId)
+                          + " on " + IdentityRegistry.getEvent(eventId));
+            }
+
+            @Override
+            public void onEnter(StateMachine stateMachine, int stateId, int eventId) {
+                heard.add("enter " + IdentityRegistry.getState(stateId));
+            }
+
+            @Override
+            public void onRejected(StateMachine stateMachine, int stateId, int eventId) {
+                heard.add("reject " + IdentityRegistry.getEvent(eventId));
+            }
+        };
+        fsm.addTransitionListener(transitionListener);
+        try {
+            fsm.input(AtmEvent.StartUp);
+            fsm.input(AtmEvent.Connected);
+        } finally {
+            fsm.removeTransitionListener(transitionListener);
+        }
+        fsm.input(AtmEvent.LoadSuccess);
+
+        assertEquals(Arrays.asList("reject StartUp", "exit Idle", "Idle to Loading on Connected", "enter Loading"),
+                     heard);
+    }
+
+    @Test
+    public void testSetupLazilyActions() throws StateMachineException {
+
+        StepState idle = new StepState("Idle");
+        StepState working = new StepState("Working");
+        idle.next = working;
+        working.next = idle;
+        idle.transitionResult = ActionResult.STAY;
+
+        // An ActionState completes the setup, so its ActionResults are acted on
+        FiniteStateMachine machine = new FiniteStateMachine("Steps");
+        machine.setupLazily(idle);
+        machine.input(StepState.GO);
+        assertFalse(machine.isLazy());
+        assertEquals(idle, machine.getCurrentState());
+        assertEquals(0, working.entryCount);
+
+        idle.transitionResult = ActionResult.PROCEED;
+        working.entryResult = ActionResult.ABORT;
+        machine.input(StepState.GO);
+        assertEquals(idle, machine.getCurrentState());
+        assertEquals(1, working.entryCount);
+    }
+
+    @Test
+    public void testSetupLazilyPure() throws StateMachineException {
+
+        ParityState even = new ParityState("Even");
+        ParityState odd = new ParityState("Odd");
+        even.other = odd;
+        odd.other = even;
+
+        FiniteStateMachine machine = new FiniteStateMachine("Parity");
+        machine.setupLazily(even);
+        for (int count = 0; count < 4; count++) {
+            machine.input(ParityState.FLIP);
+        }
+        assertFalse(machine.isLazy());
+        assertEquals(even, machine.getCurrentState());
+        assertEquals(1, even.transitionCount);
+        assertEquals(1, odd.transitionCount);
+    }
+
+    @Test
+    public void testInputPure() throws StateMachineException {
+
+        ParityState even = new ParityState("Even");
+        ParityState odd = new ParityState("Odd");
+        even.other = odd;
+        odd.other = even;
+
+        MachineDefinition definition = MachineDefinition.build(even);
+        FiniteStateMachine first = definition.newInstance("First");
+        FiniteStateMachine second = definition.newInstance("Second");
+        for (int count = 0; count < 3; count++) {
+            first.input(ParityState.FLIP);
+            second.input(ParityState.FLIP);
+            second.input(ParityState.HOLD);
+        }
+        assertEquals(odd, first.getCurrentState());
+        assertEquals(odd, second.getCurrentState());
+
+        // Each (State, Event) pair was delegated once for both machines
+        assertEquals(2, even.transitionCount);
+        assertEquals(2, odd.transitionCount);
+
+        // A new definition remembers nothing
+        first.setup(even);
+        first.input(ParityState.FLIP);
+        assertEquals(3, even.transitionCount);
+    }
+
+    @Test
+    public void testInputContext() throws StateMachineException, IOException {
+
+        TallyState collecting = new TallyState("Collecting");
+        TallyState vended = new TallyState("Vended");
+        collecting.vending = vended;
+        vended.vending = null;
+        MachineDefinition definition = MachineDefinition.build(collecting).withSlots(1, 1, 0);
+        assertNotEquals(MachineDefinition.build(collecting).getFingerprint(), definition.getFingerprint());
+
+        FiniteStateMachine first = definition.newInstance("First");
+        FiniteStateMachine second = definition.newInstance("Second");
+        first.input(TallyState.DIME);
+        first.input(TallyState.DIME);
+        first.input(TallyState.VEND);
+        assertEquals(collecting, first.getCurrentState());
+        first.input(TallyState.DIME);
+        second.input(TallyState.DIME);
+
+        // Being a ContextState, Collecting was not memoized though it is a PureState
+        first.input(TallyState.VEND);
+        assertEquals(vended, first.getCurrentState());
+        assertEquals(5, first.getContext().getInt(TallyState.CREDIT_SLOT));
+        assertEquals(3, first.getContext().getLong(TallyState.COIN_COUNT_SLOT));
+        assertEquals(10, second.getContext().getInt(TallyState.CREDIT_SLOT));
+
+        // The slots go with a snapshot
+        FiniteStateMachine restored = new FiniteStateMachine("Restored");
+        restored.restoreSnapshot(new DataInputStream(new ByteArrayInputStream(snapshotOf(first))), definition);
+        assertEquals(vended, restored.getCurrentState());
+        assertEquals(5, restored.getContext().getInt(TallyState.CREDIT_SLOT));
+        assertEquals(3, restored.getContext().getLong(TallyState.COIN_COUNT_SLOT));
+
+        first.setup(definition);
+        assertEquals(0, first.getContext().getInt(TallyState.CREDIT_SLOT));
+    }
+
+    @Test
+    public void testSnapshot() throws StateMachineException, IOException {
+
+        fsm.input(AtmEvent.Connected);
+        fsm.input(AtmEvent.LoadFail);
+        byte[] snapshot = snapshotOf(fsm);
+        assertEquals(11, snapshot.length);
+
+        // Restored against the same definition, without setup
+        MachineDefinition definition = fsm.getDefinition();
+        FiniteStateMachine restored = new FiniteStateMachine("Restored");
+        restored.restoreSnapshot(new DataInputStream(new ByteArrayInputStream(snapshot)), definition);
+        assertSame(definition, restored.getDefinition());
+        assertEquals(AtmState.OutOfService, restored.getCurrentState());
+        assertEquals(AtmEvent.LoadFail, restored.getLatestEvent());
+        restored.input(AtmEvent.StartUp);
+        assertEquals(AtmState.InService, restored.getCurrentState());
+
+        // The fingerprint does not depend on the process that built the definition
+        assertEquals(definition.getFingerprint(), MachineDefinition.build(AtmState.Idle).getFingerprint());
+
+        CountingMachine counting = new CountingMachine("Counting", definition);
+        counting.input(AtmEvent.Connected);
+        counting.input(AtmEvent.StartUp);
+        CountingMachine restoredCounting = new CountingMachine("Restored", definition);
+        restoredCounting.restoreSnapshot(new DataInputStream(new ByteArrayInputStream(snapshotOf(counting))),
+                                         definition);
+        assertEquals(2, restoredCounting.count);
+        assertEquals(AtmState.Loading, restoredCounting.getCurrentState());
+
+        try {
+            restored.restoreSnapshot(new DataInputStream(new ByteArrayInputStream(snapshot)),
+                                     MachineDefinition.build(TurnstileState.Locked));
+            fail("Restored against another definition");
+        } catch (InvalidObjectException e) {
+            assertEquals(AtmState.InService, restored.getCurrentState());
+        }
+    }
+
+    @Test
+    public void testResetExtendedState() throws StateMachineException {
+
+        CountingMachine counting = new CountingMachine("Counting", MachineDefinition.build(AtmState.Idle));
+        counting.input(AtmEvent.Connected);
+        counting.input(AtmEvent.StartUp);
+        assertEquals(2, counting.count);
+
+        counting.reset();
+        assertEquals(AtmState.Idle, counting.getCurrentState());
+        assertEquals(0, counting.count);
+    }
+
+    @Test
+    public void testVarint() throws IOException {
+
+        int[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1 };
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int size = 0;
+        for (int value : values) {
+            Varint.writeInt(out, value);
+            size += Varint.sizeOf(value);
+        }
+        assertEquals(1 + 1 + 1 + 2 + 2 + 3 + 5 + 5, size);
+        assertEquals(size, bytes.size());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int value : values) {
+            assertEquals(value, Varint.readInt(in));
+        }
+    }
+
+    private static byte[] snapshotOf(FiniteStateMachine machine) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        machine.writeSnapshot(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
     @Test
     public void testGetCurrentState() {
 
@@ -27,8 +27,15 @@ package statemachine;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Vector;
 
@@ -179,10 +186,32 @@ public class TestGeneralStateMachineContainer
             if ( coinBox.enoughForSoda() ) return offeringCredit;
 	    return this;
 	}
+	public CoinBox getCoinBox() { return coinBox; }
 	@SuppressWarnings("unchecked")
 	public CollectingCoins getThis() { return this; }
     }
 
+    public class BulkCollectingCoins extends CollectingCoins implements BulkState {
+
+	private static final long serialVersionUID = 1L;
+	private int entryCount = 0;
+
+	public BulkCollectingCoins(CoinBox coinBox) { super(coinBox); }
+	public void onEntry(Event event) { entryCount++; }
+	public int getEntryCount() { return entryCount; }
+	public int onSelfTransitions(Event[] events, int from, int to) {
+
+	    CoinBox coinBox = getCoinBox();
+	    int index = from;
+	    for ( ; index < to && events[index] instanceof Coin; index++ ) {
+	        Coin coin = events[index].getThis();
+	        if ( coinBox.getCoinTotal() + coin.getValue() >= coinBox.sodaCost ) break;
+	        coinBox.addCoin(coin);
+	    }
+	    return index;
+	}
+    }
+
     // soda dispenser
     class CreditTally {
         
@@ -394,6 +423,241 @@ public class TestGeneralStateMachineContainer
         
     }
 
+    @Test
+    public void testTriggersSeeRejectedEvents() throws StateMachineException {
+
+        final List<StateMachine> checked = new ArrayList<StateMachine>();
+        gsmc.addTrigger(triggerHandle, new Trigger() {
+
+            @Override
+            public boolean isActive(StateMachine stateMachine) {
+                checked.add(stateMachine);
+                return false;
+            }
+
+            @Override
+            public boolean isDone() {
+                return false;
+            }
+
+            @Override
+            public Event getEvent() {
+                return null;
+            }
+        });
+        addStateMachines();
+
+        // OfferingCredit does not accept the Dime, but the Trigger is checked
+        normalQueue.offer(Coin.Dollar);
+        normalQueue.offer(Coin.Dime);
+        gsmc.deliverNextEvent();
+        gsmc.deliverNextEvent();
+        assertEquals("OfferingCredit", moneyCollector.getCurrentState().getName());
+        assertEquals(Arrays.<StateMachine>asList(moneyCollector, moneyCollector), checked);
+    }
+
+    @Test
+    public void testDeliverNextEvents() throws StateMachineException {
+
+        BulkCollectingCoins bulkCollectingCoins = new BulkCollectingCoins(coinBox);
+        FiniteStateMachine bulkMoneyCollector = new FiniteStateMachine("MoneyCollector");
+        bulkMoneyCollector.setup(bulkCollectingCoins);
+        gsmc.addStateMachine(bulkMoneyCollector);
+        
+        normalQueue.offer(Coin.Dime);
+        normalQueue.offer(Coin.Dime);
+        normalQueue.offer(Coin.Quarter);
+        normalQueue.offer(Coin.Dollar);
+        assertTrue(gsmc.deliverNextEvents(10));
+        assertTrue(normalQueue.isEmpty());
+        
+        // The first three coins are one self-transition; the Dollar is input normally
+        assertEquals(1, bulkCollectingCoins.getEntryCount());
+        assertEquals(145, coinBox.getCoinTotal());
+        assertEquals("OfferingCredit", bulkMoneyCollector.getCurrentState().getName());
+        assertEquals(Coin.Dollar, bulkMoneyCollector.getLatestEvent());
+        assertFalse(gsmc.deliverNextEvents(10));
+    }
+
+    @Test
+    public void testDeliverNextEventsLongRun() throws StateMachineException {
+
+        BulkCollectingCoins bulkCollectingCoins = new BulkCollectingCoins(coinBox);
+        FiniteStateMachine bulkMoneyCollector = new FiniteStateMachine("MoneyCollector");
+        bulkMoneyCollector.setup(bulkCollectingCoins);
+        gsmc.addStateMachine(bulkMoneyCollector);
+
+        for (int count = 0; count < 20; count++) {
+            normalQueue.offer(Coin.Dime);
+        }
+        // A run longer than its first array still stops at maxEvents
+        assertTrue(gsmc.deliverNextEvents(12));
+        assertEquals(8, normalQueue.size());
+        assertTrue(gsmc.deliverNextEvents(12));
+        assertTrue(normalQueue.isEmpty());
+    }
+
+    @Test
+    public void testEventTap() throws StateMachineException {
+
+        final List<Event> tapped = new ArrayList<Event>();
+        gsmc.addEventTap(new EventTap() {
+
+            @Override
+            public void onDelivered(Event event, StateMachine stateMachine, EventSender eventSender) {
+                tapped.add(event);
+                assertEquals(moneyCollector, stateMachine);
+            }
+        });
+        gsmc.addStateMachine(moneyCollector);
+
+        normalQueue.offer(Coin.Dime);
+        normalQueue.offer(Return.Coins);
+        normalQueue.offer(new SelectedSoda());
+        gsmc.deliverNextEvent();
+        gsmc.deliverNextEvent();
+        gsmc.deliverNextEvent();
+
+        // No StateMachine takes SelectedSoda
+        assertEquals(Arrays.<Event>asList(Coin.Dime, Return.Coins), tapped);
+    }
+
+    @Test
+    public void testSerializeWithEventTap() throws Exception {
+
+        FiniteStateMachine atm = new FiniteStateMachine("Atm");
+        atm.setup(TestFiniteStateMachine.AtmState.Idle);
+        gsmc.addStateMachine(atm);
+        gsmc.addEventTap(new EventTap() {
+
+            @Override
+            public void onDelivered(Event event, StateMachine stateMachine, EventSender eventSender) {
+            }
+        });
+
+        // EventTaps are left behind, and more may be added to the copy
+        GeneralStateMachineContainer copy = copyOf(gsmc);
+        assertNotNull(copy.findStateMachine("Atm"));
+        copy.addEventTap(new EventTap() {
+
+            @Override
+            public void onDelivered(Event event, StateMachine stateMachine, EventSender eventSender) {
+            }
+        });
+    }
+
+    @Test
+    public void testSerializeWithTransitionListener() throws Exception {
+
+        FiniteStateMachine atm = new FiniteStateMachine("Atm");
+        atm.setup(TestFiniteStateMachine.AtmState.Idle);
+        gsmc.addStateMachine(atm);
+        gsmc.addTransitionListener(new TransitionListener() {
+        });
+
+        final List<Integer> entered = new ArrayList<Integer>();
+        GeneralStateMachineContainer copy = copyOf(gsmc);
+        copy.addTransitionListener(new TransitionListener() {
+
+            @Override
+            public void onEnter(StateMachine stateMachine, int stateId, int eventId) {
+                entered.add(stateId);
+            }
+        });
+        copy.findStateMachine("Atm").input(TestFiniteStateMachine.AtmEvent.Connected);
+        assertEquals(Arrays.asList(TestFiniteStateMachine.AtmState.Loading.id()), entered);
+    }
+
+    private static GeneralStateMachineContainer copyOf(GeneralStateMachineContainer container)
+            throws IOException, ClassNotFoundException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(container);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return (GeneralStateMachineContainer) in.readObject();
+    }
+
+    @Test
+    public void testTransitionListener() throws StateMachineException {
+
+        final int[] transitionCount = { 0 };
+        TransitionListener transitionListener = new TransitionListener() {
+
+            @Override
+            public void onTransition(StateMachine stateMachine, int fromStateId, int toStateId, int eventId) {
+                assertEquals(moneyCollector, stateMachine);
+                assertEquals(Coin.Dime, IdentityRegistry.getEvent(eventId));
+                transitionCount[0]++;
+            }
+        };
+        gsmc.addTransitionListener(transitionListener);
+        gsmc.addStateMachine(moneyCollector);
+
+        normalQueue.offer(Coin.Dime);
+        gsmc.deliverNextEvent();
+        assertEquals(1, transitionCount[0]);
+
+        // Removing the StateMachine removes the container's TransitionListeners from it
+        gsmc.removeStateMachine(moneyCollector);
+        moneyCollector.input(Coin.Dime);
+        assertEquals(1, transitionCount[0]);
+    }
+
+    @Test
+    public void testTransitionListenerSeesRejectedEvents() throws StateMachineException {
+
+        final List<Event> rejected = new ArrayList<Event>();
+        gsmc.addTransitionListener(new TransitionListener() {
+
+            @Override
+            public void onRejected(StateMachine stateMachine, int stateId, int eventId) {
+                assertEquals(moneyCollector, stateMachine);
+                assertEquals("OfferingCredit", IdentityRegistry.getState(stateId).getName());
+                rejected.add(IdentityRegistry.getEvent(eventId));
+            }
+        });
+        gsmc.addStateMachine(moneyCollector);
+
+        // OfferingCredit does not accept the Dime, so the listener hears it rejected
+        normalQueue.offer(Coin.Dollar);
+        normalQueue.offer(Coin.Dime);
+        gsmc.deliverNextEvent();
+        gsmc.deliverNextEvent();
+        assertEquals("OfferingCredit", moneyCollector.getCurrentState().getName());
+        assertEquals(Arrays.<Event>asList(Coin.Dime), rejected);
+    }
+
+    @Test
+    public void testTransitionListenerWithArenaInstance() throws StateMachineException {
+
+        gsmc.addTransitionListener(new TransitionListener() {
+        });
+        MachineArena arena = new MachineArena("Atms", MachineDefinition.build(TestFiniteStateMachine.AtmState.Idle), 2);
+        StateMachine atm = arena.getStateMachine(1);
+        gsmc.addStateMachine(atm);
+        assertEquals(atm, gsmc.findStateMachine("Atms[1]"));
+
+        normalQueue.offer(TestFiniteStateMachine.AtmEvent.Connected);
+        gsmc.deliverNextEvent();
+        assertEquals(TestFiniteStateMachine.AtmState.Loading, arena.getCurrentState(1));
+    }
+
+    @Test
+    public void testAddNullTransitionListener() {
+
+        gsmc.addStateMachine(moneyCollector);
+        try {
+            gsmc.addTransitionListener(null);
+            fail("Expected NullPointerException");
+        } catch (NullPointerException e) {
+            // The container is left as it was
+        }
+        gsmc.addStateMachine(sodaDispenser);
+        assertEquals(sodaDispenser, gsmc.findStateMachine("SodaDispenser"));
+    }
+
     @Test
     public void testAddTrigger() {
 
@@ -0,0 +1,259 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHierarchicalStateMachine {
+
+    public static class Node extends AbstractCompactState implements HierarchicalState {
+
+        private static final long serialVersionUID = 1L;
+        private final Node parent;
+        private final List<String> log;
+        private final Map<Event, Node> transitions = new LinkedHashMap<Event, Node>();
+        private Node initialSubstate;
+        private EventSet inputEvents = EventSet.EMPTY;
+        private StateSet transitionStates = StateSet.EMPTY;
+
+        public Node(String name, Node parent, List<String> log) {
+            super(name);
+            this.parent = parent;
+            this.log = log;
+            if (parent != null && parent.initialSubstate == null) {
+                parent.initialSubstate = this;
+            }
+        }
+
+        public Node on(Event event, Node next) {
+            transitions.put(event, next);
+            return this;
+        }
+
+        @Override
+        public void init() {
+            inputEvents = EventSet.copyOf(transitions.keySet());
+            transitionStates = StateSet.copyOf(transitions.values());
+        }
+
+        @Override
+        public State getParentState() {
+            return parent;
+        }
+
+        @Override
+        public State getInitialSubstate() {
+            return initialSubstate;
+        }
+
+        @Override
+        public void onEntry(Event event) {
+            log.add("enter " + getName());
+        }
+
+        @Override
+        public void onExit(Event event) {
+            log.add("exit " + getName());
+        }
+
+        @Override
+        public State onTransition(Event event) throws StateMachineException {
+            return transitions.get(event);
+        }
+
+        @Override
+        public EventSet getInputEventSet() {
+            return inputEvents;
+        }
+
+        @Override
+        public StateSet getTransitionStateSet() {
+            return transitionStates;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Node getThis() {
+            return this;
+        }
+    }
+
+    private static final Event PLAY = new MockJunctureEvent("Play");
+    private static final Event PAUSE = new MockJunctureEvent("Pause");
+    private static final Event STOP = new MockJunctureEvent("Stop");
+    private static final Event SERVICE = new MockJunctureEvent("Service");
+    private static final Event POWER_OFF = new MockJunctureEvent("PowerOff");
+    private static final Event POWER_ON = new MockJunctureEvent("PowerOn");
+
+    private final List<String> log = new ArrayList<String>();
+    private Node off;
+    private Node powered;
+    private Node stopped;
+    private Node playing;
+    private Node paused;
+    private HierarchicalStateMachine machine;
+
+    @Before
+    public void setUp() {
+        off = new Node("Off", null, log);
+        powered = new Node("Powered", null, log);
+        stopped = new Node("Stopped", powered, log);
+        playing = new Node("Playing", powered, log);
+        paused = new Node("Paused", powered, log);
+
+        off.on(POWER_ON, powered);
+        powered.on(POWER_OFF, off).on(SERVICE, powered);
+        stopped.on(PLAY, playing);
+        playing.on(PAUSE, paused).on(STOP, stopped);
+        paused.on(PLAY, playing).on(STOP, stopped);
+
+        machine = new HierarchicalStateMachine("Player");
+        machine.setup(powered);
+    }
+
+    @Test
+    public void testSetup() {
+        assertEquals(stopped, machine.getCurrentState());
+        assertTrue(machine.isInState(powered));
+        assertFalse(machine.isInState(off));
+        assertEquals(5, machine.getStates().length);
+        assertEquals(6, machine.getInputEvents().length);
+        assertTrue(log.isEmpty());
+    }
+
+    @Test
+    public void testInputSubstate() throws StateMachineException {
+        machine.input(PLAY);
+        assertEquals(playing, machine.getCurrentState());
+        assertEquals(PLAY, machine.getLatestEvent());
+        assertEquals(Arrays.asList("exit Stopped", "enter Playing"), log);
+
+        // rejected by Playing and by Powered
+        machine.input(PLAY);
+        assertEquals(playing, machine.getCurrentState());
+        assertEquals(2, log.size());
+    }
+
+    @Test
+    public void testInputBubblesToParent() throws StateMachineException {
+        machine.input(PLAY);
+        log.clear();
+
+        machine.input(POWER_OFF);
+        assertEquals(off, machine.getCurrentState());
+        assertEquals(Arrays.asList("exit Playing", "exit Powered", "enter Off"), log);
+
+        log.clear();
+        machine.input(POWER_ON);
+        assertEquals(stopped, machine.getCurrentState());
+        assertEquals(Arrays.asList("exit Off", "enter Powered", "enter Stopped"), log);
+    }
+
+    @Test
+    public void testInputTransitionToParent() throws StateMachineException {
+        machine.input(PLAY);
+        machine.input(PAUSE);
+        log.clear();
+
+        machine.input(SERVICE);
+        assertEquals(stopped, machine.getCurrentState());
+        assertEquals(Arrays.asList("exit Paused", "exit Powered", "enter Powered", "enter Stopped"), log);
+    }
+
+    @Test
+    public void testTransitionListener() throws StateMachineException {
+        final List<String> heard = new ArrayList<String>();
+        machine.addTransitionListener(new TransitionListener() {
+
+            @Override
+            public void onExit(StateMachine stateMachine, int stateId, int eventId) {
+                heard.add("exit " + IdentityRegistry.getState(stateId));
+            }
+
+            @Override
+            public void onTransition(StateMachine stateMachine, int fromStateId, int toStateId, int eventId) {
+                heard.add(IdentityRegistry.getState(fromStateId) + " to " + IdentityRegistry.getState(toStateId));
+            }
+
+            @Override
+            public void onEnter(StateMachine stateMachine, int stateId, int eventId) {
+                heard.add("enter " + IdentityRegistry.getState(stateId));
+            }
+        });
+
+        machine.input(POWER_OFF);
+        machine.input(POWER_ON);
+        assertEquals(Arrays.asList("exit Stopped", "exit Powered", "Stopped to Off", "enter Off",
+                                   "exit Off", "Off to Stopped", "enter Powered", "enter Stopped"), heard);
+    }
+
+    @Test
+    public void testInputBatch() throws StateMachineException {
+        InputResult result = machine.input(Arrays.asList(PLAY, PLAY, PAUSE, POWER_OFF, STOP));
+        assertEquals(3, result.getAppliedCount());
+        assertEquals(off, result.getFinalState());
+    }
+
+    @Test
+    public void testSharedHierarchy() throws StateMachineException {
+        HierarchicalStateMachine other = new HierarchicalStateMachine("Other", machine.getHierarchy());
+        assertEquals(stopped, other.getCurrentState());
+
+        other.input(POWER_OFF);
+        assertEquals(off, other.getCurrentState());
+        assertEquals(stopped, machine.getCurrentState());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInitialSubstateNotNested() {
+        Node outer = new Node("Outer", null, log);
+        Node inner = new Node("Inner", null, log);
+        outer.initialSubstate = inner;
+        StateHierarchy.build(outer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testContextStates() {
+        new HierarchicalStateMachine("Tally").setup(new TestFiniteStateMachine.TallyState("Collecting"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testActionStates() {
+        TestFiniteStateMachine.StepState idle = new TestFiniteStateMachine.StepState("Idle");
+        idle.next = idle;
+        new HierarchicalStateMachine("Step", StateHierarchy.build(idle));
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+
+import statemachine.TestFiniteStateMachine.AtmEvent;
+import statemachine.TestFiniteStateMachine.AtmState;
+
+public class TestIdentityRegistry {
+
+    @Test
+    public void testEqualEventsShareId() {
+
+        Event one = new MockJunctureEvent("RegistryEvent");
+        Event two = new MockJunctureEvent("RegistryEvent");
+        Event other = new MockJunctureEvent("OtherRegistryEvent");
+
+        assertEquals(one.id(), two.id());
+        assertNotEquals(one.id(), other.id());
+        assertEquals(one.id(), IdentityRegistry.idOf(two));
+    }
+
+    @Test
+    public void testEqualStatesShareId() {
+
+        State one = new MockJunctureState("RegistryState");
+        State two = new MockJunctureState("RegistryState");
+
+        assertEquals(one.id(), two.id());
+        assertNotEquals(AtmState.Idle.id(), AtmState.Loading.id());
+    }
+
+    @Test
+    public void testGetById() {
+
+        assertSame(AtmEvent.Connected, IdentityRegistry.getEvent(AtmEvent.Connected.id()));
+        assertSame(AtmState.Idle, IdentityRegistry.getState(AtmState.Idle.id()));
+        assertNull(IdentityRegistry.getEvent(IdentityRegistry.NO_ID));
+        assertTrue(AtmEvent.Connected.id() < IdentityRegistry.getEventCount());
+    }
+
+    @Test
+    public void testPeekId() throws StateMachineException {
+
+        FiniteStateMachine machine = new FiniteStateMachine("Atm");
+        machine.setup(AtmState.Idle);
+        assertEquals(AtmEvent.Connected.id(), AtmEvent.Connected.peekId());
+
+        // Input of an Event no definition knows leaves it unregistered
+        Event foreign = new MockJunctureEvent("ForeignEvent");
+        int eventCount = IdentityRegistry.getEventCount();
+        machine.input(foreign);
+        assertFalse(machine.accepts(foreign));
+        assertEquals(IdentityRegistry.NO_ID, foreign.peekId());
+        assertEquals(eventCount, IdentityRegistry.getEventCount());
+
+        int id = foreign.id();
+        assertEquals(id, foreign.peekId());
+        assertEquals(id, IdentityRegistry.peekId(new MockJunctureEvent("ForeignEvent")));
+    }
+
+    @Test
+    public void testIdAfterDeserialization() throws Exception {
+
+        MockJunctureEvent event = new MockJunctureEvent("SerializedEvent");
+        int id = event.id();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(event);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Event copy = (Event) in.readObject();
+
+        assertEquals(id, copy.id());
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import statemachine.TestFiniteStateMachine.AtmEvent;
+import statemachine.TestFiniteStateMachine.AtmState;
+import statemachine.TestFiniteStateMachine.ParityState;
+import statemachine.TestFiniteStateMachine.StepState;
+import statemachine.TestFiniteStateMachine.TallyState;
+
+public class TestMachineArena {
+
+    private MachineArena arena;
+
+    @Before
+    public void setUp() throws Exception {
+
+        arena = new MachineArena("Atms", MachineDefinition.build(AtmState.Idle), 1000);
+    }
+
+    @Test
+    public void testInitialState() {
+
+        assertEquals(1000, arena.getCapacity());
+        assertEquals(AtmState.Idle, arena.getCurrentState(0));
+        assertEquals(AtmState.Idle, arena.getCurrentState(999));
+        assertNull(arena.getLatestEvent(999));
+    }
+
+    @Test
+    public void testInput() throws StateMachineException {
+
+        arena.input(7, AtmEvent.Connected);
+        arena.input(7, AtmEvent.LoadFail);
+        // Not a transition event for Idle State
+        arena.input(8, AtmEvent.LoadFail);
+
+        assertEquals(AtmState.OutOfService, arena.getCurrentState(7));
+        assertEquals(AtmEvent.LoadFail, arena.getLatestEvent(7));
+        assertEquals(AtmState.Idle, arena.getCurrentState(8));
+        assertNull(arena.getLatestEvent(8));
+
+        arena.reset(7);
+        assertEquals(AtmState.Idle, arena.getCurrentState(7));
+    }
+
+    @Test
+    public void testGetStateMachine() throws StateMachineException {
+
+        StateMachine view = arena.getStateMachine(42);
+        assertEquals("Atms[42]", view.getName());
+        assertEquals(view, arena.getStateMachine(42));
+        assertNotEquals(view, arena.getStateMachine(43));
+
+        view.input(AtmEvent.Connected);
+        assertEquals(AtmState.Loading, view.getCurrentState());
+        assertEquals(AtmState.Loading, arena.getCurrentState(42));
+        assertEquals(AtmState.values().length, view.getStates().length);
+
+        view.setup(AtmState.Idle);
+        assertEquals(AtmState.Idle, view.getCurrentState());
+    }
+
+    @Test
+    public void testAccepts() throws StateMachineException {
+
+        StateMachine view = arena.getStateMachine(3);
+        assertTrue(view.accepts(AtmEvent.Connected));
+        assertFalse(view.accepts(AtmEvent.LoadFail));
+        assertFalse(arena.accepts(3, new MockJunctureEvent("NotAnAtmEvent")));
+
+        view.input(AtmEvent.Connected);
+        assertTrue(arena.accepts(3, AtmEvent.LoadFail));
+        assertFalse(arena.accepts(4, AtmEvent.LoadFail));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testInputOutOfRange() throws StateMachineException {
+
+        arena.input(1000, AtmEvent.Connected);
+    }
+
+    @Test
+    public void testCapacityOverOneFill() {
+
+        MachineArena large = new MachineArena("Large", MachineDefinition.build(AtmState.Loading), 2500);
+        assertEquals(AtmState.Loading, large.getCurrentState(0));
+        assertEquals(AtmState.Loading, large.getCurrentState(2499));
+        assertNull(large.getLatestEvent(2499));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSetupOtherStartState() {
+
+        arena.getStateMachine(0).setup(AtmState.Loading);
+    }
+
+    @Test
+    public void testInputPure() throws StateMachineException {
+
+        ParityState even = new ParityState("Even");
+        ParityState odd = new ParityState("Odd");
+        even.other = odd;
+        odd.other = even;
+
+        MachineArena parities = new MachineArena("Parities", MachineDefinition.build(even), 10);
+        for (int instance = 0; instance < 10; instance++) {
+            parities.input(instance, ParityState.FLIP);
+        }
+        assertEquals(odd, parities.getCurrentState(9));
+
+        // The transition was delegated once and then taken from the TransitionTable
+        assertEquals(1, even.transitionCount);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testContextStates() {
+
+        new MachineArena("Tallies", MachineDefinition.build(new TallyState("Collecting")), 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testActionStates() {
+
+        StepState idle = new StepState("Idle");
+        idle.next = idle;
+        new MachineArena("Steps", MachineDefinition.build(idle), 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSlots() {
+
+        new MachineArena("Atms", MachineDefinition.build(AtmState.Idle).withSlots(1, 0, 0), 10);
+    }
+
+}
@@ -0,0 +1,445 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import statemachine.TestFiniteStateMachine.AtmEvent;
+import statemachine.TestFiniteStateMachine.AtmState;
+import statemachine.TestFiniteStateMachine.TurnstileEvent;
+import statemachine.TestFiniteStateMachine.TurnstileState;
+
+public class TestMachineDefinition {
+
+    public static class RingState extends AbstractCompactState implements MergeableState {
+
+        private static final long serialVersionUID = 1L;
+        private static final Event STEP = new MockJunctureEvent("RingStep");
+        private final boolean marked;
+        private RingState next;
+        private int entryCount = 0;
+
+        public RingState(int position, boolean marked) {
+            super("Ring" + position);
+            this.marked = marked;
+        }
+
+        @Override
+        public Object getMergeKey() {
+            return marked;
+        }
+
+        @Override
+        public void onEntry(Event event) {
+            entryCount++;
+        }
+
+        @Override
+        public State getTransitionState(Event event) {
+            return next;
+        }
+
+        @Override
+        public State onTransition(Event event) throws StateMachineException {
+            return next;
+        }
+
+        @Override
+        public EventSet getInputEventSet() {
+            return eventSet(STEP);
+        }
+
+        @Override
+        public StateSet getTransitionStateSet() {
+            return stateSet(next);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public RingState getThis() {
+            return this;
+        }
+
+        /**
+         * Makes a ring of States with every period-th one marked.
+         */
+        public static RingState[] ringOf(int size, int period) {
+            RingState[] ring = new RingState[size];
+            for (int position = 0; position < size; position++) {
+                ring[position] = new RingState(position, position % period == 0);
+            }
+            for (int position = 0; position < size; position++) {
+                ring[position].next = ring[(position + 1) % size];
+            }
+            return ring;
+        }
+    }
+
+    public static class ChainState extends AbstractCompactState {
+
+        private static final long serialVersionUID = 1L;
+        private static final Event STEP = new MockJunctureEvent("Step");
+        private ChainState next;
+        private EventSet inputEvents = EventSet.EMPTY;
+        private StateSet transitionStates = StateSet.EMPTY;
+
+        public ChainState(int position) {
+            super("Chain" + position);
+        }
+
+        @Override
+        public void init() {
+            if (next != null) {
+                inputEvents = eventSet(STEP);
+                transitionStates = stateSet(next);
+            }
+        }
+
+        @Override
+        public State onTransition(Event event) throws StateMachineException {
+            return next;
+        }
+
+        @Override
+        public EventSet getInputEventSet() {
+            return inputEvents;
+        }
+
+        @Override
+        public StateSet getTransitionStateSet() {
+            return transitionStates;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public ChainState getThis() {
+            return this;
+        }
+
+        public static ChainState chainOf(int length) {
+            ChainState[] chain = new ChainState[length];
+            for (int position = length - 1; position >= 0; position--) {
+                chain[position] = new ChainState(position);
+                chain[position].next = position + 1 < length ? chain[position + 1] : null;
+            }
+            return chain[0];
+        }
+    }
+
+    private MachineDefinition definition;
+
+    @Before
+    public void setUp() throws Exception {
+
+        definition = MachineDefinition.build(TurnstileState.Locked);
+    }
+
+    @Test
+    public void testBuild() {
+
+        assertSame(TurnstileState.Locked, definition.getStartState());
+        assertEquals(TurnstileState.values().length, definition.getStateSet().size());
+        assertEquals(TurnstileEvent.values().length, definition.getInputEventSet().size());
+        assertEquals(definition.getTransitionTable().indexOf(TurnstileState.Locked), definition.getStartStateIndex());
+    }
+
+    @Test
+    public void testSharedInstances() throws StateMachineException {
+
+        FiniteStateMachine first = definition.newInstance("First");
+        FiniteStateMachine second = new FiniteStateMachine("Second", definition);
+        assertEquals(TurnstileState.Locked, first.getCurrentState());
+        assertSame(definition, second.getDefinition());
+
+        first.input(TurnstileEvent.Coin);
+        assertEquals(TurnstileState.Unlocked, first.getCurrentState());
+        assertEquals(TurnstileState.Locked, second.getCurrentState());
+        assertNull(second.getLatestEvent());
+        assertSame(first.getStateSet(), second.getStateSet());
+    }
+
+    @Test
+    public void testSetupWithDefinition() throws StateMachineException {
+
+        FiniteStateMachine fsm = new FiniteStateMachine("Fsm");
+        fsm.setup(AtmState.Idle);
+        fsm.input(AtmEvent.Connected);
+        assertEquals(AtmState.Loading, fsm.getCurrentState());
+
+        fsm.setup(definition);
+        assertEquals(TurnstileState.Locked, fsm.getCurrentState());
+        assertNull(fsm.getLatestEvent());
+        assertEquals(TurnstileState.values().length, fsm.getStates().length);
+    }
+
+    @Test
+    public void testMinimize() throws StateMachineException {
+        RingState[] ring = RingState.ringOf(12, 3);
+        MachineDefinition definition = MachineDefinition.build(ring[0]);
+        Minimization minimization = definition.minimize();
+
+        assertEquals(12, minimization.getOriginalStateCount());
+        assertEquals(3, minimization.getMinimizedStateCount());
+        assertEquals(9, minimization.getMergedStateCount());
+        assertSame(definition, minimization.getOriginal());
+        assertEquals(ring[1], minimization.getRepresentative(ring[7]));
+        assertEquals(2, minimization.getMinimizedIndex(definition.getTransitionTable().indexOf(ring[5])));
+
+        FiniteStateMachine fsm = new FiniteStateMachine("Ring", minimization.getMinimized());
+        for (int step = 0; step < 4; step++) {
+            fsm.input(RingState.STEP);
+        }
+        // Ring4 was merged into Ring1
+        assertEquals(ring[1], fsm.getCurrentState());
+        assertEquals(0, ring[4].entryCount);
+
+        // A ring with a single marked State cannot be reduced
+        assertEquals(0, MachineDefinition.build(RingState.ringOf(5, 5)[0]).minimize().getMergedStateCount());
+    }
+
+    @Test
+    public void testWithLayout() throws StateMachineException, IOException {
+        MachineDefinition definition = MachineDefinition.build(AtmState.Idle);
+        FiniteStateMachine fsm = definition.newInstance("Atm");
+        TransitionProfile profile = new TransitionProfile(definition);
+        fsm.setTransitionProfile(profile);
+
+        fsm.input(AtmEvent.Connected);
+        fsm.input(AtmEvent.LoadSuccess);
+        for (int count = 0; count < 10; count++) {
+            fsm.input(AtmEvent.ShutDown);
+            fsm.input(AtmEvent.StartUp);
+        }
+        fsm.input(AtmEvent.ShutDown);
+        assertEquals(23, profile.getTotalCount());
+        assertEquals(11, profile.getCount(AtmState.InService, AtmEvent.ShutDown));
+
+        // The layout survives being written out and read back
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        profile.toLayout().write(new DataOutputStream(bytes));
+        TransitionLayout layout = TransitionLayout.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(profile.toLayout(), layout);
+        assertEquals("InService", layout.getStateNames().get(0));
+        assertEquals("ShutDown", layout.getEventNames().get(0));
+        assertEquals("StartUp", layout.getHotEventName("OutOfService"));
+
+        MachineDefinition laidOut = definition.withLayout(layout);
+        TransitionTable table = laidOut.getTransitionTable();
+        assertEquals(0, table.indexOf(AtmState.InService));
+        assertEquals(1, table.indexOf(AtmState.OutOfService));
+        assertEquals(0, table.indexOf(AtmEvent.ShutDown));
+        assertEquals(1, table.indexOf(1, AtmEvent.StartUp));
+        assertEquals(TransitionTable.DELEGATE, table.next(0, 0));
+        assertEquals(TransitionTable.REJECT, table.next(0, table.indexOf(AtmEvent.Connected)));
+        assertEquals(AtmState.Idle, laidOut.getStartState());
+        assertEquals(definition.getStateSet().size(), laidOut.getStateSet().size());
+
+        FiniteStateMachine laidOutFsm = laidOut.newInstance("LaidOut");
+        laidOutFsm.input(AtmEvent.Connected);
+        laidOutFsm.input(AtmEvent.LoadFail);
+        laidOutFsm.input(AtmEvent.StartUp);
+        assertEquals(AtmState.InService, laidOutFsm.getCurrentState());
+
+        // Counting stops with another definition
+        fsm.setup(laidOut);
+        assertNull(fsm.getTransitionProfile());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransitionProfileOfAnotherDefinition() {
+        MachineDefinition.build(AtmState.Idle).newInstance("Atm")
+            .setTransitionProfile(new TransitionProfile(MachineDefinition.build(AtmState.Idle)));
+    }
+
+    @Test
+    public void testStep() throws StateMachineException {
+        MachineDefinition definition = MachineDefinition.build(TurnstileState.Locked);
+        TransitionTable table = definition.getTransitionTable();
+        int locked = table.indexOf(TurnstileState.Locked);
+        int unlocked = table.indexOf(TurnstileState.Unlocked);
+        int coin = table.indexOf(TurnstileEvent.Coin);
+
+        // Enough instances to be split into ranges
+        int instanceCount = 5 * ColumnarStep.THRESHOLD + 3;
+        int[] states = new int[instanceCount];
+        int[] events = new int[instanceCount];
+        for (int instance = 0; instance < instanceCount; instance++) {
+            states[instance] = instance % 2 == 0 ? locked : unlocked;
+            events[instance] = coin;
+        }
+        int[] sequentialStates = states.clone();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // A Coin unlocks the Locked half and is rejected by the Unlocked half
+            assertEquals((instanceCount + 1) / 2, definition.step(states, events, pool));
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals((instanceCount + 1) / 2, definition.step(sequentialStates, events));
+        for (int instance = 0; instance < instanceCount; instance++) {
+            assertEquals(unlocked, states[instance]);
+        }
+        assertArrayEquals(sequentialStates, states);
+    }
+
+    @Test
+    public void testStepDelegated() throws StateMachineException {
+        MachineDefinition definition = MachineDefinition.build(AtmState.Idle);
+        TransitionTable table = definition.getTransitionTable();
+        int[] states = { table.indexOf(AtmState.Idle), table.indexOf(AtmState.Loading), TransitionTable.REJECT };
+        int[] events = { table.indexOf(AtmEvent.Connected), table.indexOf(AtmEvent.LoadFail),
+                         table.indexOf(AtmEvent.Connected) };
+
+        assertEquals(2, definition.step(states, events));
+        assertEquals(table.indexOf(AtmState.Loading), states[0]);
+        assertEquals(table.indexOf(AtmState.OutOfService), states[1]);
+        assertEquals(TransitionTable.REJECT, states[2]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStepColumnsDiffer() throws StateMachineException {
+        MachineDefinition.build(TurnstileState.Locked).step(new int[2], new int[3]);
+    }
+
+    @Test
+    public void testStepIndicesOutOfRange() throws StateMachineException {
+        MachineDefinition definition = MachineDefinition.build(TurnstileState.Locked);
+        TransitionTable table = definition.getTransitionTable();
+        int locked = table.indexOf(TurnstileState.Locked);
+        int coin = table.indexOf(TurnstileEvent.Coin);
+        int[][] badColumns = {
+            { locked, table.getEventCount() }, { locked, TransitionTable.DELEGATE },
+            { table.getStateCount(), coin }, { TransitionTable.GUARDED, coin } };
+
+        for (int[] badColumn : badColumns) {
+            // The first instance is valid, but nothing is stepped
+            int[] states = { locked, badColumn[0] };
+            int[] events = { coin, badColumn[1] };
+            try {
+                definition.step(states, events);
+                fail("Stepped State index " + badColumn[0] + " and Event index " + badColumn[1]);
+            } catch (IllegalArgumentException e) {
+                assertEquals(locked, states[0]);
+            }
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testStepContextStates() throws StateMachineException {
+        TestFiniteStateMachine.TallyState collecting = new TestFiniteStateMachine.TallyState("Collecting");
+        MachineDefinition.build(collecting).withSlots(1, 1, 0).step(new int[1], new int[1]);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testStepActionStates() throws StateMachineException {
+        TestFiniteStateMachine.StepState idle = new TestFiniteStateMachine.StepState("Idle");
+        idle.next = idle;
+        MachineDefinition.build(idle).step(new int[1], new int[1], ForkJoinPool.commonPool());
+    }
+
+    @Test
+    public void testBuildDeepGraph() throws StateMachineException {
+
+        // Deep enough to overflow the stack if the graph were walked recursively
+        MachineDefinition chain = MachineDefinition.build(ChainState.chainOf(100000));
+        assertEquals(100000, chain.getStateSet().size());
+        assertEquals("Chain99999", chain.getStateSet().get(99999).getName());
+        assertTrue(chain.getBuildNanos() > 0);
+
+        FiniteStateMachine fsm = chain.newInstance("Chain");
+        fsm.input(ChainState.STEP);
+        assertEquals("Chain1", fsm.getCurrentState().getName());
+    }
+
+    @Test
+    public void testBuildParallel() {
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MachineDefinition parallel = MachineDefinition.build(ChainState.chainOf(20000), pool);
+            MachineDefinition sequential = MachineDefinition.build(ChainState.chainOf(20000));
+            assertArrayEquals(sequential.getStateSet().toArray(), parallel.getStateSet().toArray());
+
+            parallel = MachineDefinition.build(TestFiniteStateMachine.AtmState.Idle, pool);
+            sequential = MachineDefinition.build(TestFiniteStateMachine.AtmState.Idle);
+            assertArrayEquals(sequential.getStateSet().toArray(), parallel.getStateSet().toArray());
+            assertArrayEquals(sequential.getInputEventSet().toArray(), parallel.getInputEventSet().toArray());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSetupLazily() throws StateMachineException {
+
+        ChainState start = ChainState.chainOf(100000);
+        FiniteStateMachine fsm = new FiniteStateMachine("Chain");
+        fsm.setupLazily(start);
+        assertTrue(fsm.isLazy());
+        assertEquals(1, fsm.getInitializedStateCount());
+
+        fsm.input(ChainState.STEP);
+        fsm.input(ChainState.STEP);
+        assertEquals("Chain2", fsm.getCurrentState().getName());
+        assertEquals(ChainState.STEP, fsm.getLatestEvent());
+        assertEquals(3, fsm.getInitializedStateCount());
+
+        // Not yet initialized, so it accepts nothing
+        ChainState third = fsm.getCurrentState().getThis();
+        assertEquals(1, third.getInputEventSet().size());
+        assertEquals(0, third.next.getInputEventSet().size());
+        assertTrue(fsm.isLazy());
+
+        // Needing all States completes the setup
+        assertEquals(100000, fsm.getStates().length);
+        assertFalse(fsm.isLazy());
+        assertEquals(100000, fsm.getInitializedStateCount());
+
+        fsm.input(ChainState.STEP);
+        assertEquals("Chain3", fsm.getCurrentState().getName());
+    }
+
+    @Test
+    public void testEmpty() throws StateMachineException {
+
+        FiniteStateMachine fsm = new FiniteStateMachine("Fsm");
+        assertSame(MachineDefinition.EMPTY, fsm.getDefinition());
+        assertEquals(0, fsm.getStates().length);
+        assertEquals(0, fsm.getInputEvents().length);
+    }
+
+}
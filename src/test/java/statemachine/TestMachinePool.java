@@ -0,0 +1,140 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import statemachine.TestMachineDefinition.ChainState;
+
+public class TestMachinePool {
+
+    private MachineDefinition definition;
+    private Event step;
+    private MachinePool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        definition = MachineDefinition.build(ChainState.chainOf(3)).withSlots(1, 0, 0);
+        step = definition.getInputEventSet().get(0);
+        pool = new MachinePool("Session", 2);
+    }
+
+    @Test
+    public void testAcquireRelease() throws StateMachineException {
+        FiniteStateMachine machine = pool.acquire(definition);
+        assertEquals("Session-1", machine.getName());
+        assertEquals(definition.getStartState(), machine.getCurrentState());
+
+        machine.input(step);
+        machine.getContext().setInt(0, 42);
+        assertTrue(pool.release(machine));
+        assertEquals(1, pool.getIdleCount(definition));
+
+        // The same machine comes back reset, without a new setup
+        FiniteStateMachine reused = pool.acquire(definition);
+        assertSame(machine, reused);
+        assertSame(definition, reused.getDefinition());
+        assertEquals(definition.getStartState(), reused.getCurrentState());
+        assertNull(reused.getLatestEvent());
+        assertEquals(0, reused.getContext().getInt(0));
+        assertEquals(0, pool.getIdleCount(definition));
+        assertEquals(1, pool.getCreatedCount());
+    }
+
+    @Test
+    public void testReleaseDropsOwnerState() throws StateMachineException {
+        final int[] entered = { 0 };
+        FiniteStateMachine machine = pool.acquire(definition);
+        machine.addTransitionListener(new TransitionListener() {
+
+            @Override
+            public void onEnter(StateMachine stateMachine, int stateId, int eventId) {
+                entered[0]++;
+            }
+        });
+        machine.setTransitionProfile(new TransitionProfile(definition));
+        machine.input(step);
+        assertEquals(1, entered[0]);
+        pool.release(machine);
+
+        // The next owner gets the same machine, with no listener and no profile
+        FiniteStateMachine reused = pool.acquire(definition);
+        assertSame(machine, reused);
+        assertEquals("Session-1", reused.getName());
+        assertNull(reused.getTransitionProfile());
+        reused.input(step);
+        assertEquals(1, entered[0]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseTwice() {
+        FiniteStateMachine machine = pool.acquire(definition);
+        pool.release(machine);
+        pool.release(machine);
+    }
+
+    @Test
+    public void testMaxIdle() {
+        FiniteStateMachine[] machines = new FiniteStateMachine[3];
+        for (int index = 0; index < machines.length; index++) {
+            machines[index] = pool.acquire(definition);
+        }
+        assertTrue(pool.release(machines[0]));
+        assertTrue(pool.release(machines[1]));
+        assertFalse(pool.release(machines[2]));
+        assertEquals(2, pool.getIdleCount(definition));
+
+        pool.clear();
+        assertEquals(0, pool.getIdleCount(definition));
+    }
+
+    @Test
+    public void testReleasedByContainer() throws StateMachineException {
+        ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<Event>();
+        GeneralStateMachineContainer container = new GeneralStateMachineContainer("Sessions", queue);
+        container.setMachinePool(pool);
+        FiniteStateMachine machine = pool.acquire(definition);
+        container.addStateMachine(machine);
+
+        queue.offer(step);
+        container.deliverNextEvent();
+        assertSame(machine, container.findStateMachine(machine.getName()));
+        assertFalse(machine.isInTerminalState());
+
+        // The last State of the chain accepts no Event
+        queue.offer(step);
+        container.deliverNextEvent();
+        assertNull(container.findStateMachine(machine.getName()));
+        assertEquals(1, pool.getIdleCount(definition));
+        assertSame(machine, pool.acquire(definition));
+        assertEquals(definition.getStartState(), machine.getCurrentState());
+    }
+}
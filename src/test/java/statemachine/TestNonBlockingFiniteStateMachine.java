@@ -0,0 +1,208 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import statemachine.TestFiniteStateMachine.AtmEvent;
+import statemachine.TestFiniteStateMachine.AtmState;
+import statemachine.TestFiniteStateMachine.StepState;
+import statemachine.TestFiniteStateMachine.TallyState;
+import statemachine.TestFiniteStateMachine.TurnstileEvent;
+import statemachine.TestFiniteStateMachine.TurnstileState;
+
+public class TestNonBlockingFiniteStateMachine {
+
+    private NonBlockingFiniteStateMachine fsm;
+
+    @Before
+    public void setUp() throws Exception {
+
+        fsm = new NonBlockingFiniteStateMachine("Fsm");
+        fsm.setup(AtmState.Idle);
+    }
+
+    @Test
+    public void testGetName() {
+
+        assertEquals("Fsm", fsm.getName());
+    }
+
+    @Test
+    public void testSetup() {
+
+        assertEquals(AtmEvent.values().length, fsm.getInputEvents().length);
+        assertEquals(AtmState.values().length, fsm.getStates().length);
+        assertEquals(AtmState.Idle, fsm.getCurrentState());
+        assertNull(fsm.getLatestEvent());
+    }
+
+    @Test
+    public void testInput() throws StateMachineException {
+
+        // Not a transition event for Idle State
+        fsm.input(AtmEvent.StartUp);
+        assertEquals(AtmState.Idle, fsm.getCurrentState());
+
+        fsm.input(AtmEvent.Connected);
+        assertEquals(AtmState.Loading, fsm.getCurrentState());
+
+        fsm.input(AtmEvent.LoadFail);
+        assertEquals(AtmState.OutOfService, fsm.getCurrentState());
+        assertEquals(AtmEvent.LoadFail, fsm.getLatestEvent());
+
+        fsm.input(AtmEvent.StartUp);
+        assertEquals(AtmState.InService, fsm.getCurrentState());
+    }
+
+    @Test
+    public void testInputBatch() throws StateMachineException {
+
+        Event[] events = { AtmEvent.StartUp, AtmEvent.Connected, AtmEvent.LoadFail };
+
+        InputResult result = fsm.input(events, 1, events.length);
+        assertEquals(2, result.getAppliedCount());
+        assertEquals(AtmState.OutOfService, result.getFinalState());
+    }
+
+    @Test
+    public void testInputBeforeSetup() throws StateMachineException {
+
+        NonBlockingFiniteStateMachine unset = new NonBlockingFiniteStateMachine("Unset");
+        try {
+            unset.input(AtmEvent.Connected);
+            fail("Input before setup");
+        } catch (StateMachineException expected) {
+        }
+
+        unset.setup(AtmState.Idle);
+        unset.input(AtmEvent.Connected);
+        assertEquals(AtmState.Loading, unset.getCurrentState());
+    }
+
+    @Test
+    public void testInputAfterRuntimeException() throws StateMachineException {
+
+        // Without slots the MachineContext is empty, so a Dime fails
+        TallyState collecting = new TallyState("Collecting");
+        NonBlockingFiniteStateMachine tally = new NonBlockingFiniteStateMachine("Tally", MachineDefinition.build(collecting));
+        try {
+            tally.input(TallyState.DIME);
+            fail("Input to an empty MachineContext");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+
+        // The failed delivery did not leave the machine stuck
+        tally.setup(MachineDefinition.build(collecting).withSlots(1, 1, 0));
+        tally.input(TallyState.DIME);
+        tally.input(TallyState.DIME);
+        assertEquals(20, tally.getContext().getInt(TallyState.CREDIT_SLOT));
+        assertEquals(TallyState.DIME, tally.getLatestEvent());
+    }
+
+    @Test
+    public void testInputActions() throws StateMachineException {
+
+        StepState idle = new StepState("Idle");
+        StepState working = new StepState("Working");
+        StepState failed = new StepState("Failed");
+        idle.next = working;
+        idle.branch = failed;
+        working.next = failed;
+        failed.next = idle;
+        NonBlockingFiniteStateMachine steps = new NonBlockingFiniteStateMachine("Steps");
+        steps.setup(idle);
+
+        idle.transitionResult = ActionResult.STAY;
+        steps.input(StepState.GO);
+        assertEquals(idle, steps.getCurrentState());
+        assertEquals(StepState.GO, steps.getLatestEvent());
+        assertEquals(0, idle.entryCount);
+
+        idle.transitionResult = ActionResult.PROCEED;
+        working.entryResult = ActionResult.ABORT;
+        steps.input(StepState.GO);
+        assertEquals(idle, steps.getCurrentState());
+        assertEquals(1, working.entryCount);
+
+        idle.transitionResult = ActionResult.BRANCH;
+        steps.input(StepState.GO);
+        assertEquals(failed, steps.getCurrentState());
+
+        failed.transitionResult = ActionResult.RESTART;
+        steps.input(StepState.GO);
+        assertEquals(idle, steps.getCurrentState());
+        assertNull(steps.getLatestEvent());
+    }
+
+    @Test
+    public void testConcurrentInput() throws Exception {
+
+        final NonBlockingFiniteStateMachine turnstile = new NonBlockingFiniteStateMachine("Turnstile");
+        turnstile.setup(TurnstileState.Locked);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int thread = 0; thread < 4; thread++) {
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int count = 0; count < 10000; count++) {
+                            turnstile.input(TurnstileEvent.Coin);
+                            turnstile.input(TurnstileEvent.Push);
+                        }
+                    } catch (StateMachineException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Every Event has been delivered once all input calls have returned
+        State state = turnstile.getCurrentState();
+        Event event = turnstile.getLatestEvent();
+        assertTrue(state == TurnstileState.Locked && event == TurnstileEvent.Push
+                || state == TurnstileState.Unlocked && event == TurnstileEvent.Coin);
+    }
+
+    @Test
+    public void testToString() {
+
+        assertEquals("Fsm", fsm.toString());
+    }
+
+}
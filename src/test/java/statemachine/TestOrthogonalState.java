@@ -0,0 +1,163 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import statemachine.TestHierarchicalStateMachine.Node;
+
+public class TestOrthogonalState {
+
+    private static final Event PING = new MockJunctureEvent("Ping");
+    private static final Event BONG = new MockJunctureEvent("Bong");
+    private static final Event QUIT = new MockJunctureEvent("Quit");
+
+    private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+
+    private FiniteStateMachine region(String name, Event event) {
+        Node first = new Node(name + "1", null, log);
+        Node second = new Node(name + "2", null, log);
+        first.on(event, second);
+        second.on(event, first);
+        FiniteStateMachine region = new FiniteStateMachine(name);
+        region.setup(first);
+        return region;
+    }
+
+    private void testRegions(ForkJoinPool pool) throws StateMachineException {
+        FiniteStateMachine left = region("Left", PING);
+        FiniteStateMachine middle = region("Middle", PING);
+        FiniteStateMachine right = region("Right", BONG);
+        OrthogonalState regions = new OrthogonalState("Regions", pool, left, middle, right);
+        Node done = new Node("Done", null, log);
+        regions.addExit(QUIT, done);
+
+        FiniteStateMachine machine = new FiniteStateMachine("Machine");
+        machine.setup(regions);
+        assertEquals(2, machine.getStates().length);
+        assertEquals(3, machine.getInputEvents().length);
+
+        machine.input(PING);
+        assertEquals(regions, machine.getCurrentState());
+        assertEquals("Left2", left.getCurrentState().getName());
+        assertEquals("Middle2", middle.getCurrentState().getName());
+        assertEquals("Right1", right.getCurrentState().getName());
+
+        machine.input(BONG);
+        assertEquals("Left2", left.getCurrentState().getName());
+        assertEquals("Right2", right.getCurrentState().getName());
+
+        machine.input(QUIT);
+        assertEquals(done, machine.getCurrentState());
+        assertEquals("Right2", right.getCurrentState().getName());
+    }
+
+    @Test
+    public void testInputSequential() throws StateMachineException {
+        testRegions(null);
+        assertEquals(4, log.size());
+    }
+
+    @Test
+    public void testInputConcurrent() throws StateMachineException {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            testRegions(pool);
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(log.contains("enter Left2"));
+        assertTrue(log.contains("enter Middle2"));
+    }
+
+    @Test
+    public void testInputAfterDeserialization() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            OrthogonalState regions = new OrthogonalState("Regions", pool,
+                    region("Left", PING), region("Right", PING));
+            regions.init();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(regions);
+            out.close();
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            OrthogonalState copy = (OrthogonalState) in.readObject();
+
+            // The copy runs its regions on the common pool
+            assertEquals(copy, copy.onTransition(PING));
+            assertEquals("Left2", copy.getRegion(0).getCurrentState().getName());
+            assertEquals("Right2", copy.getRegion(1).getCurrentState().getName());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testInputFailures() {
+        final Event fail = new MockJunctureEvent("Fail");
+        StateMachine[] failing = new StateMachine[3];
+        for (int index = 0; index < failing.length; index++) {
+            final int number = index;
+            Node node = new Node("Failing" + index, null, log) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public State onTransition(Event event) throws StateMachineException {
+                    throw new StateMachineException("Region " + number);
+                }
+            };
+            node.on(fail, node);
+            failing[index] = new FiniteStateMachine("Failing" + index);
+            failing[index].setup(node);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            OrthogonalState regions = new OrthogonalState("Failing", pool, failing);
+            regions.init();
+            regions.onTransition(fail);
+            fail("StateMachineException expected");
+        } catch (StateMachineException e) {
+            assertEquals(2, e.getSuppressed().length);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
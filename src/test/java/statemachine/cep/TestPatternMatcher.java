@@ -0,0 +1,114 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine.cep;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import statemachine.Event;
+import statemachine.EventSender;
+import statemachine.MockJunctureEvent;
+
+public class TestPatternMatcher {
+
+    private static final Event COIN = new MockJunctureEvent("Coin");
+    private static final Event RETURN = new MockJunctureEvent("Return");
+    private static final Event OTHER = new MockJunctureEvent("Other");
+    private static final Event ABUSE = new MockJunctureEvent("Abuse");
+
+    @Test
+    public void testSequenceWithin() {
+        PatternMatcher matcher = new PatternMatcher(EventPattern.sequence(COIN, RETURN).within(2000), ABUSE);
+
+        assertFalse(matcher.input(COIN, 0));
+        assertEquals(1, matcher.getActivePartialCount());
+        assertFalse(matcher.input(OTHER, 500));
+        assertTrue(matcher.input(RETURN, 1000));
+        assertEquals(0, matcher.getActivePartialCount());
+
+        // too late
+        assertFalse(matcher.input(COIN, 5000));
+        assertFalse(matcher.input(RETURN, 7001));
+        assertEquals(0, matcher.getActivePartialCount());
+
+        // a later Coin replaces the earlier partial match
+        assertFalse(matcher.input(COIN, 10000));
+        assertFalse(matcher.input(COIN, 11500));
+        assertEquals(1, matcher.getActivePartialCount());
+        assertTrue(matcher.input(RETURN, 13000));
+    }
+
+    @Test
+    public void testTimes() {
+        EventPattern pattern = EventPattern.sequence(COIN, RETURN).within(2000).times(3, 60000);
+        PatternMatcher matcher = new PatternMatcher(pattern, ABUSE);
+
+        long now = 0;
+        for (int round = 0; round < 2; round++) {
+            assertFalse(matcher.input(COIN, now++));
+            assertFalse(matcher.input(RETURN, now++));
+        }
+        // the first two have left the minute
+        now = 61000;
+        assertFalse(matcher.input(COIN, now++));
+        assertFalse(matcher.input(RETURN, now++));
+        assertFalse(matcher.input(COIN, now++));
+        assertFalse(matcher.input(RETURN, now++));
+        assertFalse(matcher.input(COIN, now++));
+        assertTrue(matcher.input(RETURN, now++));
+        assertEquals(1, matcher.getMatchCount());
+    }
+
+    @Test
+    public void testOnDeliveredPostsPriorityEvent() {
+        final List<Event> posted = new ArrayList<Event>();
+        EventSender eventSender = new EventSender() {
+
+            @Override
+            public void postEvent(Event event) {
+                fail("Matches go to the priority queue");
+            }
+
+            @Override
+            public void postPriorityEvent(Event event) {
+                posted.add(event);
+            }
+        };
+        long[] clock = { 0 };
+        PatternMatcher matcher = new PatternMatcher(EventPattern.sequence(COIN, RETURN), ABUSE, () -> clock[0]);
+
+        matcher.onDelivered(COIN, null, eventSender);
+        clock[0] = 100000;
+        matcher.onDelivered(RETURN, null, eventSender);
+        assertEquals(1, posted.size());
+        assertEquals(ABUSE, posted.get(0));
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine.compile;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import statemachine.Event;
+import statemachine.MockJunctureState;
+import statemachine.StateFactory;
+import statemachine.StateMachine;
+
+public class TestCompiledMachineProcessor {
+
+    private static final String EVENTS =
+            "package door;\n"
+            + "public enum DoorEvent implements statemachine.Event {\n"
+            + "    OPEN, CLOSE, LOCK, UNLOCK;\n"
+            + "    public String getName() { return name(); }\n"
+            + "    @SuppressWarnings(\"unchecked\") public DoorEvent getThis() { return this; }\n"
+            + "}\n";
+
+    private static final String STATES =
+            "package door;\n"
+            + "import statemachine.compile.CompiledMachine;\n"
+            + "import statemachine.compile.Transition;\n"
+            + "@CompiledMachine(name = \"DoorMachine\", events = DoorEvent.class, start = \"CLOSED\")\n"
+            + "public enum DoorState {\n"
+            + "    @Transition(on = \"CLOSE\", to = \"CLOSED\") OPENED,\n"
+            + "    @Transition(on = \"OPEN\", to = \"OPENED\")\n"
+            + "    @Transition(on = \"LOCK\", to = \"LOCKED\") CLOSED,\n"
+            + "    @Transition(on = \"UNLOCK\", to = \"CLOSED\") LOCKED\n"
+            + "}\n";
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("compiled-machine").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testGeneratedMachine() throws Exception {
+        assertEquals("", compile(STATES));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { directory.toURI().toURL() },
+                getClass().getClassLoader())) {
+            Class events = loader.loadClass("door.DoorEvent");
+            StateFactory stateFactory = state -> new MockJunctureState(state.name());
+            StateMachine machine = (StateMachine) loader.loadClass("door.DoorMachine")
+                    .getConstructor(String.class, StateFactory.class)
+                    .newInstance("Door", stateFactory);
+
+            assertEquals("Door", machine.getName());
+            assertEquals(3, machine.getStates().length);
+            assertEquals(4, machine.getInputEvents().length);
+            assertEquals("CLOSED", machine.getCurrentState().getName());
+
+            machine.input(event(events, "LOCK"));
+            assertEquals("LOCKED", machine.getCurrentState().getName());
+            assertEquals(event(events, "LOCK"), machine.getLatestEvent());
+
+            // no transition on OPEN while LOCKED
+            machine.input(event(events, "OPEN"));
+            assertEquals("LOCKED", machine.getCurrentState().getName());
+            assertEquals(event(events, "LOCK"), machine.getLatestEvent());
+
+            machine.input(event(events, "UNLOCK"));
+            machine.input(event(events, "OPEN"));
+            assertEquals("OPENED", machine.getCurrentState().getName());
+
+            machine.setup(new MockJunctureState("LOCKED"));
+            assertEquals("LOCKED", machine.getCurrentState().getName());
+            assertNull(machine.getLatestEvent());
+        }
+    }
+
+    @Test
+    public void testUnknownState() throws Exception {
+        String diagnostics = compile(STATES.replace("to = \"LOCKED\"", "to = \"JAMMED\""));
+        assertTrue(diagnostics, diagnostics.contains("Unknown State JAMMED"));
+        assertFalse(new File(directory, "door/DoorMachine.class").exists());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static Event event(Class events, String name) {
+        return (Event) Enum.valueOf(events, name);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private String compile(String states) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("Tests need a JDK", compiler);
+
+        File source = new File(directory, "door");
+        source.mkdirs();
+        File eventsFile = new File(source, "DoorEvent.java");
+        File statesFile = new File(source, "DoorState.java");
+        Files.write(eventsFile.toPath(), EVENTS.getBytes(StandardCharsets.UTF_8));
+        Files.write(statesFile.toPath(), states.getBytes(StandardCharsets.UTF_8));
+
+        String classpath = new File(StateMachine.class.getProtectionDomain().getCodeSource().getLocation().getPath())
+                .getPath();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+        try {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    Arrays.asList("-classpath", classpath, "-d", directory.getPath(), "-nowarn"),
+                    null, fileManager.getJavaFileObjects(eventsFile, statesFile));
+            task.setProcessors(Collections.singletonList(new CompiledMachineProcessor()));
+            task.call();
+        } finally {
+            fileManager.close();
+        }
+        StringBuilder errors = new StringBuilder();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.append(diagnostic.getMessage(null)).append('\n');
+            }
+        }
+        return errors.toString();
+    }
+
+}
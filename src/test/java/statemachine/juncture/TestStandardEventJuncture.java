@@ -61,4 +61,14 @@ public class TestStandardEventJuncture
         assertFalse(juncture.isJunctureConditionMet());
    }
 
+    @Test
+    public void testNullEventMatchesNothing()
+    {
+        // Neither the null Event nor the unregistered latest Event has an id
+        Event unregistered = new MockJunctureEvent("UnregisteredEvent");
+        StateMachine fsm = new MockFiniteStateMachine(new MockJunctureState("StateOne"), unregistered);
+        StandardEventJuncture juncture = new StandardEventJuncture(fsm, null);
+        assertFalse(juncture.isJunctureConditionMet());
+    }
+
 }
@@ -62,4 +62,14 @@ public class TestStandardStateJuncture
         assertFalse(juncture.isJunctureConditionMet());
     }
 
+    @Test
+    public void testNullStateMatchesNothing()
+    {
+        // Neither the null State nor the unregistered current State has an id
+        State unregistered = new MockJunctureState("UnregisteredState");
+        StateMachine fsm = new MockFiniteStateMachine(unregistered, new MockJunctureEvent("EventOne"));
+        StandardStateJuncture juncture = new StandardStateJuncture(fsm, null);
+        assertFalse(juncture.isJunctureConditionMet());
+    }
+
 }
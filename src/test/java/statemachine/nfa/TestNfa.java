@@ -0,0 +1,150 @@
+/*
+Copyright (c) 2016, Stephen M Milton
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met: 
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer. 
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution. 
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+*/
+
+package statemachine.nfa;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import statemachine.Event;
+import statemachine.FiniteStateMachine;
+import statemachine.MachineDefinition;
+import statemachine.Minimization;
+import statemachine.MockJunctureEvent;
+import statemachine.StateMachineException;
+
+public class TestNfa {
+
+    private static final Event A = new MockJunctureEvent("A");
+    private static final Event B = new MockJunctureEvent("B");
+
+    private Nfa nfa;
+    private int start;
+
+    /**
+     * Accepts input ending in A B, or the empty input by an epsilon
+     * transition.
+     */
+    @Before
+    public void setUp() {
+        nfa = new Nfa("EndsWithAB");
+        start = nfa.addNode("Start");
+        int any = nfa.addNode("Any");
+        int sawA = nfa.addNode("SawA");
+        int done = nfa.addNode("Done");
+        nfa.addEpsilonTransition(start, any);
+        nfa.addEpsilonTransition(start, done);
+        nfa.addTransition(any, A, any);
+        nfa.addTransition(any, B, any);
+        nfa.addTransition(any, A, sawA);
+        nfa.addTransition(sawA, B, done);
+        nfa.setAccepting(done);
+    }
+
+    private boolean accepts(FiniteStateMachine fsm, Event... events) throws StateMachineException {
+        fsm.input(Arrays.asList(events));
+        DfaState dfaState = fsm.getCurrentState().getThis();
+        return dfaState.isAccepting();
+    }
+
+    @Test
+    public void testCompile() throws StateMachineException {
+        DfaState startState = nfa.compile(start);
+        assertEquals(Arrays.asList("Start", "Any", "Done"), startState.getNodeNames());
+        assertTrue(startState.isAccepting());
+
+        FiniteStateMachine fsm = new FiniteStateMachine("Dfa");
+        fsm.setup(startState);
+        // {Start,Any,Done}, {Any,SawA}, {Any}, {Any,Done}
+        assertEquals(4, fsm.getStates().length);
+        assertEquals(4, nfa.getDfaStateCount());
+
+        assertFalse(accepts(fsm, A));
+        assertTrue(accepts(fsm, B));
+        assertFalse(accepts(fsm, B));
+        assertTrue(accepts(fsm, A, A, B));
+    }
+
+    @Test
+    public void testCompileLazily() throws StateMachineException {
+        FiniteStateMachine fsm = new FiniteStateMachine("Dfa");
+        fsm.setupLazily(nfa.compile(start));
+
+        assertFalse(accepts(fsm, A));
+        assertTrue(accepts(fsm, B));
+        // {Any} has not been reached
+        assertEquals(3, fsm.getInitializedStateCount());
+        assertTrue(fsm.isLazy());
+    }
+
+    @Test
+    public void testMinimize() throws StateMachineException {
+        DfaState startState = nfa.compile(start);
+        Minimization minimization = MachineDefinition.build(startState).minimize();
+
+        // {Start,Any,Done} and {Any,Done} are equivalent
+        assertEquals(4, minimization.getOriginalStateCount());
+        assertEquals(3, minimization.getMinimizedStateCount());
+        assertEquals(1, minimization.getMergedStateCount());
+
+        FiniteStateMachine fsm = new FiniteStateMachine("Dfa", minimization.getMinimized());
+        assertTrue(accepts(fsm, A, A, B));
+        assertEquals(startState, fsm.getCurrentState());
+        assertFalse(accepts(fsm, B));
+        assertTrue(accepts(fsm, A, B));
+    }
+
+    @Test
+    public void testDfaStatesOfNfasWithOneName() {
+        Nfa other = new Nfa("EndsWithAB");
+        int otherStart = other.addNode("Start");
+        other.addNode("Any");
+        other.addNode("Done");
+        other.addEpsilonTransition(otherStart, 1);
+        other.addEpsilonTransition(otherStart, 2);
+
+        DfaState startState = nfa.compile(start);
+        DfaState otherStartState = other.compile(otherStart);
+        assertEquals(startState.getName(), otherStartState.getName());
+        assertNotEquals(startState, otherStartState);
+        assertNotEquals(startState.id(), otherStartState.id());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddDuplicateNode() {
+        nfa.addNode("Any");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddAfterCompile() {
+        nfa.compile(start);
+        nfa.addNode("Late");
+    }
+
+}